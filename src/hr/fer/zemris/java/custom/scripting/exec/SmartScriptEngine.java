@@ -14,6 +14,7 @@ import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
 import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
 import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
 import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.webserver.ParameterValues;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -96,7 +97,7 @@ public class SmartScriptEngine {
 
 			Stack<String> invStack = new Stack<>();
 			while (!stack.isEmpty()) {
-				invStack.push(stack.pop().toString());
+				invStack.push(ParameterValues.asString(stack.pop()));
 			}
 
 			while (!invStack.isEmpty()) {
@@ -143,6 +144,29 @@ public class SmartScriptEngine {
 			stack.push(arg1.getValue());
 		}
 
+		/**
+		 * Returns the value to be stored in a parameter map. Numeric strings
+		 * are stored as numbers if the number prints as the same text, so
+		 * reading them back doesn't parse them again, while strings such as
+		 * "007" or "1e3" keep their text and other values keep their type.
+		 *
+		 * @param value
+		 *            value from the stack
+		 * @return typed value
+		 */
+		private Object typedValue(Object value) {
+			if (value instanceof String) {
+				Object number;
+				try {
+					number = new ValueWrapper(value).getValue();
+				} catch (IllegalArgumentException notNumeric) {
+					return value;
+				}
+				return number.toString().equals(value) ? number : value;
+			}
+			return value;
+		}
+
 		/**
 		 * Executes the appropriate action for a function element. For each
 		 * function pops the required number of arguments from the temporary
@@ -194,13 +218,12 @@ public class SmartScriptEngine {
 			} else if (function.equals("pparamGet")) {
 				Object defValue = new ValueWrapper(stack.pop()).getValue();
 				String name = stack.pop().toString();
-				String pparam = requestContext.getPersistentParameter(name);
+				Object pparam = requestContext.getPersistentValue(name);
 				stack.push(pparam == null ? defValue : pparam);
 
 			} else if (function.equals("pparamSet")) {
 				String name = stack.pop().toString();
-				String value = new ValueWrapper(stack.pop()).getValue().toString();
-				requestContext.setPersistentParameter(name, value);
+				requestContext.setPersistentValue(name, typedValue(stack.pop()));
 
 			} else if (function.equals("pparamDel")) {
 				String name = stack.pop().toString();
@@ -209,13 +232,12 @@ public class SmartScriptEngine {
 			} else if (function.equals("tparamGet")) {
 				Object defValue = new ValueWrapper(stack.pop()).getValue();
 				String name = stack.pop().toString();
-				String tparam = requestContext.getTemporaryParameter(name);
+				Object tparam = requestContext.getTemporaryValue(name);
 				stack.push(tparam == null ? defValue : tparam);
 
 			} else if (function.equals("tparamSet")) {
 				String name = stack.pop().toString();
-				String value = new ValueWrapper(stack.pop()).getValue().toString();
-				requestContext.setTemporaryParameter(name, value);
+				requestContext.setTemporaryValue(name, typedValue(stack.pop()));
 
 			} else if (function.equals("tparamDel")) {
 				String name = stack.pop().toString();
@@ -3,6 +3,7 @@ package hr.fer.zemris.java.custom.scripting.parser;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.function.UnaryOperator;
 
 import hr.fer.zemris.java.custom.scripting.elems.Element;
 import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
@@ -37,6 +38,11 @@ public class SmartScriptParser {
 	 */
 	private DocumentNode documentNode;
 
+	/**
+	 * Filter applied to the text of text nodes, or null.
+	 */
+	private UnaryOperator<String> textFilter;
+
 	/**
 	 * Constructor which initializes a new SmartScriptParser, which forwards the
 	 * given document to the SmartScriptLexer and then parses it.
@@ -45,6 +51,20 @@ public class SmartScriptParser {
 	 *            document text
 	 */
 	public SmartScriptParser(String document) {
+		this(document, null);
+	}
+
+	/**
+	 * Constructor which initializes a new SmartScriptParser and applies the
+	 * given filter to the text of each text node, for example to minify it.
+	 * 
+	 * @param document
+	 *            document text
+	 * @param textFilter
+	 *            filter applied to the text of text nodes, or null
+	 */
+	public SmartScriptParser(String document, UnaryOperator<String> textFilter) {
+		this.textFilter = textFilter;
 		documentNode = new DocumentNode();
 		SmartScriptLexer lexer = new SmartScriptLexer(document);
 		parse(lexer);
@@ -68,7 +88,11 @@ public class SmartScriptParser {
 
 				if (token.getType().equals(TokenType.TEXT)) {
 					// text node
-					Node node = new TextNode(token.getValue().toString());
+					String text = token.getValue().toString();
+					if (textFilter != null) {
+						text = textFilter.apply(text);
+					}
+					Node node = new TextNode(text);
 					Node last = stack.peek();
 					last.addChildNode(node);
 
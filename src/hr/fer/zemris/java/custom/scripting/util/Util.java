@@ -32,6 +32,23 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Returns the integer value of the given property or the default value if
+	 * the property is not set.
+	 * 
+	 * @param property
+	 *            given property
+	 * @param defaultValue
+	 *            value used if the property is null
+	 * @return integer value
+	 */
+	public static Integer getAsInt(String property, int defaultValue) {
+		if (property == null) {
+			return defaultValue;
+		}
+		return getAsInt(property.trim());
+	}
+
 	/**
 	 * Reads the file from the given path and composes a string out of its
 	 * contents.
@@ -0,0 +1,261 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Sends static files to the client with asynchronous file reads. The file is
+ * read with an {@link AsynchronousFileChannel} into pooled direct buffers, so
+ * the channel reads straight into them instead of through a temporary direct
+ * buffer, and the client worker's thread is released while the disk is busy.
+ * <p>
+ * The client socket is a blocking stream, so each chunk is written by a
+ * separate writer thread. A slow client then holds only its own writer and
+ * never the reading threads shared by all transfers.
+ *
+ * @author labramusic
+ *
+ */
+public class AsyncFileSender {
+
+	/**
+	 * Size of the pooled buffers.
+	 */
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Maximum number of buffers kept in the pool.
+	 */
+	private final static int MAX_POOLED_BUFFERS = 256;
+
+	/**
+	 * Array into which a writer thread copies a chunk before writing it to the
+	 * client's stream.
+	 */
+	private final static ThreadLocal<byte[]> CHUNKS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+	/**
+	 * Executor which performs the reads and runs the completion handlers.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Executor which writes the chunks to the clients. It has a thread for
+	 * each transfer currently writing, like the synchronous path would.
+	 */
+	private ExecutorService writer;
+
+	/**
+	 * The pooled buffers.
+	 */
+	private Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Initializes an AsyncFileSender.
+	 *
+	 * @param threads
+	 *            number of threads used for reading files
+	 */
+	public AsyncFileSender(int threads) {
+		executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts sending the given file to the client and returns immediately. The
+	 * header is written by the calling thread, the content from the completion
+	 * handlers. The given callback is run once the file has been sent or
+	 * sending failed.
+	 *
+	 * @param file
+	 *            file path
+	 * @param rc
+	 *            request context
+	 * @param onComplete
+	 *            callback run when sending has finished
+	 * @throws IOException
+	 *             thrown if the file cannot be opened or the header cannot be
+	 *             written
+	 */
+	public void send(Path file, RequestContext rc, Runnable onComplete) throws IOException {
+		AsynchronousFileChannel channel = AsynchronousFileChannel.open(file,
+				Collections.singleton(StandardOpenOption.READ), executor);
+		try {
+			rc.write(new byte[0]);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		new Transfer(channel, rc, onComplete).readNext();
+	}
+
+	/**
+	 * Stops the reading and writing threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		writer.shutdown();
+	}
+
+	/**
+	 * Takes a buffer from the pool or allocates a new one.
+	 *
+	 * @return empty buffer
+	 */
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns the buffer to the pool.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 */
+	private void returnBuffer(ByteBuffer buffer) {
+		if (buffers.size() < MAX_POOLED_BUFFERS) {
+			buffers.offer(buffer);
+		}
+	}
+
+	/**
+	 * A single file transfer which reads the next chunk each time the previous
+	 * one has been written.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class Transfer implements CompletionHandler<Integer, ByteBuffer> {
+
+		/**
+		 * The file channel.
+		 */
+		private AsynchronousFileChannel channel;
+
+		/**
+		 * The request context.
+		 */
+		private RequestContext rc;
+
+		/**
+		 * Callback run when sending has finished.
+		 */
+		private Runnable onComplete;
+
+		/**
+		 * Position of the next read.
+		 */
+		private long position;
+
+		/**
+		 * Initializes a Transfer.
+		 *
+		 * @param channel
+		 *            the file channel
+		 * @param rc
+		 *            the request context
+		 * @param onComplete
+		 *            callback run when sending has finished
+		 */
+		public Transfer(AsynchronousFileChannel channel, RequestContext rc, Runnable onComplete) {
+			this.channel = channel;
+			this.rc = rc;
+			this.onComplete = onComplete;
+		}
+
+		/**
+		 * Starts reading the next chunk. A read which can't even be started,
+		 * e.g. because the reading threads have been shut down, fails the
+		 * transfer.
+		 */
+		public void readNext() {
+			ByteBuffer buffer = takeBuffer();
+			try {
+				channel.read(buffer, position, buffer, this);
+			} catch (RuntimeException e) {
+				failed(e, buffer);
+			}
+		}
+
+		@Override
+		public void completed(Integer result, ByteBuffer buffer) {
+			if (result < 0) {
+				returnBuffer(buffer);
+				finish();
+				return;
+			}
+			try {
+				writer.execute(() -> write(result, buffer));
+			} catch (RejectedExecutionException e) {
+				failed(e, buffer);
+			}
+		}
+
+		/**
+		 * Writes the chunk read into the given buffer to the client and starts
+		 * reading the next one.
+		 *
+		 * @param result
+		 *            number of bytes read
+		 * @param buffer
+		 *            the buffer
+		 */
+		private void write(int result, ByteBuffer buffer) {
+			byte[] chunk = CHUNKS.get();
+			buffer.flip();
+			buffer.get(chunk, 0, result);
+			returnBuffer(buffer);
+			try {
+				rc.getOutputStream().write(chunk, 0, result);
+			} catch (IOException e) {
+				System.err.println("Couldn't write to socket output stream!");
+				finish();
+				return;
+			}
+			position += result;
+			readNext();
+		}
+
+		@Override
+		public void failed(Throwable exc, ByteBuffer buffer) {
+			System.err.println("The requested file couldn't be read: " + exc);
+			returnBuffer(buffer);
+			finish();
+		}
+
+		/**
+		 * Closes the channel and runs the completion callback.
+		 */
+		private void finish() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("The file channel couldn't be closed!");
+			}
+			onComplete.run();
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs asynchronous web workers. The client worker's thread returns as soon as
+ * the worker has started, and the response is finished from the thread which
+ * completes the worker's stage. A single scheduler thread cancels requests
+ * which take longer than the timeout, answering them with 504 Gateway
+ * Timeout, and periodically checks the connections of pending requests,
+ * cancelling the requests whose clients have disconnected. The response is
+ * finished while holding the request context's lock and the context is then
+ * closed, so a worker still writing after a timeout or cancellation fails
+ * instead of interleaving with the error response.
+ *
+ * @author labramusic
+ *
+ */
+public class AsyncWorkerRunner {
+
+	/**
+	 * Milliseconds between checks of the pending requests' connections.
+	 */
+	private final static long CHECK_INTERVAL = 1000;
+
+	/**
+	 * Milliseconds a connection is read while checking if it's closed.
+	 */
+	private final static int CHECK_TIMEOUT = 1;
+
+	/**
+	 * Timeout of a request in milliseconds.
+	 */
+	private long timeout;
+
+	/**
+	 * Scheduler of the timeouts and connection checks.
+	 */
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * The pending requests.
+	 */
+	private Set<PendingRequest> pending = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Initializes an AsyncWorkerRunner.
+	 *
+	 * @param timeout
+	 *            timeout of a request in milliseconds
+	 */
+	public AsyncWorkerRunner(long timeout) {
+		this.timeout = timeout;
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "async-workers");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::checkConnections, CHECK_INTERVAL, CHECK_INTERVAL,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts the given worker and returns immediately. The given callback,
+	 * which should close the connection, is run once the response has been
+	 * finished.
+	 *
+	 * @param worker
+	 *            the worker
+	 * @param rc
+	 *            request context
+	 * @param socket
+	 *            client socket
+	 * @param in
+	 *            input stream of the client socket, whose request has been
+	 *            read
+	 * @param onComplete
+	 *            callback run when the response has been finished
+	 */
+	public void run(IAsyncWebWorker worker, RequestContext rc, Socket socket, PushbackInputStream in,
+			Runnable onComplete) {
+		CompletableFuture<?> future;
+		try {
+			future = worker.processRequestAsync(rc).toCompletableFuture();
+		} catch (RuntimeException e) {
+			future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+		}
+
+		PendingRequest request = new PendingRequest(future, rc, socket, in, onComplete);
+		if (!future.isDone()) {
+			pending.add(request);
+			request.timeoutTask = scheduler.schedule(() -> {
+				request.timedOut = true;
+				request.future.cancel(true);
+			}, timeout, TimeUnit.MILLISECONDS);
+		}
+		future.whenComplete(request::finish);
+	}
+
+	/**
+	 * Gets the number of pending requests.
+	 *
+	 * @return number of pending requests
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Stops the scheduler thread.
+	 */
+	public void shutdown() {
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Cancels the pending requests whose clients have disconnected.
+	 */
+	private void checkConnections() {
+		for (PendingRequest request : pending) {
+			if (request.isDisconnected()) {
+				request.disconnected = true;
+				request.future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * A request whose worker is still running.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class PendingRequest {
+
+		/**
+		 * Future of the worker.
+		 */
+		private CompletableFuture<?> future;
+
+		/**
+		 * The request context.
+		 */
+		private RequestContext rc;
+
+		/**
+		 * The client socket.
+		 */
+		private Socket socket;
+
+		/**
+		 * Input stream of the client socket.
+		 */
+		private PushbackInputStream in;
+
+		/**
+		 * Callback run when the response has been finished.
+		 */
+		private Runnable onComplete;
+
+		/**
+		 * The scheduled timeout, or null.
+		 */
+		private volatile ScheduledFuture<?> timeoutTask;
+
+		/**
+		 * True if the client has disconnected.
+		 */
+		private volatile boolean disconnected;
+
+		/**
+		 * True if the request has been cancelled because it timed out.
+		 */
+		private volatile boolean timedOut;
+
+		/**
+		 * Initializes a PendingRequest.
+		 *
+		 * @param future
+		 *            future of the worker
+		 * @param rc
+		 *            the request context
+		 * @param socket
+		 *            the client socket
+		 * @param in
+		 *            input stream of the client socket
+		 * @param onComplete
+		 *            callback run when the response has been finished
+		 */
+		private PendingRequest(CompletableFuture<?> future, RequestContext rc, Socket socket, PushbackInputStream in,
+				Runnable onComplete) {
+			this.future = future;
+			this.rc = rc;
+			this.socket = socket;
+			this.in = in;
+			this.onComplete = onComplete;
+		}
+
+		/**
+		 * Checks if the client has closed the connection, without blocking for
+		 * more than a millisecond. Data sent by the client is pushed back.
+		 *
+		 * @return true if the connection is closed
+		 */
+		private boolean isDisconnected() {
+			try {
+				socket.setSoTimeout(CHECK_TIMEOUT);
+				int b = in.read();
+				if (b < 0) {
+					return true;
+				}
+				in.unread(b);
+				return false;
+			} catch (SocketTimeoutException e) {
+				return false;
+			} catch (IOException e) {
+				return true;
+			}
+		}
+
+		/**
+		 * Finishes the response once the worker's future has completed.
+		 *
+		 * @param result
+		 *            result of the worker, ignored
+		 * @param error
+		 *            error of the worker, or null
+		 */
+		private void finish(Object result, Throwable error) {
+			pending.remove(this);
+			ScheduledFuture<?> task = timeoutTask;
+			if (task != null) {
+				task.cancel(false);
+			}
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+					: error;
+			synchronized (rc) {
+				try {
+					if (cause == null) {
+						// sends the header if the worker didn't write anything
+						rc.write(new byte[0]);
+					} else if (!disconnected) {
+						if (timedOut || cause instanceof TimeoutException) {
+							sendError(504, "Gateway Timeout");
+						} else if (!(cause instanceof CancellationException)) {
+							System.err.println("Asynchronous worker failed: " + cause);
+							sendError(500, "Internal Server Error");
+						}
+					}
+				} catch (IOException e) {
+					System.err.println("Couldn't write to socket output stream!");
+				}
+				rc.close();
+			}
+			onComplete.run();
+		}
+
+		/**
+		 * Sends the error with the given status if the header hasn't been sent
+		 * yet.
+		 *
+		 * @param statusCode
+		 *            the status code
+		 * @param statusText
+		 *            the status text
+		 * @throws IOException
+		 *             thrown if the error cannot be written
+		 */
+		private void sendError(int statusCode, String statusText) throws IOException {
+			if (rc.isHeaderGenerated()) {
+				return;
+			}
+			statusText = "Error " + statusCode + " " + statusText;
+			rc.setStatusCode(statusCode);
+			rc.setStatusText(statusText);
+			rc.write(statusText);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.custom.scripting.util.Util;
+
+/**
+ * Limits the number of concurrent requests of a route, so that a slow or heavy
+ * worker can't take all the server's threads. A route admits at most its
+ * maximum concurrent count of running requests plus its queue length of
+ * waiting requests; further requests are rejected at once and should be
+ * answered with 503 Service Unavailable. Admitted requests either run on the
+ * client workers' threads or on the route's dedicated threads. Without
+ * dedicated threads, a request which finds no free slot waits in the queue
+ * without holding a thread, and is run by the client worker whose request
+ * frees the next slot, so a slow route never holds more client workers than
+ * its maximum concurrent count. An asynchronous request stays admitted until
+ * its stage completes.
+ * <p>
+ * The numbers of running and waiting requests and of completed and rejected
+ * requests are available through getters and are printed once a minute while
+ * the route is used.
+ *
+ * @author labramusic
+ *
+ */
+public class Bulkhead {
+
+	/**
+	 * Milliseconds between reports.
+	 */
+	private final static long REPORT_INTERVAL = 60_000;
+
+	/**
+	 * Name of the bulkhead, which is the route pattern.
+	 */
+	private String name;
+
+	/**
+	 * Maximum number of running requests.
+	 */
+	private int maxConcurrent;
+
+	/**
+	 * Maximum number of waiting requests.
+	 */
+	private int queueLength;
+
+	/**
+	 * Free slots for requests running on the client workers' threads.
+	 */
+	private Semaphore slots;
+
+	/**
+	 * Requests waiting for a free slot.
+	 */
+	private Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Dedicated executor, or null.
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Number of admitted requests which haven't finished yet.
+	 */
+	private AtomicInteger admitted = new AtomicInteger();
+
+	/**
+	 * Number of running requests.
+	 */
+	private AtomicInteger running = new AtomicInteger();
+
+	/**
+	 * Number of completed requests.
+	 */
+	private LongAdder completed = new LongAdder();
+
+	/**
+	 * Number of rejected requests.
+	 */
+	private LongAdder rejected = new LongAdder();
+
+	/**
+	 * Time of the last report in milliseconds.
+	 */
+	private long lastReport = System.currentTimeMillis();
+
+	/**
+	 * Completed requests at the last report.
+	 */
+	private long reportedCompleted;
+
+	/**
+	 * Rejected requests at the last report.
+	 */
+	private long reportedRejected;
+
+	/**
+	 * Initializes a Bulkhead.
+	 *
+	 * @param name
+	 *            name of the bulkhead
+	 * @param maxConcurrent
+	 *            maximum number of running requests
+	 * @param queueLength
+	 *            maximum number of waiting requests
+	 * @param dedicated
+	 *            true if requests should run on dedicated threads
+	 */
+	public Bulkhead(String name, int maxConcurrent, int queueLength, boolean dedicated) {
+		if (maxConcurrent < 1 || queueLength < 0) {
+			throw new IllegalArgumentException("Bulkhead " + name + " needs a positive concurrency and a queue length!");
+		}
+		this.name = name;
+		this.maxConcurrent = maxConcurrent;
+		this.queueLength = queueLength;
+		if (dedicated) {
+			AtomicInteger threads = new AtomicInteger();
+			executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(r, "bulkhead " + name + " " + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			slots = new Semaphore(maxConcurrent);
+		}
+	}
+
+	/**
+	 * Creates a bulkhead from the options of a route, or returns null if the
+	 * options don't limit the route. The options are maxConcurrent, queue and
+	 * dedicated.
+	 *
+	 * @param name
+	 *            name of the bulkhead
+	 * @param options
+	 *            route options
+	 * @return the bulkhead or null
+	 */
+	public static Bulkhead fromOptions(String name, Map<String, String> options) {
+		String maxConcurrent = options.get("maxConcurrent");
+		if (maxConcurrent == null) {
+			return null;
+		}
+		return new Bulkhead(name, Util.getAsInt(maxConcurrent), Util.getAsInt(options.get("queue"), 0),
+				Boolean.parseBoolean(options.get("dedicated")));
+	}
+
+	/**
+	 * Admits a request if the bulkhead isn't full. An admitted request must be
+	 * run with {@link #run(Runnable)}, which must eventually be followed by
+	 * {@link #leave()}.
+	 *
+	 * @return true if the request is admitted, false if it's rejected
+	 */
+	public boolean tryAdmit() {
+		if (admitted.incrementAndGet() > maxConcurrent + queueLength) {
+			admitted.decrementAndGet();
+			rejected.increment();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Runs an admitted request on a dedicated thread, or on the calling thread
+	 * if a slot is free. Otherwise the request waits and this method returns
+	 * at once; the request is then run by the thread freeing the next slot.
+	 * Once the dedicated threads have been shut down, the request runs on the
+	 * calling thread.
+	 *
+	 * @param request
+	 *            the request
+	 */
+	public void run(Runnable request) {
+		if (executor != null) {
+			try {
+				executor.execute(() -> runCounted(request));
+			} catch (RejectedExecutionException shutDown) {
+				runCounted(request);
+			}
+			return;
+		}
+		waiting.offer(request);
+		// checked again after each release, so no request is left waiting
+		while (!waiting.isEmpty() && slots.tryAcquire()) {
+			try {
+				Runnable next = waiting.poll();
+				if (next != null) {
+					runCounted(next);
+				}
+			} catch (RuntimeException e) {
+				// the remaining waiting requests must still run
+				System.err.println("Request of bulkhead " + name + " failed: " + e);
+			} finally {
+				slots.release();
+			}
+		}
+	}
+
+	/**
+	 * Runs the request, counting it as running.
+	 *
+	 * @param request
+	 *            the request
+	 */
+	private void runCounted(Runnable request) {
+		running.incrementAndGet();
+		try {
+			request.run();
+		} finally {
+			running.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Marks an admitted request as finished.
+	 */
+	public void leave() {
+		admitted.decrementAndGet();
+		completed.increment();
+	}
+
+	/**
+	 * Prints a report once a minute if requests have completed or been
+	 * rejected since the last one.
+	 */
+	public synchronized void tick() {
+		long now = System.currentTimeMillis();
+		if (now - lastReport < REPORT_INTERVAL) {
+			return;
+		}
+		long completedNow = completed.sum();
+		long rejectedNow = rejected.sum();
+		if (completedNow != reportedCompleted || rejectedNow != reportedRejected) {
+			System.out.printf("Bulkhead %s: %d running, %d waiting, %d completed, %d rejected in the last minute.%n",
+					name, getRunningCount(), getWaitingCount(), completedNow - reportedCompleted,
+					rejectedNow - reportedRejected);
+		}
+		lastReport = now;
+		reportedCompleted = completedNow;
+		reportedRejected = rejectedNow;
+	}
+
+	/**
+	 * Stops the dedicated threads, if any.
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Gets the name of the bulkhead.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the maximum number of running requests.
+	 *
+	 * @return maximum number of running requests
+	 */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * Gets the maximum number of waiting requests.
+	 *
+	 * @return maximum number of waiting requests
+	 */
+	public int getQueueLength() {
+		return queueLength;
+	}
+
+	/**
+	 * Checks if requests run on dedicated threads.
+	 *
+	 * @return true if the bulkhead has dedicated threads
+	 */
+	public boolean isDedicated() {
+		return executor != null;
+	}
+
+	/**
+	 * Gets the number of running requests.
+	 *
+	 * @return number of running requests
+	 */
+	public int getRunningCount() {
+		return running.get();
+	}
+
+	/**
+	 * Gets the number of admitted requests which haven't finished yet, which
+	 * includes asynchronous requests whose stages haven't completed.
+	 *
+	 * @return number of admitted requests
+	 */
+	public int getAdmittedCount() {
+		return admitted.get();
+	}
+
+	/**
+	 * Gets the number of requests waiting to run.
+	 *
+	 * @return number of waiting requests
+	 */
+	public int getWaitingCount() {
+		return executor != null ? executor.getQueue().size() : waiting.size();
+	}
+
+	/**
+	 * Gets the number of completed requests.
+	 *
+	 * @return number of completed requests
+	 */
+	public long getCompletedCount() {
+		return completed.sum();
+	}
+
+	/**
+	 * Gets the number of rejected requests.
+	 *
+	 * @return number of rejected requests
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+}
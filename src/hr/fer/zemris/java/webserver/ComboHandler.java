@@ -0,0 +1,174 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import hr.fer.zemris.java.webserver.DocumentManifest.ManifestEntry;
+import hr.fer.zemris.java.webserver.FileChannelCache.CachedChannel;
+
+/**
+ * Serves several static files from the document root in one response, for
+ * example <code>/combo?f=a.html&amp;f=b.txt</code>. The files are concatenated
+ * in the requested order and the response carries an ETag combined from the
+ * sizes and modification times of all the files, so an unchanged combination
+ * is answered with 304 Not Modified.
+ *
+ * @author labramusic
+ *
+ */
+public class ComboHandler {
+
+	/**
+	 * The path on which the combo handler is mapped.
+	 */
+	public final static String PATH = "/combo";
+
+	/**
+	 * Name of the parameter holding the file paths.
+	 */
+	public final static String FILE_PARAMETER = "f";
+
+	/**
+	 * Maximum number of files in one combined response.
+	 */
+	private final static int MAX_FILES = 32;
+
+	/**
+	 * Mime type used when the combined files have different mime types.
+	 */
+	private final static String MIXED_MIME_TYPE = "text/plain";
+
+	/**
+	 * The normalized document root path.
+	 */
+	private Path documentRoot;
+
+	/**
+	 * The document root manifest.
+	 */
+	private DocumentManifest manifest;
+
+	/**
+	 * Cache of open channels of served files.
+	 */
+	private FileChannelCache fileChannelCache;
+
+	/**
+	 * Initializes a ComboHandler.
+	 *
+	 * @param documentRoot
+	 *            the document root path
+	 * @param manifest
+	 *            the document root manifest
+	 * @param fileChannelCache
+	 *            cache of open channels of served files
+	 */
+	public ComboHandler(Path documentRoot, DocumentManifest manifest, FileChannelCache fileChannelCache) {
+		this.documentRoot = documentRoot.normalize();
+		this.manifest = manifest;
+		this.fileChannelCache = fileChannelCache;
+	}
+
+	/**
+	 * Writes the combined content of the given files to the request context.
+	 * Every file must be a static file inside the document root, otherwise the
+	 * request is answered with an error.
+	 *
+	 * @param rc
+	 *            request context
+	 * @param files
+	 *            requested file paths relative to the document root
+	 * @param ifNoneMatch
+	 *            value of the If-None-Match request header or null
+	 * @throws IOException
+	 *             thrown if I/O exception occurs
+	 */
+	public void handle(RequestContext rc, List<String> files, String ifNoneMatch) throws IOException {
+		if (files.isEmpty() || files.size() > MAX_FILES) {
+			error(rc, 400, "Bad Request");
+			return;
+		}
+
+		List<String> paths = new ArrayList<>(files.size());
+		List<ManifestEntry> entries = new ArrayList<>(files.size());
+		String mimeType = null;
+		long hash = 0xcbf29ce484222325L;
+		for (String file : files) {
+			Path path = documentRoot.resolve(file.startsWith("/") ? file.substring(1) : file).normalize();
+			if (!path.startsWith(documentRoot)) {
+				error(rc, 403, "Forbidden");
+				return;
+			}
+			ManifestEntry entry = manifest.get(path.toString());
+			if (entry == null || entry.isScript()) {
+				error(rc, 404, "Not Found");
+				return;
+			}
+			if (mimeType == null) {
+				mimeType = entry.getMimeType();
+			} else if (!mimeType.equals(entry.getMimeType())) {
+				mimeType = MIXED_MIME_TYPE;
+			}
+			hash = fnv(fnv(fnv(hash, path.toString().hashCode()), entry.getSize()), entry.getLastModified());
+			paths.add(path.toString());
+			entries.add(entry);
+		}
+
+		String etag = "\"" + Long.toHexString(hash) + "\"";
+		rc.setHeader("ETag", etag);
+		if (etag.equals(ifNoneMatch)) {
+			rc.setStatusCode(304);
+			rc.setStatusText("Not Modified");
+			rc.write(new byte[0]);
+			return;
+		}
+
+		rc.setMimeType(mimeType);
+		for (int i = 0; i < paths.size(); ++i) {
+			CachedChannel cached = fileChannelCache.acquire(paths.get(i), entries.get(i).getLastModified());
+			try {
+				rc.write(cached.getChannel());
+			} finally {
+				cached.release();
+			}
+		}
+	}
+
+	/**
+	 * Writes the error with the given status code and status text.
+	 *
+	 * @param rc
+	 *            request context
+	 * @param statusCode
+	 *            the status code
+	 * @param statusText
+	 *            the status text
+	 * @throws IOException
+	 *             thrown if I/O exception occurs
+	 */
+	private static void error(RequestContext rc, int statusCode, String statusText) throws IOException {
+		statusText = "Error " + statusCode + " " + statusText;
+		rc.setStatusCode(statusCode);
+		rc.setStatusText(statusText);
+		rc.write(statusText);
+	}
+
+	/**
+	 * Mixes the given value into the FNV-1a hash.
+	 *
+	 * @param hash
+	 *            current hash
+	 * @param value
+	 *            value to be mixed in
+	 * @return the new hash
+	 */
+	private static long fnv(long hash, long value) {
+		for (int i = 0; i < 8; ++i) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,289 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes insignificant whitespace and comments from html content. Static
+ * html files are minified once when they are first served and kept in a cache
+ * until they are modified, and smart script text is minified when the script
+ * is parsed, so no work is done per request. The byte savings are reported for
+ * each minified file.
+ *
+ * @author labramusic
+ *
+ */
+public class ContentMinifier {
+
+	/**
+	 * Elements whose content is left untouched.
+	 */
+	private final static String[] PRESERVED_ELEMENTS = { "pre", "textarea", "script", "style" };
+
+	/**
+	 * Minified files mapped by file path.
+	 */
+	private Map<String, MinifiedFile> files = new ConcurrentHashMap<>();
+
+	/**
+	 * Total size of the minified files before minification.
+	 */
+	private AtomicLong originalBytes = new AtomicLong();
+
+	/**
+	 * Total size of the minified files after minification.
+	 */
+	private AtomicLong minifiedBytes = new AtomicLong();
+
+	/**
+	 * Returns the minified content of the given html file, minifying it if it
+	 * hasn't been minified yet or has been modified since.
+	 *
+	 * @param path
+	 *            file path
+	 * @param lastModified
+	 *            time of the last modification of the file
+	 * @return minified content
+	 * @throws IOException
+	 *             thrown if the file cannot be read
+	 */
+	public byte[] getMinified(String path, long lastModified) throws IOException {
+		MinifiedFile file = files.get(path);
+		if (file != null && file.lastModified == lastModified) {
+			return file.content;
+		}
+		byte[] original = Files.readAllBytes(Paths.get(path));
+		byte[] content = minify(new String(original, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+		files.put(path, new MinifiedFile(lastModified, content));
+		report(path, original.length, content.length);
+		return content;
+	}
+
+	/**
+	 * Removes the cached content of the given file.
+	 *
+	 * @param path
+	 *            file path
+	 */
+	public void invalidate(String path) {
+		files.remove(path);
+	}
+
+	/**
+	 * Gets the total number of bytes saved by minification.
+	 *
+	 * @return saved bytes
+	 */
+	public long getSavedBytes() {
+		return originalBytes.get() - minifiedBytes.get();
+	}
+
+	/**
+	 * Records and prints the savings for the given file.
+	 *
+	 * @param path
+	 *            file path
+	 * @param original
+	 *            size in bytes before minification
+	 * @param minified
+	 *            size in bytes after minification
+	 */
+	public void report(String path, long original, long minified) {
+		originalBytes.addAndGet(original);
+		minifiedBytes.addAndGet(minified);
+		System.out.println("Minified " + path + ": " + original + " -> " + minified + " bytes.");
+	}
+
+	/**
+	 * Collapses each run of whitespace into a single space, or a single line
+	 * break if the run contained one, and removes html comments. Conditional
+	 * comments, quoted attribute values and the content of pre, textarea,
+	 * script and style elements are kept as they are.
+	 *
+	 * @param text
+	 *            html text
+	 * @return minified text
+	 */
+	public static String minify(String text) {
+		return minify(text, new String[1]);
+	}
+
+	/**
+	 * Minifies one of several consecutive pieces of an html text, like
+	 * {@link #minify(String)}. The preserved element still open at the end of
+	 * a piece is kept in the given holder, so the next piece is kept as it is
+	 * up to the element's closing tag.
+	 *
+	 * @param text
+	 *            piece of an html text
+	 * @param openElement
+	 *            holder of the name of the preserved element open at the
+	 *            start of the piece, or of null; updated for the next piece
+	 * @return minified piece
+	 */
+	static String minify(String text, String[] openElement) {
+		StringBuilder sb = new StringBuilder(text.length());
+		int n = text.length();
+		int i = 0;
+		if (openElement[0] != null) {
+			int end = closingEnd(text, 0, openElement[0]);
+			if (end < 0) {
+				return text;
+			}
+			sb.append(text, 0, end);
+			i = end;
+			openElement[0] = null;
+		}
+		// true within a start or end tag, where attribute values are quoted
+		boolean inTag = false;
+		while (i < n) {
+			char c = text.charAt(i);
+			if (c == '<') {
+				if (text.startsWith("<!--", i) && !text.startsWith("<!--[if", i)) {
+					int end = text.indexOf("-->", i + 4);
+					if (end < 0) {
+						sb.append(text, i, n);
+						break;
+					}
+					i = end + 3;
+					continue;
+				}
+				String element = preservedElement(text, i);
+				if (element != null) {
+					int end = closingEnd(text, i + 1 + element.length(), element);
+					if (end < 0) {
+						sb.append(text, i, n);
+						openElement[0] = element;
+						break;
+					}
+					sb.append(text, i, end);
+					i = end;
+					continue;
+				}
+				inTag = i + 1 < n && (Character.isLetter(text.charAt(i + 1)) || text.charAt(i + 1) == '/');
+			} else if (c == '>') {
+				inTag = false;
+			} else if (inTag && (c == '"' || c == '\'')) {
+				int end = text.indexOf(c, i + 1);
+				end = end < 0 ? n : end + 1;
+				sb.append(text, i, end);
+				i = end;
+				continue;
+			}
+			if (Character.isWhitespace(c)) {
+				i = collapseWhitespace(text, i, sb);
+				continue;
+			}
+			sb.append(c);
+			++i;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends a single space, or a single line break if the run contained
+	 * one, for the run of whitespace starting at the given index.
+	 *
+	 * @param text
+	 *            html text
+	 * @param start
+	 *            index of a whitespace character
+	 * @param sb
+	 *            the minified text
+	 * @return index after the run of whitespace
+	 */
+	private static int collapseWhitespace(String text, int start, StringBuilder sb) {
+		int i = start;
+		boolean lineBreak = false;
+		while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+			lineBreak |= text.charAt(i) == '\n';
+			++i;
+		}
+		sb.append(lineBreak ? '\n' : ' ');
+		return i;
+	}
+
+	/**
+	 * Returns the name of the preserved element starting at the given index,
+	 * or null if none starts there.
+	 *
+	 * @param text
+	 *            html text
+	 * @param start
+	 *            index of a '&lt;' character
+	 * @return the element name or null
+	 */
+	private static String preservedElement(String text, int start) {
+		for (String element : PRESERVED_ELEMENTS) {
+			int nameEnd = start + 1 + element.length();
+			if (!text.regionMatches(true, start + 1, element, 0, element.length()) || nameEnd >= text.length()) {
+				continue;
+			}
+			char next = text.charAt(nameEnd);
+			if (next == '>' || Character.isWhitespace(next)) {
+				return element;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the index after the closing tag of the given element, or -1 if
+	 * the text ends before the closing tag.
+	 *
+	 * @param text
+	 *            html text
+	 * @param from
+	 *            index from which the closing tag is searched
+	 * @param element
+	 *            the element name
+	 * @return index after the closing tag or -1
+	 */
+	private static int closingEnd(String text, int from, String element) {
+		String closing = "</" + element;
+		for (int i = from; i <= text.length() - closing.length(); ++i) {
+			if (text.regionMatches(true, i, closing, 0, closing.length())) {
+				int end = text.indexOf('>', i);
+				return end < 0 ? text.length() : end + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Minified content of a file.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class MinifiedFile {
+
+		/**
+		 * Time of the last modification of the file when it was minified.
+		 */
+		private final long lastModified;
+
+		/**
+		 * The minified content.
+		 */
+		private final byte[] content;
+
+		/**
+		 * Initializes a MinifiedFile.
+		 *
+		 * @param lastModified
+		 *            time of the last modification of the file
+		 * @param content
+		 *            the minified content
+		 */
+		public MinifiedFile(long lastModified, byte[] content) {
+			this.lastModified = lastModified;
+			this.content = content;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tokenizer of Cookie request header values. A value is scanned once from
+ * left to right without regular expressions or intermediate arrays, and
+ * strings are created only for the cookies which are returned. Whitespace
+ * around names and values is ignored, a value enclosed in double quotes is
+ * unquoted and a cookie without a value gets an empty value. If a cookie
+ * occurs more than once, the first occurrence is used, as user agents send
+ * the cookie with the most specific path first.
+ *
+ * @author labramusic
+ *
+ */
+public class CookieParser {
+
+	/**
+	 * Disables instantiation.
+	 */
+	private CookieParser() {
+	}
+
+	/**
+	 * Returns the value of the cookie with the given name from the given
+	 * Cookie header values, or null if there is no such cookie.
+	 *
+	 * @param headers
+	 *            Cookie header values
+	 * @param name
+	 *            cookie name
+	 * @return cookie value or null
+	 */
+	public static String find(List<String> headers, String name) {
+		for (String header : headers) {
+			String value = scan(header, name, null);
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns all cookies from the given Cookie header values mapped by name,
+	 * in the order in which they occur.
+	 *
+	 * @param headers
+	 *            Cookie header values
+	 * @return the cookies
+	 */
+	public static Map<String, String> parse(List<String> headers) {
+		Map<String, String> cookies = new LinkedHashMap<>();
+		for (String header : headers) {
+			scan(header, null, cookies);
+		}
+		return cookies;
+	}
+
+	/**
+	 * Scans the given header value. If a wanted name is given, the value of
+	 * that cookie is returned as soon as it is found; otherwise all cookies are
+	 * put into the given map.
+	 *
+	 * @param header
+	 *            Cookie header value
+	 * @param wanted
+	 *            name of the wanted cookie, or null
+	 * @param cookies
+	 *            map receiving all cookies, used if no name is wanted
+	 * @return value of the wanted cookie, or null
+	 */
+	private static String scan(String header, String wanted, Map<String, String> cookies) {
+		int n = header.length();
+		int i = 0;
+		while (i < n) {
+			char c = header.charAt(i);
+			if (c == ';' || c == ' ' || c == '\t') {
+				++i;
+				continue;
+			}
+			int nameStart = i;
+			while (i < n && (c = header.charAt(i)) != '=' && c != ';') {
+				++i;
+			}
+			int nameEnd = trimEnd(header, nameStart, i);
+			int valueStart = i;
+			int valueEnd = i;
+			if (i < n && c == '=') {
+				++i;
+				while (i < n && (header.charAt(i) == ' ' || header.charAt(i) == '\t')) {
+					++i;
+				}
+				valueStart = i;
+				while (i < n && header.charAt(i) != ';') {
+					++i;
+				}
+				valueEnd = trimEnd(header, valueStart, i);
+				if (valueEnd - valueStart >= 2 && header.charAt(valueStart) == '"'
+						&& header.charAt(valueEnd - 1) == '"') {
+					++valueStart;
+					--valueEnd;
+				}
+			}
+			int nameLength = nameEnd - nameStart;
+			if (nameLength == 0) {
+				continue;
+			}
+			if (wanted != null) {
+				if (nameLength == wanted.length() && header.regionMatches(nameStart, wanted, 0, nameLength)) {
+					return header.substring(valueStart, valueEnd);
+				}
+			} else {
+				cookies.putIfAbsent(header.substring(nameStart, nameEnd), header.substring(valueStart, valueEnd));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the end of the given range without trailing whitespace.
+	 *
+	 * @param s
+	 *            the string
+	 * @param start
+	 *            start of the range
+	 * @param end
+	 *            end of the range
+	 * @return end without trailing whitespace
+	 */
+	private static int trimEnd(String s, int start, int end) {
+		while (end > start && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == '\t')) {
+			--end;
+		}
+		return end;
+	}
+}
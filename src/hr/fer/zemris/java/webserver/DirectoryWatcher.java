@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory and all of its subdirectories for created, modified and
+ * deleted paths. Directories created beneath the watched directory are
+ * registered as they appear. Not thread safe, the watcher is meant to be
+ * polled by a single thread and closed from any thread.
+ *
+ * @author labramusic
+ *
+ */
+class DirectoryWatcher implements Closeable {
+
+	/**
+	 * The watch service.
+	 */
+	private WatchService watchService;
+
+	/**
+	 * Watched directories mapped by their watch keys.
+	 */
+	private Map<WatchKey, Path> directories = new HashMap<>();
+
+	/**
+	 * Initializes a DirectoryWatcher and registers the given directory tree.
+	 *
+	 * @param directory
+	 *            the watched directory
+	 * @throws IOException
+	 *             thrown if the watch service cannot be opened or the
+	 *             directory cannot be registered
+	 */
+	public DirectoryWatcher(Path directory) throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		try {
+			register(directory);
+		} catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for the changes of a single watched directory and reports them.
+	 * Each changed path is given to the listener, and lost events are reported
+	 * to the overflow action, after which the listener should treat the whole
+	 * tree as changed.
+	 *
+	 * @param timeout
+	 *            longest time to wait in milliseconds, or 0 to wait until a
+	 *            change
+	 * @param listener
+	 *            listener given each changed path
+	 * @param overflow
+	 *            action run if events have been lost
+	 * @return true if changes were reported, false if the wait timed out
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting
+	 * @throws java.nio.file.ClosedWatchServiceException
+	 *             thrown if the watcher has been closed
+	 */
+	public boolean poll(long timeout, Consumer<Path> listener, Runnable overflow) throws InterruptedException {
+		WatchKey key = timeout == 0 ? watchService.take() : watchService.poll(timeout, TimeUnit.MILLISECONDS);
+		if (key == null) {
+			return false;
+		}
+		Path directory = directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow.run();
+				continue;
+			}
+			if (directory == null) {
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() != StandardWatchEventKinds.ENTRY_DELETE && Files.isDirectory(path)) {
+				try {
+					register(path);
+				} catch (IOException e) {
+					System.err.println("Directory " + path + " cannot be watched: " + e);
+				}
+			}
+			listener.accept(path);
+		}
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Registers the given directory and all of its subdirectories.
+	 *
+	 * @param directory
+	 *            the directory
+	 * @throws IOException
+	 *             thrown if the directory cannot be registered
+	 */
+	private void register(Path directory) throws IOException {
+		WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, directory);
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path child : stream) {
+				if (Files.isDirectory(child)) {
+					register(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes the watch service, which wakes up a waiting poll.
+	 */
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			System.err.println("The watch service couldn't be closed!");
+		}
+	}
+}
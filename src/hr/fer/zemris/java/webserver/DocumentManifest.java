@@ -0,0 +1,444 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * In-memory manifest of all regular files in the server's document root. The
+ * document root is walked once in parallel and every file is recorded with its
+ * size, modification time, mime type and whether it is a smart script. The
+ * manifest is kept current by a watcher thread, so the server can decide
+ * between a static file, a script or a 404 without touching the file system.
+ *
+ * @author labramusic
+ *
+ */
+public class DocumentManifest {
+
+	/**
+	 * Extension of smart script files.
+	 */
+	public final static String SCRIPT_EXTENSION = "smscr";
+
+	/**
+	 * Mime type used when the extension is unknown.
+	 */
+	public final static String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+	/**
+	 * The normalized document root path.
+	 */
+	private Path documentRoot;
+
+	/**
+	 * Map of mime types.
+	 */
+	private Map<String, String> mimeTypes;
+
+	/**
+	 * The manifest entries mapped by file path.
+	 */
+	private Map<String, ManifestEntry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Listeners notified with the path of each added, changed or deleted file.
+	 */
+	private List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * The watcher thread.
+	 */
+	private WatcherThread watcherThread;
+
+	/**
+	 * Initializes a DocumentManifest. The files are keyed by their paths in the
+	 * normalized document root.
+	 *
+	 * @param documentRoot
+	 *            the document root path
+	 * @param mimeTypes
+	 *            map of mime types
+	 */
+	public DocumentManifest(Path documentRoot, Map<String, String> mimeTypes) {
+		this.documentRoot = documentRoot.normalize();
+		this.mimeTypes = mimeTypes;
+	}
+
+	/**
+	 * Walks the document root in parallel and replaces the current entries with
+	 * the files found. The change listeners are notified of every file added,
+	 * removed or changed since the last walk.
+	 */
+	public void build() {
+		Map<String, ManifestEntry> found = ForkJoinPool.commonPool().invoke(new WalkTask(documentRoot));
+		merge(found, p -> true);
+	}
+
+	/**
+	 * Replaces the entries accepted by the given scope with the found entries
+	 * and notifies the change listeners of every difference.
+	 *
+	 * @param found
+	 *            entries found in the scope
+	 * @param scope
+	 *            accepts the paths of the entries being replaced
+	 */
+	private void merge(Map<String, ManifestEntry> found, Predicate<String> scope) {
+		entries.keySet().removeIf(p -> {
+			if (!scope.test(p) || found.containsKey(p)) {
+				return false;
+			}
+			fireChanged(p);
+			return true;
+		});
+		for (Map.Entry<String, ManifestEntry> e : found.entrySet()) {
+			ManifestEntry old = entries.put(e.getKey(), e.getValue());
+			if (old == null || old.size != e.getValue().size || old.lastModified != e.getValue().lastModified) {
+				fireChanged(e.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Notifies the change listeners that the given file has changed.
+	 *
+	 * @param path
+	 *            file path
+	 */
+	private void fireChanged(String path) {
+		for (Consumer<String> listener : changeListeners) {
+			listener.accept(path);
+		}
+	}
+
+	/**
+	 * Builds the manifest and starts the watcher thread if not already running.
+	 */
+	public synchronized void start() {
+		build();
+		if (watcherThread == null || !watcherThread.isAlive()) {
+			try {
+				watcherThread = new WatcherThread();
+			} catch (IOException e) {
+				System.err.println("Document root " + documentRoot + " cannot be watched: " + e);
+				return;
+			}
+			watcherThread.setDaemon(true);
+			watcherThread.start();
+		}
+	}
+
+	/**
+	 * Stops the watcher thread.
+	 */
+	public synchronized void stop() {
+		if (watcherThread != null) {
+			watcherThread.kill();
+			watcherThread = null;
+		}
+	}
+
+	/**
+	 * Adds a listener which is notified with the path of each file that has
+	 * been added, modified or deleted while the manifest is watched.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void addChangeListener(Consumer<String> listener) {
+		changeListeners.add(listener);
+	}
+
+	/**
+	 * Returns the entry for the given file path or null if the file isn't in
+	 * the document root.
+	 *
+	 * @param path
+	 *            file path
+	 * @return manifest entry
+	 */
+	public ManifestEntry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Returns the number of files served from the document root.
+	 *
+	 * @return number of files
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the total size in bytes of all files in the document root.
+	 *
+	 * @return total size in bytes
+	 */
+	public long totalSize() {
+		long total = 0;
+		for (ManifestEntry entry : entries.values()) {
+			total += entry.size;
+		}
+		return total;
+	}
+
+	/**
+	 * Creates the manifest entry for the given file or returns null if the
+	 * file is not a readable regular file.
+	 *
+	 * @param file
+	 *            file path
+	 * @return manifest entry
+	 */
+	private ManifestEntry createEntry(Path file) {
+		if (!Files.isRegularFile(file) || !Files.isReadable(file)) {
+			return null;
+		}
+		try {
+			String fileName = file.getFileName().toString();
+			int dot = fileName.lastIndexOf('.');
+			String fileExt = dot < 0 ? "" : fileName.substring(dot + 1);
+			String mimeType = mimeTypes.get(fileExt);
+			if (mimeType == null) {
+				mimeType = DEFAULT_MIME_TYPE;
+			}
+			return new ManifestEntry(Files.size(file), Files.getLastModifiedTime(file).toMillis(), mimeType,
+					fileExt.equals(SCRIPT_EXTENSION));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Task which collects the entries of one directory and forks a subtask for
+	 * each of its subdirectories.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class WalkTask extends RecursiveTask<Map<String, ManifestEntry>> {
+
+		/**
+		 * Serial version UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The directory walked by this task.
+		 */
+		private Path directory;
+
+		/**
+		 * Initializes a WalkTask.
+		 *
+		 * @param directory
+		 *            the directory to walk
+		 */
+		public WalkTask(Path directory) {
+			this.directory = directory;
+		}
+
+		@Override
+		protected Map<String, ManifestEntry> compute() {
+			Map<String, ManifestEntry> found = new HashMap<>();
+			List<WalkTask> subtasks = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for (Path child : stream) {
+					if (Files.isDirectory(child)) {
+						WalkTask subtask = new WalkTask(child);
+						subtask.fork();
+						subtasks.add(subtask);
+					} else {
+						ManifestEntry entry = createEntry(child);
+						if (entry != null) {
+							found.put(child.toString(), entry);
+						}
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Directory " + directory + " couldn't be read.");
+			}
+			for (WalkTask subtask : subtasks) {
+				found.putAll(subtask.join());
+			}
+			return found;
+		}
+	}
+
+	/**
+	 * Thread which keeps the manifest current by watching the document root and
+	 * all of its subdirectories for changes.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class WatcherThread extends Thread {
+
+		/**
+		 * The watcher of the document root tree.
+		 */
+		private DirectoryWatcher watcher;
+
+		/**
+		 * True if thread needs to stop.
+		 */
+		private volatile boolean dead;
+
+		/**
+		 * Initializes a WatcherThread and registers the document root tree.
+		 *
+		 * @throws IOException
+		 *             thrown if the watch service cannot be opened
+		 */
+		public WatcherThread() throws IOException {
+			watcher = new DirectoryWatcher(documentRoot);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!dead) {
+					watcher.poll(0, this::update, DocumentManifest.this::build);
+				}
+			} catch (InterruptedException | ClosedWatchServiceException ignorable) {
+			}
+		}
+
+		/**
+		 * Updates the manifest after the given path has been created, modified
+		 * or deleted.
+		 *
+		 * @param path
+		 *            changed path
+		 */
+		private void update(Path path) {
+			if (Files.isDirectory(path)) {
+				String prefix = path.toString() + path.getFileSystem().getSeparator();
+				merge(new WalkTask(path).invoke(), p -> p.startsWith(prefix));
+				return;
+			}
+			ManifestEntry entry = createEntry(path);
+			if (entry == null) {
+				// a deleted directory removes all files beneath it
+				String removed = path.toString();
+				String prefix = removed + path.getFileSystem().getSeparator();
+				entries.keySet().removeIf(p -> {
+					if (!p.equals(removed) && !p.startsWith(prefix)) {
+						return false;
+					}
+					fireChanged(p);
+					return true;
+				});
+			} else {
+				entries.put(path.toString(), entry);
+				fireChanged(path.toString());
+			}
+		}
+
+		/**
+		 * Sets the thread as dead and closes the watcher.
+		 */
+		public void kill() {
+			dead = true;
+			watcher.close();
+		}
+	}
+
+	/**
+	 * Represents a single file in the manifest.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	public static class ManifestEntry {
+
+		/**
+		 * File size in bytes.
+		 */
+		private final long size;
+
+		/**
+		 * Time of the last modification in milliseconds.
+		 */
+		private final long lastModified;
+
+		/**
+		 * The mime type.
+		 */
+		private final String mimeType;
+
+		/**
+		 * True if the file is a smart script.
+		 */
+		private final boolean script;
+
+		/**
+		 * Initializes a ManifestEntry.
+		 *
+		 * @param size
+		 *            file size in bytes
+		 * @param lastModified
+		 *            time of the last modification
+		 * @param mimeType
+		 *            the mime type
+		 * @param script
+		 *            true if the file is a smart script
+		 */
+		public ManifestEntry(long size, long lastModified, String mimeType, boolean script) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.mimeType = mimeType;
+			this.script = script;
+		}
+
+		/**
+		 * Gets the size.
+		 *
+		 * @return the size
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the last modification time.
+		 *
+		 * @return the last modification time
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Gets the mime type.
+		 *
+		 * @return the mime type
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Checks if the file is a smart script.
+		 *
+		 * @return true if the file is a smart script
+		 */
+		public boolean isScript() {
+			return script;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of open file channels for frequently served files. Channels are
+ * reference counted, so a channel which is invalidated or evicted while still
+ * being read is closed only after its last reader releases it. The number of
+ * open channels is limited, channels which weren't used for a while are closed
+ * by a cleaner thread and a channel is reopened when the file it was opened
+ * for has been modified.
+ *
+ * @author labramusic
+ *
+ */
+public class FileChannelCache {
+
+	/**
+	 * Maximum number of channels kept open.
+	 */
+	private int maxOpenFiles;
+
+	/**
+	 * Time in milliseconds after which an unused channel is closed.
+	 */
+	private long idleTimeout;
+
+	/**
+	 * Open channels mapped by file path.
+	 */
+	private Map<String, CachedChannel> channels = new ConcurrentHashMap<>();
+
+	/**
+	 * The cleaner thread.
+	 */
+	private CleanerThread cleanerThread;
+
+	/**
+	 * Initializes a FileChannelCache.
+	 *
+	 * @param maxOpenFiles
+	 *            maximum number of channels kept open
+	 * @param idleTimeout
+	 *            time in seconds after which an unused channel is closed
+	 */
+	public FileChannelCache(int maxOpenFiles, int idleTimeout) {
+		this.maxOpenFiles = maxOpenFiles;
+		this.idleTimeout = idleTimeout * 1000L;
+	}
+
+	/**
+	 * Starts the cleaner thread if not already running.
+	 */
+	public synchronized void start() {
+		if (cleanerThread == null || !cleanerThread.isAlive()) {
+			cleanerThread = new CleanerThread();
+			cleanerThread.setDaemon(true);
+			cleanerThread.start();
+		}
+	}
+
+	/**
+	 * Stops the cleaner thread and closes all cached channels.
+	 */
+	public synchronized void stop() {
+		if (cleanerThread != null) {
+			cleanerThread.kill();
+			cleanerThread = null;
+		}
+		for (Map.Entry<String, CachedChannel> entry : channels.entrySet()) {
+			invalidate(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns an open channel for the given file. The channel is reopened if the
+	 * file has been modified since it was cached. The returned channel must be
+	 * released after reading.
+	 *
+	 * @param path
+	 *            file path
+	 * @param lastModified
+	 *            time of the last modification of the file
+	 * @return the cached channel
+	 * @throws IOException
+	 *             thrown if the file cannot be opened
+	 */
+	public CachedChannel acquire(String path, long lastModified) throws IOException {
+		while (true) {
+			CachedChannel cached = channels.get(path);
+			if (cached != null && cached.lastModified != lastModified) {
+				invalidate(path, cached);
+				cached = null;
+			}
+			if (cached == null) {
+				if (channels.size() >= maxOpenFiles && !evictLeastRecentlyUsed()) {
+					// every cached channel is in use, serve this one uncached
+					return new CachedChannel(open(path), lastModified);
+				}
+				CachedChannel created = new CachedChannel(open(path), lastModified);
+				cached = channels.putIfAbsent(path, created);
+				if (cached == null) {
+					cached = created;
+				} else {
+					created.release();
+				}
+			}
+			if (cached.retain()) {
+				return cached;
+			}
+			// the channel was closed in the meantime, try again
+		}
+	}
+
+	/**
+	 * Removes the channel for the given file from the cache. The channel is
+	 * closed once it is no longer being read.
+	 *
+	 * @param path
+	 *            file path
+	 */
+	public void invalidate(String path) {
+		CachedChannel cached = channels.get(path);
+		if (cached != null) {
+			invalidate(path, cached);
+		}
+	}
+
+	/**
+	 * Returns the number of currently cached channels.
+	 *
+	 * @return number of open channels
+	 */
+	public int size() {
+		return channels.size();
+	}
+
+	/**
+	 * Removes the given channel from the cache and drops the cache's reference
+	 * to it.
+	 *
+	 * @param path
+	 *            file path
+	 * @param cached
+	 *            the cached channel
+	 */
+	private void invalidate(String path, CachedChannel cached) {
+		if (channels.remove(path, cached)) {
+			cached.release();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used channel which isn't being read.
+	 *
+	 * @return true if a channel was evicted
+	 */
+	private boolean evictLeastRecentlyUsed() {
+		String oldestPath = null;
+		CachedChannel oldest = null;
+		for (Map.Entry<String, CachedChannel> entry : channels.entrySet()) {
+			CachedChannel cached = entry.getValue();
+			if (!cached.isIdle()) {
+				continue;
+			}
+			if (oldest == null || cached.lastUsed < oldest.lastUsed) {
+				oldestPath = entry.getKey();
+				oldest = cached;
+			}
+		}
+		if (oldest == null) {
+			return false;
+		}
+		invalidate(oldestPath, oldest);
+		return true;
+	}
+
+	/**
+	 * Closes all channels which weren't used for longer than the idle timeout.
+	 */
+	private void closeIdle() {
+		long limit = System.currentTimeMillis() - idleTimeout;
+		for (Map.Entry<String, CachedChannel> entry : channels.entrySet()) {
+			CachedChannel cached = entry.getValue();
+			if (cached.isIdle() && cached.lastUsed < limit) {
+				invalidate(entry.getKey(), cached);
+			}
+		}
+	}
+
+	/**
+	 * Opens a read only channel for the given file.
+	 *
+	 * @param path
+	 *            file path
+	 * @return the opened channel
+	 * @throws IOException
+	 *             thrown if the file cannot be opened
+	 */
+	private static FileChannel open(String path) throws IOException {
+		return FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Thread which periodically closes idle channels.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class CleanerThread extends Thread {
+
+		/**
+		 * True if thread needs to stop.
+		 */
+		private volatile boolean dead;
+
+		@Override
+		public void run() {
+			try {
+				while (!dead) {
+					Thread.sleep(Math.max(idleTimeout / 2, 1000));
+					closeIdle();
+				}
+			} catch (InterruptedException ignorable) {
+			}
+		}
+
+		/**
+		 * Sets the thread dead.
+		 */
+		public void kill() {
+			dead = true;
+			interrupt();
+		}
+	}
+
+	/**
+	 * Reference counted open file channel. The cache holds one reference while
+	 * the channel is cached and each reader holds one while reading.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	public static class CachedChannel {
+
+		/**
+		 * The open channel.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * Time of the last modification of the file when it was opened.
+		 */
+		private final long lastModified;
+
+		/**
+		 * Number of references to the channel.
+		 */
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		/**
+		 * Time in milliseconds when the channel was last acquired.
+		 */
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * Initializes a CachedChannel.
+		 *
+		 * @param channel
+		 *            the open channel
+		 * @param lastModified
+		 *            time of the last modification of the file
+		 */
+		private CachedChannel(FileChannel channel, long lastModified) {
+			this.channel = channel;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Gets the channel. Reads should be positional, since the channel is
+		 * shared between readers.
+		 *
+		 * @return the channel
+		 */
+		public FileChannel getChannel() {
+			return channel;
+		}
+
+		/**
+		 * Adds a reference unless the channel has already been closed.
+		 *
+		 * @return true if the reference was added
+		 */
+		private boolean retain() {
+			while (true) {
+				int count = references.get();
+				if (count <= 0) {
+					return false;
+				}
+				if (references.compareAndSet(count, count + 1)) {
+					lastUsed = System.currentTimeMillis();
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Checks if only the cache holds a reference to the channel.
+		 *
+		 * @return true if the channel isn't being read
+		 */
+		private boolean isIdle() {
+			return references.get() == 1;
+		}
+
+		/**
+		 * Releases a reference and closes the channel when none are left.
+		 */
+		public void release() {
+			if (references.decrementAndGet() == 0) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					System.err.println("The file channel couldn't be closed!");
+				}
+			}
+		}
+	}
+}
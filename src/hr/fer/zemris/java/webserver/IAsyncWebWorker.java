@@ -0,0 +1,41 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Web worker which processes requests asynchronously, for example while
+ * waiting for a slow backend. The server's thread is released as soon as
+ * {@link #processRequestAsync(RequestContext)} returns, and the response is
+ * finished and the connection closed when the returned stage completes. If
+ * the stage doesn't complete in time or the client disconnects, the future
+ * obtained from the stage is cancelled, so workers returning a
+ * CompletableFuture can stop their work.
+ * 
+ * @author labramusic
+ *
+ */
+public interface IAsyncWebWorker extends IWebWorker {
+
+	/**
+	 * Starts processing the current request. Content may be written to the
+	 * context from any thread until the returned stage completes.
+	 * 
+	 * @param context
+	 *            current request
+	 * @return stage completed when the content has been written
+	 */
+	public CompletionStage<?> processRequestAsync(RequestContext context);
+
+	/**
+	 * Processes the current request, waiting for the asynchronous processing
+	 * to complete.
+	 * 
+	 * @param context
+	 *            current request
+	 */
+	@Override
+	public default void processRequest(RequestContext context) {
+		processRequestAsync(context).toCompletableFuture().join();
+	}
+
+}
@@ -0,0 +1,14 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Marker of web workers which keep state between calls of
+ * {@link #processRequest(RequestContext)}. Other workers are shared by all
+ * requests, while a new instance of a stateful worker is created for each
+ * request.
+ * 
+ * @author labramusic
+ *
+ */
+public interface IStatefulWebWorker extends IWebWorker {
+
+}
@@ -1,5 +1,7 @@
 package hr.fer.zemris.java.webserver;
 
+import java.util.Properties;
+
 /**
  * Interface which allows processing request from any object.
  * 
@@ -16,4 +18,26 @@ public interface IWebWorker {
 	 */
 	public void processRequest(RequestContext context);
 
+	/**
+	 * Called once after the worker has been created and before it processes
+	 * any request, so it can prepare expensive resources. Does nothing by
+	 * default.
+	 * 
+	 * @param properties
+	 *            the server properties
+	 * @throws Exception
+	 *             if the worker cannot be initialized, in which case it isn't
+	 *             used
+	 */
+	public default void init(Properties properties) throws Exception {
+	}
+
+	/**
+	 * Called once when a shared worker is no longer used, after the requests
+	 * running on it have finished, so it can release its resources. Does
+	 * nothing by default.
+	 */
+	public default void destroy() {
+	}
+
 }
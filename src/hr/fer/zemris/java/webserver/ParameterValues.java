@@ -0,0 +1,185 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Supported types of persistent and temporary parameter values, and their
+ * binary encoding. A parameter value is an {@link Integer}, a {@link Double},
+ * a {@link String} or a byte array, so numbers stored by scripts keep their
+ * type instead of being formatted into strings and parsed again on every
+ * request.
+ * <p>
+ * An encoded value is a one byte type tag followed by the value: four bytes
+ * for an integer, eight bytes for a double, and the length followed by the
+ * bytes for a byte array or a UTF-8 string.
+ *
+ * @author labramusic
+ *
+ */
+public class ParameterValues {
+
+	/**
+	 * Tag of a string value.
+	 */
+	private final static byte STRING = 1;
+
+	/**
+	 * Tag of an integer value.
+	 */
+	private final static byte INTEGER = 2;
+
+	/**
+	 * Tag of a double value.
+	 */
+	private final static byte DOUBLE = 3;
+
+	/**
+	 * Tag of a byte array value.
+	 */
+	private final static byte BYTES = 4;
+
+	/**
+	 * Disables instantiation.
+	 */
+	private ParameterValues() {
+	}
+
+	/**
+	 * Checks if the given value is of a supported type. Null is accepted.
+	 *
+	 * @param value
+	 *            the value
+	 * @return the value
+	 * @throws IllegalArgumentException
+	 *             if the value is of an unsupported type
+	 */
+	public static Object check(Object value) {
+		if (value == null || value instanceof String || value instanceof Integer || value instanceof Double
+				|| value instanceof byte[]) {
+			return value;
+		}
+		throw new IllegalArgumentException(
+				"Parameter values must be Integer, Double, String or byte[], not " + value.getClass().getName() + "!");
+	}
+
+	/**
+	 * Returns the given value as a string. Byte arrays are decoded as UTF-8.
+	 *
+	 * @param value
+	 *            the value, or null
+	 * @return the string, or null
+	 */
+	public static String asString(Object value) {
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		if (value instanceof byte[]) {
+			return new String((byte[]) value, StandardCharsets.UTF_8);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Encodes the given value.
+	 *
+	 * @param value
+	 *            the value
+	 * @return encoded value
+	 * @throws IllegalArgumentException
+	 *             if the value is null or of an unsupported type
+	 */
+	public static byte[] encode(Object value) {
+		if (value instanceof Integer) {
+			return ByteBuffer.allocate(5).put(INTEGER).putInt((Integer) value).array();
+		}
+		if (value instanceof Double) {
+			return ByteBuffer.allocate(9).put(DOUBLE).putDouble((Double) value).array();
+		}
+		byte[] bytes;
+		byte tag;
+		if (value instanceof String) {
+			bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			tag = STRING;
+		} else if (value instanceof byte[]) {
+			bytes = (byte[]) value;
+			tag = BYTES;
+		} else {
+			throw new IllegalArgumentException(value == null ? "Cannot encode null!"
+					: "Unsupported parameter value " + value.getClass().getName() + "!");
+		}
+		return ByteBuffer.allocate(5 + bytes.length).put(tag).putInt(bytes.length).put(bytes).array();
+	}
+
+	/**
+	 * Decodes a value from the given buffer.
+	 *
+	 * @param buffer
+	 *            the buffer positioned at an encoded value
+	 * @return the value
+	 * @throws IllegalArgumentException
+	 *             if the type tag is unknown or the length is negative
+	 * @throws BufferUnderflowException
+	 *             if the value is cut off by the end of the buffer
+	 */
+	public static Object decode(ByteBuffer buffer) {
+		byte tag = buffer.get();
+		switch (tag) {
+		case INTEGER:
+			return buffer.getInt();
+		case DOUBLE:
+			return buffer.getDouble();
+		case STRING:
+		case BYTES:
+			int length = buffer.getInt();
+			if (length < 0) {
+				throw new IllegalArgumentException("Invalid parameter value length " + length + "!");
+			}
+			if (length > buffer.remaining()) {
+				throw new BufferUnderflowException();
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return tag == STRING ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+		default:
+			throw new IllegalArgumentException("Unknown parameter value type " + tag + "!");
+		}
+	}
+
+	/**
+	 * Reads an encoded value from the given input. The length of a string or
+	 * byte array is checked before it is allocated.
+	 *
+	 * @param in
+	 *            the input
+	 * @param maxLength
+	 *            maximum length of a string or byte array in bytes
+	 * @return the value
+	 * @throws IOException
+	 *             thrown if the value cannot be read, its type is unknown or it
+	 *             is too long
+	 */
+	public static Object read(DataInput in, int maxLength) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case INTEGER:
+			return in.readInt();
+		case DOUBLE:
+			return in.readDouble();
+		case STRING:
+		case BYTES:
+			int length = in.readInt();
+			if (length < 0 || length > maxLength) {
+				throw new IOException("Invalid parameter value length " + length + "!");
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return tag == STRING ? new String(bytes, StandardCharsets.UTF_8) : bytes;
+		default:
+			throw new IOException("Unknown parameter value type " + tag + "!");
+		}
+	}
+}
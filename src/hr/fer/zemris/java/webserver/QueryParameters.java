@@ -0,0 +1,287 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parameters of a request, parsed from its query string only when they are
+ * first accessed, so a request which never reads its parameters doesn't pay
+ * for parsing them. The query string is kept as it was read from the request
+ * line, in which every character stands for one byte.
+ * <p>
+ * Parameters are separated by <code>&amp;</code> and a name is separated from
+ * its value by the first <code>=</code>; a parameter without a value has an
+ * empty one. Names and values are decoded from percent-encoded UTF-8, with
+ * <code>+</code> standing for a space, and a malformed escape is kept as it
+ * is. A parameter may be repeated: the map holds its first value, and all of
+ * them are available through {@link #getValues(String)}. Parameters beyond
+ * the maximum count are ignored, and a query string longer than the maximum
+ * length is rejected. Requests whose parameters were ignored are counted, and
+ * only the first and then every power of two is printed.
+ *
+ * @author labramusic
+ *
+ */
+public class QueryParameters extends AbstractMap<String, String> {
+
+	/**
+	 * Default maximum number of parameters.
+	 */
+	public final static int DEFAULT_MAX_COUNT = 256;
+
+	/**
+	 * Default maximum length of the query string.
+	 */
+	public final static int DEFAULT_MAX_LENGTH = 8192;
+
+	/**
+	 * Number of requests whose parameters were ignored.
+	 */
+	private final static AtomicLong TRUNCATED_COUNT = new AtomicLong();
+
+	/**
+	 * The query string, or null once parsed.
+	 */
+	private String query;
+
+	/**
+	 * Maximum number of parameters.
+	 */
+	private int maxCount;
+
+	/**
+	 * All values of the parameters, or null until parsed.
+	 */
+	private Map<String, List<String>> values;
+
+	/**
+	 * First values of the parameters, or null until parsed.
+	 */
+	private Map<String, String> firstValues;
+
+	/**
+	 * True if parameters beyond the maximum count were ignored.
+	 */
+	private boolean truncated;
+
+	/**
+	 * Initializes QueryParameters with the default limits.
+	 *
+	 * @param query
+	 *            the query string without the question mark, or null
+	 */
+	public QueryParameters(String query) {
+		this(query, DEFAULT_MAX_COUNT, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * Initializes QueryParameters.
+	 *
+	 * @param query
+	 *            the query string without the question mark, or null
+	 * @param maxCount
+	 *            maximum number of parameters
+	 * @param maxLength
+	 *            maximum length of the query string
+	 * @throws IllegalArgumentException
+	 *             if the query string is longer than the maximum length
+	 */
+	public QueryParameters(String query, int maxCount, int maxLength) {
+		if (query != null && query.length() > maxLength) {
+			throw new IllegalArgumentException("Query string is longer than " + maxLength + " characters!");
+		}
+		this.query = query;
+		this.maxCount = maxCount;
+	}
+
+	/**
+	 * Gets all values of the given parameter in the order of the query
+	 * string.
+	 *
+	 * @param name
+	 *            parameter name
+	 * @return unmodifiable list of the values, empty if there are none
+	 */
+	public List<String> getValues(String name) {
+		parse();
+		List<String> list = values.get(name);
+		return list == null ? Collections.emptyList() : Collections.unmodifiableList(list);
+	}
+
+	@Override
+	public String get(Object name) {
+		parse();
+		return firstValues.get(name);
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		parse();
+		return firstValues.containsKey(name);
+	}
+
+	@Override
+	public int size() {
+		parse();
+		return firstValues.size();
+	}
+
+	/**
+	 * Sets the given parameter to a single value, replacing the values from
+	 * the query string.
+	 */
+	@Override
+	public String put(String name, String value) {
+		parse();
+		List<String> list = new ArrayList<>(1);
+		list.add(value);
+		values.put(name, list);
+		return firstValues.put(name, value);
+	}
+
+	@Override
+	public String remove(Object name) {
+		parse();
+		values.remove(name);
+		return firstValues.remove(name);
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		parse();
+		return Collections.unmodifiableMap(firstValues).entrySet();
+	}
+
+	/**
+	 * Checks if parameters beyond the maximum count were ignored.
+	 *
+	 * @return true if parameters were ignored
+	 */
+	public boolean isTruncated() {
+		parse();
+		return truncated;
+	}
+
+	/**
+	 * Gets the number of requests whose parameters beyond the maximum count
+	 * were ignored.
+	 *
+	 * @return number of truncated requests
+	 */
+	public static long getTruncatedCount() {
+		return TRUNCATED_COUNT.get();
+	}
+
+	/**
+	 * Parses the query string unless it has already been parsed.
+	 */
+	private void parse() {
+		if (values != null) {
+			return;
+		}
+		values = new LinkedHashMap<>();
+		firstValues = new LinkedHashMap<>();
+		if (query == null) {
+			return;
+		}
+		int count = 0;
+		int length = query.length();
+		for (int start = 0; start < length;) {
+			int end = query.indexOf('&', start);
+			if (end < 0) {
+				end = length;
+			}
+			if (end > start) {
+				if (count == maxCount) {
+					truncated = true;
+					long truncatedCount = TRUNCATED_COUNT.incrementAndGet();
+					if ((truncatedCount & (truncatedCount - 1)) == 0) {
+						System.err.println("Request has more than " + maxCount + " parameters, ignoring the rest ("
+								+ truncatedCount + " such requests so far).");
+					}
+					break;
+				}
+				int separator = query.indexOf('=', start);
+				if (separator < 0 || separator > end) {
+					separator = end;
+				}
+				String name = decode(query, start, separator);
+				String value = separator < end ? decode(query, separator + 1, end) : "";
+				values.computeIfAbsent(name, n -> new ArrayList<>(1)).add(value);
+				firstValues.putIfAbsent(name, value);
+				++count;
+			}
+			start = end + 1;
+		}
+		query = null;
+	}
+
+	/**
+	 * Decodes the given part of the query string.
+	 *
+	 * @param query
+	 *            the query string
+	 * @param start
+	 *            start of the part, inclusive
+	 * @param end
+	 *            end of the part, exclusive
+	 * @return the decoded part
+	 */
+	private static String decode(String query, int start, int end) {
+		int i = start;
+		while (i < end && !needsDecoding(query.charAt(i))) {
+			++i;
+		}
+		if (i == end) {
+			return query.substring(start, end);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(end - start);
+		for (i = start; i < end; ++i) {
+			char c = query.charAt(i);
+			if (c == '+') {
+				bytes.write(' ');
+			} else if (c == '%' && isHex(query, i + 1, end) && isHex(query, i + 2, end)) {
+				bytes.write(Character.digit(query.charAt(i + 1), 16) << 4 | Character.digit(query.charAt(i + 2), 16));
+				i += 2;
+			} else {
+				bytes.write(c);
+			}
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Checks if the given character of the query string must be decoded.
+	 *
+	 * @param c
+	 *            the character
+	 * @return true if it's an escape, a plus or a byte of a UTF-8 sequence
+	 */
+	private static boolean needsDecoding(char c) {
+		return c == '%' || c == '+' || c >= 0x80;
+	}
+
+	/**
+	 * Checks if the character at the given index is a hexadecimal digit.
+	 *
+	 * @param query
+	 *            the query string
+	 * @param index
+	 *            index of the character
+	 * @param end
+	 *            end of the decoded part
+	 * @return true if it's within the part and a hexadecimal digit
+	 */
+	private static boolean isHex(String query, int index, int end) {
+		return index < end && Character.digit(query.charAt(index), 16) >= 0;
+	}
+}
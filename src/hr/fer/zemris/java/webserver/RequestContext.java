@@ -5,15 +5,23 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * The Class RequestContext.
@@ -58,23 +66,49 @@ public class RequestContext {
 	/**
 	 * The temporary parameters map.
 	 */
-	private Map<String, String> temporaryParameters;
+	private Map<String, Object> temporaryParameters;
 
 	/**
-	 * The persistent parameters map.
+	 * The persistent parameters map, created on first use.
 	 */
-	private Map<String, String> persistentParameters;
+	private Map<String, Object> persistentParameters;
+
+	/**
+	 * Supplier of the persistent parameters map, used on first access.
+	 */
+	private Supplier<Map<String, Object>> persistentParametersSupplier;
+
+	/**
+	 * Values of the Cookie request header fields.
+	 */
+	private List<String> cookieHeaders = Collections.emptyList();
+
+	/**
+	 * The request cookies, parsed on first use.
+	 */
+	private Map<String, String> requestCookies;
 
 	/**
 	 * The output cookies.
 	 */
 	private List<RCCookie> outputCookies;
 
+	/**
+	 * Additional response header fields.
+	 */
+	private Map<String, String> outputHeaders = new LinkedHashMap<>();
+
 	/**
 	 * Determines if header has been generated.
 	 */
 	private boolean headerGenerated;
 
+	/**
+	 * True once the response has been finished, after which nothing more may
+	 * be written.
+	 */
+	private volatile boolean closed;
+
 	/**
 	 * The default encoding.
 	 */
@@ -108,7 +142,8 @@ public class RequestContext {
 	 * @param parameters
 	 *            parameters
 	 * @param persistentParameters
-	 *            persistent parameters
+	 *            persistent parameters, or null; values stored through the
+	 *            context are written to this map as strings
 	 * @param outputCookies
 	 *            output cookies
 	 */
@@ -122,10 +157,9 @@ public class RequestContext {
 			parameters = new HashMap<>();
 		}
 		this.parameters = parameters;
-		if (persistentParameters == null) {
-			persistentParameters = new HashMap<>();
+		if (persistentParameters != null) {
+			this.persistentParameters = typedView(persistentParameters);
 		}
-		this.persistentParameters = persistentParameters;
 		if (outputCookies == null) {
 			outputCookies = new ArrayList<>();
 		}
@@ -145,6 +179,47 @@ public class RequestContext {
 		return outputStream;
 	}
 
+	/**
+	 * Checks if the header has been generated, after which the status and
+	 * headers cannot be changed.
+	 *
+	 * @return true if the header has been generated
+	 */
+	public boolean isHeaderGenerated() {
+		return headerGenerated;
+	}
+
+	/**
+	 * Marks the response as finished, so later writes fail. Since writes hold
+	 * the context's lock, a write in progress completes before the context is
+	 * closed, and a caller holding the lock may write a final part of the
+	 * response and close the context without interleaving with other writers.
+	 */
+	public synchronized void close() {
+		closed = true;
+	}
+
+	/**
+	 * Checks if the response has been finished.
+	 *
+	 * @return true if the response has been finished
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Throws an exception if the response has been finished.
+	 *
+	 * @throws IOException
+	 *             if the response has been finished
+	 */
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("The response has already been finished!");
+		}
+	}
+
 	/**
 	 * Sets the encoding.
 	 *
@@ -197,6 +272,24 @@ public class RequestContext {
 		this.mimeType = mimeType;
 	}
 
+	/**
+	 * Adds a header field to the response, replacing an existing field with the
+	 * same name.
+	 *
+	 * @param name
+	 *            header field name
+	 * @param value
+	 *            header field value
+	 */
+	public void setHeader(String name, String value) {
+		if (headerGenerated) {
+			throw new RuntimeException("Header fields cannot be changed after header has been generated!");
+		}
+		Objects.requireNonNull(name);
+		Objects.requireNonNull(value);
+		outputHeaders.put(name, value);
+	}
+
 	/**
 	 * Gets the parameters.
 	 *
@@ -207,41 +300,155 @@ public class RequestContext {
 	}
 
 	/**
-	 * Gets the temporary parameters.
+	 * Gets the temporary parameters as strings. The returned map is a view, so
+	 * changes are written through to the temporary parameters.
 	 *
 	 * @return the temporary parameters
 	 */
 	public Map<String, String> getTemporaryParameters() {
-		return temporaryParameters;
+		return stringView(temporaryParameters());
 	}
 
 	/**
-	 * Sets the temporary parameters.
+	 * Sets the temporary parameters. Values stored through the context are
+	 * written to the given map as strings.
 	 *
 	 * @param temporaryParameters
 	 *            the temporary parameters
 	 */
 	public void setTemporaryParameters(Map<String, String> temporaryParameters) {
-		this.temporaryParameters = temporaryParameters;
+		this.temporaryParameters = temporaryParameters == null ? null : typedView(temporaryParameters);
+	}
+
+	/**
+	 * Gets the temporary parameters with their stored types, which are the
+	 * types supported by {@link ParameterValues}.
+	 *
+	 * @return the temporary parameters
+	 */
+	public Map<String, Object> getTemporaryValues() {
+		return temporaryParameters();
 	}
 
 	/**
-	 * Gets the persistent parameters.
+	 * Sets the temporary parameters with their stored types.
+	 *
+	 * @param temporaryValues
+	 *            the temporary parameters
+	 */
+	public void setTemporaryValues(Map<String, Object> temporaryValues) {
+		this.temporaryParameters = temporaryValues;
+	}
+
+	/**
+	 * Gets the persistent parameters as strings. The returned map is a view,
+	 * so changes are written through to the persistent parameters.
 	 *
 	 * @return the persistent parameters
 	 */
 	public Map<String, String> getPersistentParameters() {
-		return persistentParameters;
+		return stringView(persistentParameters());
 	}
 
 	/**
-	 * Sets the persistent parameters.
+	 * Sets the persistent parameters. Values stored through the context are
+	 * written to the given map as strings.
 	 *
 	 * @param persistentParameters
 	 *            the persistent parameters
 	 */
 	public void setPersistentParameters(Map<String, String> persistentParameters) {
-		this.persistentParameters = persistentParameters;
+		this.persistentParameters = persistentParameters == null ? null : typedView(persistentParameters);
+	}
+
+	/**
+	 * Gets the persistent parameters with their stored types, which are the
+	 * types supported by {@link ParameterValues}.
+	 *
+	 * @return the persistent parameters
+	 */
+	public Map<String, Object> getPersistentValues() {
+		return persistentParameters();
+	}
+
+	/**
+	 * Sets the persistent parameters with their stored types.
+	 *
+	 * @param persistentValues
+	 *            the persistent parameters
+	 */
+	public void setPersistentValues(Map<String, Object> persistentValues) {
+		this.persistentParameters = persistentValues;
+	}
+
+	/**
+	 * Sets the supplier which provides the persistent parameters map on first
+	 * access, if no map has been given. This allows the server to create a
+	 * session only for requests which use persistent parameters. Since the
+	 * supplier may add a session cookie, persistent parameters should be
+	 * accessed before the header is generated; the server's supplier refuses
+	 * to create a session afterwards.
+	 *
+	 * @param persistentParametersSupplier
+	 *            supplier of the persistent parameters map
+	 */
+	public void setPersistentParametersSupplier(Supplier<Map<String, Object>> persistentParametersSupplier) {
+		this.persistentParametersSupplier = persistentParametersSupplier;
+	}
+
+	/**
+	 * Returns the persistent parameters map, obtaining it from the supplier or
+	 * creating an empty map on first access.
+	 *
+	 * @return the persistent parameters map
+	 */
+	private Map<String, Object> persistentParameters() {
+		if (persistentParameters == null) {
+			if (persistentParametersSupplier != null) {
+				persistentParameters = persistentParametersSupplier.get();
+			} else {
+				persistentParameters = new HashMap<>();
+			}
+		}
+		return persistentParameters;
+	}
+
+	/**
+	 * Returns a view of the given typed parameters which reads their values as
+	 * strings.
+	 *
+	 * @param parameters
+	 *            typed parameters
+	 * @return string view
+	 */
+	private static Map<String, String> stringView(Map<String, Object> parameters) {
+		return new ConvertingMap<>(parameters, ParameterValues::asString, value -> value);
+	}
+
+	/**
+	 * Returns a view of the given string parameters which accepts typed values
+	 * and stores them as strings.
+	 *
+	 * @param parameters
+	 *            string parameters
+	 * @return typed view
+	 */
+	private static Map<String, Object> typedView(Map<String, String> parameters) {
+		return new ConvertingMap<>(parameters, value -> value,
+				value -> ParameterValues.asString(ParameterValues.check(value)));
+	}
+
+	/**
+	 * Returns the temporary parameters map, creating an empty map on first
+	 * access.
+	 *
+	 * @return the temporary parameters map
+	 */
+	private Map<String, Object> temporaryParameters() {
+		if (temporaryParameters == null) {
+			temporaryParameters = new HashMap<>();
+		}
+		return temporaryParameters;
 	}
 
 	/**
@@ -255,6 +462,22 @@ public class RequestContext {
 		return parameters.get(name);
 	}
 
+	/**
+	 * Retrieves all values of a parameter which may be repeated, in the order
+	 * they were given.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @return unmodifiable list of the values, empty if there are none
+	 */
+	public List<String> getParameterValues(String name) {
+		if (parameters instanceof QueryParameters) {
+			return ((QueryParameters) parameters).getValues(name);
+		}
+		String value = parameters.get(name);
+		return value == null ? Collections.emptyList() : Collections.singletonList(value);
+	}
+
 	/**
 	 * Retrieves names of all parameters in the parameters map. The returned set
 	 * is unmodifiable.
@@ -266,15 +489,69 @@ public class RequestContext {
 	}
 
 	/**
-	 * Retrieves value from persistent parameters map or null if mapping doesn't
-	 * exist.
+	 * Sets the values of the Cookie request header fields. They are parsed
+	 * only when the request cookies are accessed.
+	 *
+	 * @param cookieHeaders
+	 *            Cookie header values
+	 */
+	public void setRequestCookieHeaders(List<String> cookieHeaders) {
+		this.cookieHeaders = Objects.requireNonNull(cookieHeaders);
+		requestCookies = null;
+	}
+
+	/**
+	 * Retrieves the value of the request cookie with the given name or null if
+	 * the request doesn't contain it. Only that cookie is extracted unless all
+	 * cookies have already been parsed.
+	 *
+	 * @param name
+	 *            cookie name
+	 * @return cookie value
+	 */
+	public String getRequestCookie(String name) {
+		Objects.requireNonNull(name);
+		if (requestCookies != null) {
+			return requestCookies.get(name);
+		}
+		return CookieParser.find(cookieHeaders, name);
+	}
+
+	/**
+	 * Retrieves all request cookies mapped by name, parsing them on first
+	 * access. The returned map is unmodifiable.
+	 *
+	 * @return the request cookies
+	 */
+	public Map<String, String> getRequestCookies() {
+		if (requestCookies == null) {
+			requestCookies = Collections.unmodifiableMap(CookieParser.parse(cookieHeaders));
+		}
+		return requestCookies;
+	}
+
+	/**
+	 * Retrieves value from persistent parameters map as a string or null if
+	 * mapping doesn't exist.
 	 * 
 	 * @param name
 	 *            parameter name
 	 * @return value
 	 */
 	public String getPersistentParameter(String name) {
-		return persistentParameters.get(name);
+		return ParameterValues.asString(getPersistentValue(name));
+	}
+
+	/**
+	 * Retrieves value from persistent parameters map with its stored type or
+	 * null if mapping doesn't exist.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @return value
+	 */
+	public Object getPersistentValue(String name) {
+		return persistentParameters().get(name);
 	}
 
 	/**
@@ -284,7 +561,7 @@ public class RequestContext {
 	 * @return names of all parameters
 	 */
 	public Set<String> getPersistentParameterNames() {
-		return Collections.unmodifiableSet(persistentParameters.keySet());
+		return Collections.unmodifiableSet(persistentParameters().keySet());
 	}
 
 	/**
@@ -296,8 +573,22 @@ public class RequestContext {
 	 *            value
 	 */
 	public void setPersistentParameter(String name, String value) {
+		setPersistentValue(name, value);
+	}
+
+	/**
+	 * Stores a typed value to the persistent parameters map.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @param value
+	 *            an Integer, Double, String or byte array
+	 * @throws IllegalArgumentException
+	 *             if the value is of an unsupported type
+	 */
+	public void setPersistentValue(String name, Object value) {
 		Objects.requireNonNull(name);
-		persistentParameters.put(name, value);
+		persistentParameters().put(name, ParameterValues.check(value));
 	}
 
 	/**
@@ -308,20 +599,32 @@ public class RequestContext {
 	 */
 	public void removePersistentParameter(String name) {
 		Objects.requireNonNull(name);
-		persistentParameters.remove(name);
+		persistentParameters().remove(name);
 	}
 
 	/**
-	 * Retrieves value from the temporary parameters map or null if mapping
-	 * doesn't exist.
+	 * Retrieves value from the temporary parameters map as a string or null if
+	 * mapping doesn't exist.
 	 * 
 	 * @param name
 	 *            parameter name
 	 * @return value
 	 */
 	public String getTemporaryParameter(String name) {
+		return ParameterValues.asString(getTemporaryValue(name));
+	}
+
+	/**
+	 * Retrieves value from the temporary parameters map with its stored type or
+	 * null if mapping doesn't exist.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @return value
+	 */
+	public Object getTemporaryValue(String name) {
 		Objects.requireNonNull(name);
-		return temporaryParameters.get(name);
+		return temporaryParameters().get(name);
 	}
 
 	/**
@@ -331,10 +634,7 @@ public class RequestContext {
 	 * @return names of all parameters
 	 */
 	public Set<String> getTemporaryParameterNames() {
-		if (temporaryParameters == null) {
-			temporaryParameters = new HashMap<>();
-		}
-		return Collections.unmodifiableSet(temporaryParameters.keySet());
+		return Collections.unmodifiableSet(temporaryParameters().keySet());
 	}
 
 	/**
@@ -346,11 +646,22 @@ public class RequestContext {
 	 *            value
 	 */
 	public void setTemporaryParameter(String name, String value) {
+		setTemporaryValue(name, value);
+	}
+
+	/**
+	 * Stores a typed value to the temporary parameters map.
+	 * 
+	 * @param name
+	 *            parameter name
+	 * @param value
+	 *            an Integer, Double, String or byte array
+	 * @throws IllegalArgumentException
+	 *             if the value is of an unsupported type
+	 */
+	public void setTemporaryValue(String name, Object value) {
 		Objects.requireNonNull(name);
-		if (temporaryParameters == null) {
-			temporaryParameters = new HashMap<>();
-		}
-		temporaryParameters.put(name, value);
+		temporaryParameters().put(name, ParameterValues.check(value));
 	}
 
 	/**
@@ -361,7 +672,7 @@ public class RequestContext {
 	 */
 	public void removeTemporaryParameter(String name) {
 		Objects.requireNonNull(name);
-		temporaryParameters.remove(name);
+		temporaryParameters().remove(name);
 	}
 
 	/**
@@ -374,7 +685,8 @@ public class RequestContext {
 	 * @throws IOException
 	 *             thrown if I/O exception occurs
 	 */
-	public RequestContext write(byte[] data) throws IOException {
+	public synchronized RequestContext write(byte[] data) throws IOException {
+		checkOpen();
 		if (!headerGenerated) {
 			// write header using encoding, statusCode, statusText,
 			// mimeType and outputCookies
@@ -387,6 +699,34 @@ public class RequestContext {
 		return this;
 	}
 
+	/**
+	 * Writes the whole content of the given file channel to the output stream
+	 * using positional reads, so the channel may be shared between requests.
+	 * The header is generated first.
+	 * 
+	 * @param channel
+	 *            file channel
+	 * @return the request context with written data
+	 * @throws IOException
+	 *             thrown if I/O exception occurs
+	 */
+	public synchronized RequestContext write(FileChannel channel) throws IOException {
+		write(new byte[0]);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		long size = channel.size();
+		while (position < size) {
+			buffer.clear();
+			int r = channel.read(buffer, position);
+			if (r < 0) {
+				break;
+			}
+			outputStream.write(buffer.array(), 0, r);
+			position += r;
+		}
+		return this;
+	}
+
 	/**
 	 * Generates the header.
 	 * 
@@ -400,6 +740,9 @@ public class RequestContext {
 			sb.append("; charset=" + encoding);
 		}
 		sb.append("\r\n");
+		for (Map.Entry<String, String> field : outputHeaders.entrySet()) {
+			sb.append(field.getKey() + ": " + field.getValue() + "\r\n");
+		}
 		if (!outputCookies.isEmpty()) {
 			for (RCCookie cookie : outputCookies) {
 				sb.append("Set-Cookie: " + cookie.name + "=\"" + cookie.value + "\"");
@@ -582,4 +925,123 @@ public class RequestContext {
 
 	}
 
+	/**
+	 * View of a parameters map which converts its values on reading and
+	 * writing.
+	 * 
+	 * @author labramusic
+	 *
+	 * @param <A>
+	 *            type of the values in the underlying map
+	 * @param <B>
+	 *            type of the values in the view
+	 */
+	private static class ConvertingMap<A, B> extends AbstractMap<String, B> {
+
+		/**
+		 * The underlying map.
+		 */
+		private Map<String, A> map;
+
+		/**
+		 * Converts values read from the underlying map.
+		 */
+		private Function<? super A, ? extends B> reader;
+
+		/**
+		 * Converts values written to the underlying map.
+		 */
+		private Function<? super B, ? extends A> writer;
+
+		/**
+		 * Initializes a ConvertingMap.
+		 * 
+		 * @param map
+		 *            the underlying map
+		 * @param reader
+		 *            converts values read from the underlying map
+		 * @param writer
+		 *            converts values written to the underlying map
+		 */
+		public ConvertingMap(Map<String, A> map, Function<? super A, ? extends B> reader,
+				Function<? super B, ? extends A> writer) {
+			this.map = map;
+			this.reader = reader;
+			this.writer = writer;
+		}
+
+		@Override
+		public B get(Object key) {
+			return reader.apply(map.get(key));
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public B put(String key, B value) {
+			return reader.apply(map.put(key, writer.apply(value)));
+		}
+
+		@Override
+		public B remove(Object key) {
+			return reader.apply(map.remove(key));
+		}
+
+		@Override
+		public void clear() {
+			map.clear();
+		}
+
+		@Override
+		public int size() {
+			return map.size();
+		}
+
+		@Override
+		public Set<Map.Entry<String, B>> entrySet() {
+			return new AbstractSet<Map.Entry<String, B>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, B>> iterator() {
+					Iterator<Map.Entry<String, A>> it = map.entrySet().iterator();
+					return new Iterator<Map.Entry<String, B>>() {
+
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, B> next() {
+							Map.Entry<String, A> e = it.next();
+							return new SimpleEntry<String, B>(e.getKey(), reader.apply(e.getValue())) {
+
+								private static final long serialVersionUID = 1L;
+
+								@Override
+								public B setValue(B value) {
+									e.setValue(writer.apply(value));
+									return super.setValue(value);
+								}
+							};
+						}
+
+						@Override
+						public void remove() {
+							it.remove();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return map.size();
+				}
+			};
+		}
+	}
+
 }
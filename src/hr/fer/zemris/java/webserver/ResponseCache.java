@@ -0,0 +1,431 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.custom.scripting.util.Util;
+
+/**
+ * Micro-cache of the complete responses of a route, for workers whose output
+ * depends only on some request parameters and may be slightly stale. A
+ * response is cached for a short time to live under the values of the key
+ * parameters, and repeated requests get the cached bytes, header included,
+ * without running the worker. Only successful responses which don't set
+ * cookies are cached. Responses which read the client's session and responses
+ * of asynchronous workers are not cached.
+ * <p>
+ * The numbers of hits and misses are available through getters and the hit
+ * ratio is printed once a minute while the route is used.
+ *
+ * @author labramusic
+ *
+ */
+public class ResponseCache {
+
+	/**
+	 * Milliseconds between reports.
+	 */
+	private final static long REPORT_INTERVAL = 60_000;
+
+	/**
+	 * Maximum number of bytes of a cached response.
+	 */
+	private final static int MAX_RESPONSE_SIZE = 64 * 1024;
+
+	/**
+	 * Default maximum number of cached responses.
+	 */
+	private final static int DEFAULT_MAX_SIZE = 256;
+
+	/**
+	 * Status line prefix of cacheable responses.
+	 */
+	private final static byte[] OK_STATUS = "HTTP/1.1 200 ".getBytes(StandardCharsets.ISO_8859_1);
+
+	/**
+	 * Header field which prevents caching.
+	 */
+	private final static String SET_COOKIE = "\r\nSet-Cookie:";
+
+	/**
+	 * Name of the cache, which is the route pattern.
+	 */
+	private String name;
+
+	/**
+	 * Time to live of a response in milliseconds.
+	 */
+	private long ttl;
+
+	/**
+	 * Names of the key parameters, or null if all parameters are the key.
+	 */
+	private String[] keyParameters;
+
+	/**
+	 * Maximum number of cached responses.
+	 */
+	private int maxSize;
+
+	/**
+	 * Cached responses in access order.
+	 */
+	private Map<String, CachedResponse> responses;
+
+	/**
+	 * Number of requests answered from the cache.
+	 */
+	private LongAdder hits = new LongAdder();
+
+	/**
+	 * Number of requests which ran the worker.
+	 */
+	private LongAdder misses = new LongAdder();
+
+	/**
+	 * Time of the last report in milliseconds.
+	 */
+	private long lastReport = System.currentTimeMillis();
+
+	/**
+	 * Hits at the last report.
+	 */
+	private long reportedHits;
+
+	/**
+	 * Misses at the last report.
+	 */
+	private long reportedMisses;
+
+	/**
+	 * Initializes a ResponseCache.
+	 *
+	 * @param name
+	 *            name of the cache
+	 * @param ttl
+	 *            time to live of a response in milliseconds
+	 * @param keyParameters
+	 *            names of the key parameters, or null to key on all parameters
+	 * @param maxSize
+	 *            maximum number of cached responses
+	 */
+	public ResponseCache(String name, long ttl, String[] keyParameters, int maxSize) {
+		if (ttl < 1 || maxSize < 1) {
+			throw new IllegalArgumentException("Response cache " + name + " needs a positive time to live and size!");
+		}
+		this.name = name;
+		this.ttl = ttl;
+		this.keyParameters = keyParameters == null ? null : keyParameters.clone();
+		this.maxSize = maxSize;
+		responses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+				return size() > ResponseCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Creates a response cache from the options of a route, or returns null if
+	 * the options don't cache the route. The options are cacheTtl in
+	 * milliseconds, cacheKey as comma separated parameter names, and
+	 * cacheSize.
+	 *
+	 * @param name
+	 *            name of the cache
+	 * @param options
+	 *            route options
+	 * @return the response cache or null
+	 */
+	public static ResponseCache fromOptions(String name, Map<String, String> options) {
+		String ttl = options.get("cacheTtl");
+		if (ttl == null) {
+			return null;
+		}
+		String key = options.get("cacheKey");
+		return new ResponseCache(name, Util.getAsInt(ttl), key == null ? null : key.split(","),
+				Util.getAsInt(options.get("cacheSize"), DEFAULT_MAX_SIZE));
+	}
+
+	/**
+	 * Gets the key of a request with the given parameters.
+	 *
+	 * @param parameters
+	 *            request parameters
+	 * @return the key
+	 */
+	public String key(Map<String, String> parameters) {
+		StringBuilder sb = new StringBuilder();
+		if (keyParameters == null) {
+			for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+				sb.append(parameter.getKey()).append('\0').append(parameter.getValue()).append('\0');
+			}
+			return sb.toString();
+		}
+		for (String name : keyParameters) {
+			String value = parameters.get(name);
+			// a missing parameter differs from an empty one
+			sb.append(value == null ? "\1" : value).append('\0');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the cached response of the given key if it hasn't expired. A
+	 * request not answered from the cache is counted as a miss.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the response bytes, or null
+	 */
+	public byte[] get(String key) {
+		CachedResponse response;
+		synchronized (responses) {
+			response = responses.get(key);
+			if (response != null && System.currentTimeMillis() >= response.expiresAt) {
+				responses.remove(key);
+				response = null;
+			}
+		}
+		if (response == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return response.bytes;
+	}
+
+	/**
+	 * Creates a stream which writes the response to the given output stream
+	 * and captures it for caching under the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param out
+	 *            output stream of the client
+	 * @return the capturing stream
+	 */
+	public Capture capture(String key, OutputStream out) {
+		return new Capture(key, out);
+	}
+
+	/**
+	 * Prints a report once a minute if requests have used the cache since the
+	 * last one.
+	 */
+	public synchronized void tick() {
+		long now = System.currentTimeMillis();
+		if (now - lastReport < REPORT_INTERVAL) {
+			return;
+		}
+		long hitsNow = hits.sum();
+		long missesNow = misses.sum();
+		long requests = hitsNow - reportedHits + missesNow - reportedMisses;
+		if (requests != 0) {
+			System.out.printf("Response cache %s: %.1f%% of %d requests were hits in the last minute, %d cached.%n",
+					name, 100.0 * (hitsNow - reportedHits) / requests, requests, size());
+		}
+		lastReport = now;
+		reportedHits = hitsNow;
+		reportedMisses = missesNow;
+	}
+
+	/**
+	 * Gets the name of the cache.
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of cached responses, including expired ones not yet
+	 * removed.
+	 *
+	 * @return number of cached responses
+	 */
+	public int size() {
+		synchronized (responses) {
+			return responses.size();
+		}
+	}
+
+	/**
+	 * Gets the number of requests answered from the cache.
+	 *
+	 * @return number of hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of requests which ran the worker.
+	 *
+	 * @return number of misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the ratio of requests answered from the cache.
+	 *
+	 * @return the hit ratio, or 0 if there have been no requests
+	 */
+	public double getHitRatio() {
+		long hitCount = hits.sum();
+		long requests = hitCount + misses.sum();
+		return requests == 0 ? 0 : (double) hitCount / requests;
+	}
+
+	/**
+	 * Checks if the given response may be cached.
+	 *
+	 * @param response
+	 *            the response bytes
+	 * @return true if it's successful and sets no cookies
+	 */
+	private static boolean isCacheable(byte[] response) {
+		if (response.length < OK_STATUS.length) {
+			return false;
+		}
+		for (int i = 0; i < OK_STATUS.length; ++i) {
+			if (response[i] != OK_STATUS[i]) {
+				return false;
+			}
+		}
+		String text = new String(response, StandardCharsets.ISO_8859_1);
+		int headerEnd = text.indexOf("\r\n\r\n");
+		return headerEnd >= 0 && text.lastIndexOf(SET_COOKIE, headerEnd) < 0;
+	}
+
+	/**
+	 * A cached response.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class CachedResponse {
+
+		/**
+		 * The response bytes.
+		 */
+		private byte[] bytes;
+
+		/**
+		 * Time when the response expires in milliseconds.
+		 */
+		private long expiresAt;
+
+		/**
+		 * Initializes a CachedResponse.
+		 *
+		 * @param bytes
+		 *            the response bytes
+		 * @param expiresAt
+		 *            time when the response expires
+		 */
+		private CachedResponse(byte[] bytes, long expiresAt) {
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Stream which writes a response to the client and keeps a copy of it,
+	 * which is cached when the worker has finished. A response larger than
+	 * the maximum response size or a skipped response is not kept.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	public class Capture extends FilterOutputStream {
+
+		/**
+		 * Key of the response.
+		 */
+		private String key;
+
+		/**
+		 * Copy of the response, or null if it's too large.
+		 */
+		private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+		/**
+		 * Initializes a Capture.
+		 *
+		 * @param key
+		 *            key of the response
+		 * @param out
+		 *            output stream of the client
+		 */
+		private Capture(String key, OutputStream out) {
+			super(out);
+			this.key = key;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			if (copy != null) {
+				copy.write(b);
+				checkSize();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (copy != null) {
+				copy.write(b, off, len);
+				checkSize();
+			}
+		}
+
+		/**
+		 * Drops the copy once the response is too large to be cached.
+		 */
+		private void checkSize() {
+			if (copy.size() > MAX_RESPONSE_SIZE) {
+				copy = null;
+			}
+		}
+
+		/**
+		 * Drops the copy so the response isn't cached, since it depends on
+		 * more than the key parameters, such as the client's session.
+		 */
+		public void skip() {
+			copy = null;
+		}
+
+		/**
+		 * Caches the response if it's complete and cacheable. Must be called
+		 * only once the worker has finished successfully.
+		 */
+		public void commit() {
+			if (copy == null) {
+				return;
+			}
+			byte[] response = copy.toByteArray();
+			copy = null;
+			if (isCacheable(response)) {
+				CachedResponse cached = new CachedResponse(response, System.currentTimeMillis() + ttl);
+				synchronized (responses) {
+					responses.put(key, cached);
+				}
+			}
+		}
+	}
+}
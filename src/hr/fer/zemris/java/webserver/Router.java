@@ -0,0 +1,436 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Arrays;
+
+/**
+ * Radix trie of request path patterns. A pattern is a path whose segments may
+ * be parameters written as <code>{name}</code>, each matching one non-empty
+ * segment, and which may end with <code>/*</code> to match every path
+ * starting with the part before the asterisk. For example, <code>/hello</code>
+ * matches only itself, <code>/user/{id}</code> matches <code>/user/42</code>
+ * capturing 42 as id, and <code>/api/*</code> matches <code>/api/</code> and
+ * everything below it.
+ * <p>
+ * Patterns sharing a prefix share the trie nodes of that prefix, so a path is
+ * compared character by character once, without splitting it into segments.
+ * A static segment is preferred to a parameter, and a parameter to a
+ * wildcard; of several wildcards the longest one wins. Matching doesn't
+ * allocate: captured parameters are recorded as ranges of the path in a
+ * reusable {@link Match}.
+ *
+ * @author labramusic
+ *
+ * @param <T>
+ *            type of route targets
+ */
+public class Router<T> {
+
+	/**
+	 * The root node.
+	 */
+	private Node<T> root = new Node<>("");
+
+	/**
+	 * Largest number of parameters of a pattern.
+	 */
+	private int maxParameters;
+
+	/**
+	 * Adds a route.
+	 *
+	 * @param pattern
+	 *            the path pattern
+	 * @param target
+	 *            target of the route
+	 * @throws IllegalArgumentException
+	 *             if the pattern is malformed, already routed or names a
+	 *             parameter differently than a previous pattern
+	 */
+	public void add(String pattern, T target) {
+		if (!pattern.startsWith("/")) {
+			throw new IllegalArgumentException("Route " + pattern + " doesn't start with /!");
+		}
+		boolean wildcard = pattern.endsWith("/*");
+		Node<T> node = root;
+		int parameters = 0;
+		int n = wildcard ? pattern.length() - 1 : pattern.length();
+		int i = 0;
+		while (i < n) {
+			if (pattern.charAt(i) == '{') {
+				int close = pattern.indexOf('}', i);
+				if (pattern.charAt(i - 1) != '/' || close < 0 || close >= n || close == i + 1
+						|| (close + 1 < n && pattern.charAt(close + 1) != '/')) {
+					throw new IllegalArgumentException("Route " + pattern + " has a malformed parameter!");
+				}
+				String name = pattern.substring(i + 1, close);
+				if (node.parameter == null) {
+					node.parameter = new Node<>(name);
+				} else if (!node.parameter.label.equals(name)) {
+					throw new IllegalArgumentException(
+							"Route " + pattern + " names parameter {" + node.parameter.label + "} differently!");
+				}
+				node = node.parameter;
+				++parameters;
+				i = close + 1;
+				continue;
+			}
+			int end = pattern.indexOf('{', i);
+			if (end < 0 || end > n) {
+				end = n;
+			}
+			node = insert(node, pattern, i, end);
+			i = end;
+		}
+		if ((wildcard ? node.wildcard : node.target) != null) {
+			throw new IllegalArgumentException("Route " + pattern + " already exists!");
+		}
+		if (wildcard) {
+			node.wildcard = target;
+		} else {
+			node.target = target;
+		}
+		maxParameters = Math.max(maxParameters, parameters);
+	}
+
+	/**
+	 * Inserts the static part of a pattern below the given node, splitting
+	 * nodes where the part diverges from existing edges.
+	 *
+	 * @param node
+	 *            the node
+	 * @param pattern
+	 *            the pattern
+	 * @param start
+	 *            start of the part
+	 * @param end
+	 *            end of the part
+	 * @return node reached by the part
+	 */
+	private Node<T> insert(Node<T> node, String pattern, int start, int end) {
+		while (start < end) {
+			int index = node.indexOf(pattern.charAt(start));
+			if (index < 0) {
+				Node<T> child = new Node<>(pattern.substring(start, end));
+				node.addChild(child);
+				return child;
+			}
+			Node<T> child = node.children[index];
+			String label = child.label;
+			int common = 0;
+			while (common < label.length() && start + common < end
+					&& label.charAt(common) == pattern.charAt(start + common)) {
+				++common;
+			}
+			if (common < label.length()) {
+				Node<T> prefix = new Node<>(label.substring(0, common));
+				child.label = label.substring(common);
+				prefix.addChild(child);
+				node.children[index] = prefix;
+				child = prefix;
+			}
+			node = child;
+			start += common;
+		}
+		return node;
+	}
+
+	/**
+	 * Creates a match which can be reused for matching paths against the
+	 * routes added so far.
+	 *
+	 * @return the match
+	 */
+	public Match<T> newMatch() {
+		return new Match<>(maxParameters);
+	}
+
+	/**
+	 * Matches the given range of a path against the routes.
+	 *
+	 * @param path
+	 *            the path
+	 * @param start
+	 *            start of the range
+	 * @param end
+	 *            end of the range
+	 * @param match
+	 *            match receiving the target and parameters
+	 * @return true if a route matched
+	 */
+	public boolean match(String path, int start, int end, Match<T> match) {
+		match.path = path;
+		match.count = 0;
+		match.target = null;
+		match.remainder = -1;
+		match.end = end;
+		return match(root, path, start, end, match);
+	}
+
+	/**
+	 * Matches the rest of a path below the given node.
+	 *
+	 * @param node
+	 *            the node whose label has been matched
+	 * @param path
+	 *            the path
+	 * @param i
+	 *            start of the rest of the path
+	 * @param end
+	 *            end of the path
+	 * @param match
+	 *            match receiving the target and parameters
+	 * @return true if a route matched
+	 */
+	private boolean match(Node<T> node, String path, int i, int end, Match<T> match) {
+		if (i == end) {
+			if (node.target != null) {
+				match.target = node.target;
+				return true;
+			}
+		} else {
+			int index = node.indexOf(path.charAt(i));
+			if (index >= 0) {
+				Node<T> child = node.children[index];
+				int length = child.label.length();
+				if (end - i >= length && path.regionMatches(i, child.label, 0, length)
+						&& match(child, path, i + length, end, match)) {
+					return true;
+				}
+			}
+			if (node.parameter != null) {
+				int segmentEnd = i;
+				while (segmentEnd < end && path.charAt(segmentEnd) != '/') {
+					++segmentEnd;
+				}
+				if (segmentEnd > i) {
+					int count = match.count;
+					match.names[count] = node.parameter.label;
+					match.starts[count] = i;
+					match.ends[count] = segmentEnd;
+					match.count = count + 1;
+					if (match(node.parameter, path, segmentEnd, end, match)) {
+						return true;
+					}
+					match.count = count;
+				}
+			}
+		}
+		if (node.wildcard != null) {
+			match.target = node.wildcard;
+			match.remainder = i;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Node of the trie. A static node is entered by matching its label, while
+	 * a parameter node is entered by matching a segment and is labeled with
+	 * the parameter name.
+	 *
+	 * @author labramusic
+	 *
+	 * @param <T>
+	 *            type of route targets
+	 */
+	private static class Node<T> {
+
+		/**
+		 * Matched text, or the parameter name.
+		 */
+		private String label;
+
+		/**
+		 * First characters of the labels of the static children.
+		 */
+		private char[] indices = new char[0];
+
+		/**
+		 * Static children, at the indices of their first characters.
+		 */
+		private Node<T>[] children = newArray(0);
+
+		/**
+		 * Parameter child, or null.
+		 */
+		private Node<T> parameter;
+
+		/**
+		 * Target of the route ending at this node, or null.
+		 */
+		private T target;
+
+		/**
+		 * Target of the wildcard route ending at this node, or null.
+		 */
+		private T wildcard;
+
+		/**
+		 * Initializes a Node.
+		 *
+		 * @param label
+		 *            matched text or parameter name
+		 */
+		private Node(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Returns the index of the static child starting with the given
+		 * character, or -1.
+		 *
+		 * @param c
+		 *            the character
+		 * @return index of the child or -1
+		 */
+		private int indexOf(char c) {
+			char[] indices = this.indices;
+			for (int i = 0; i < indices.length; ++i) {
+				if (indices[i] == c) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Adds a static child.
+		 *
+		 * @param child
+		 *            the child
+		 */
+		private void addChild(Node<T> child) {
+			int n = indices.length;
+			indices = Arrays.copyOf(indices, n + 1);
+			children = Arrays.copyOf(children, n + 1);
+			indices[n] = child.label.charAt(0);
+			children[n] = child;
+		}
+
+		/**
+		 * Creates an array of nodes.
+		 *
+		 * @param length
+		 *            array length
+		 * @return the array
+		 */
+		@SuppressWarnings("unchecked")
+		private static <T> Node<T>[] newArray(int length) {
+			return (Node<T>[]) new Node<?>[length];
+		}
+	}
+
+	/**
+	 * Result of matching a path, which is reused for every path matched by a
+	 * thread.
+	 *
+	 * @author labramusic
+	 *
+	 * @param <T>
+	 *            type of route targets
+	 */
+	public static class Match<T> {
+
+		/**
+		 * The matched path.
+		 */
+		private String path;
+
+		/**
+		 * Target of the matched route.
+		 */
+		private T target;
+
+		/**
+		 * Number of captured parameters.
+		 */
+		private int count;
+
+		/**
+		 * Names of the captured parameters.
+		 */
+		private String[] names;
+
+		/**
+		 * Starts of the captured parameters in the path.
+		 */
+		private int[] starts;
+
+		/**
+		 * Ends of the captured parameters in the path.
+		 */
+		private int[] ends;
+
+		/**
+		 * Start of the part of the path matched by a wildcard, or -1.
+		 */
+		private int remainder;
+
+		/**
+		 * End of the matched range of the path.
+		 */
+		private int end;
+
+		/**
+		 * Initializes a Match.
+		 *
+		 * @param capacity
+		 *            largest number of parameters
+		 */
+		private Match(int capacity) {
+			names = new String[capacity];
+			starts = new int[capacity];
+			ends = new int[capacity];
+		}
+
+		/**
+		 * Gets the target of the matched route.
+		 *
+		 * @return the target
+		 */
+		public T getTarget() {
+			return target;
+		}
+
+		/**
+		 * Gets the number of captured parameters.
+		 *
+		 * @return number of parameters
+		 */
+		public int getParameterCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the name of the captured parameter with the given index.
+		 *
+		 * @param index
+		 *            parameter index
+		 * @return parameter name
+		 */
+		public String getParameterName(int index) {
+			return names[index];
+		}
+
+		/**
+		 * Gets the value of the captured parameter with the given index.
+		 *
+		 * @param index
+		 *            parameter index
+		 * @return parameter value
+		 */
+		public String getParameterValue(int index) {
+			return path.substring(starts[index], ends[index]);
+		}
+
+		/**
+		 * Gets the part of the path matched by a wildcard, or null if the
+		 * route has no wildcard.
+		 *
+		 * @return the matched part or null
+		 */
+		public String getRemainder() {
+			return remainder < 0 ? null : path.substring(remainder, end);
+		}
+	}
+}
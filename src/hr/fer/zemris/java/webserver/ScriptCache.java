@@ -0,0 +1,249 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.util.Util;
+
+/**
+ * Cache of parsed smart scripts. A script is parsed when it is first requested
+ * and parsed again only after it has been modified. The parsed document tree
+ * is only read during execution, so it can be shared between requests. If a
+ * minifier is given, the text of a script whose output is HTML is minified
+ * while parsing.
+ *
+ * @author labramusic
+ *
+ */
+public class ScriptCache {
+
+	/**
+	 * Common prefix of the functions using persistent parameters.
+	 */
+	private final static String PERSISTENT_FUNCTION_PREFIX = "pparam";
+
+	/**
+	 * Function which sets the mime type of the response.
+	 */
+	private final static String MIME_TYPE_FUNCTION = "setMimeType";
+
+	/**
+	 * The mime type of scripts which may be minified.
+	 */
+	private final static String HTML_MIME_TYPE = "text/html";
+
+	/**
+	 * Minifier of the script text, or null.
+	 */
+	private ContentMinifier minifier;
+
+	/**
+	 * Parsed scripts mapped by file path.
+	 */
+	private Map<String, ParsedScript> scripts = new ConcurrentHashMap<>();
+
+	/**
+	 * Initializes a ScriptCache.
+	 *
+	 * @param minifier
+	 *            minifier of the script text, or null
+	 */
+	public ScriptCache(ContentMinifier minifier) {
+		this.minifier = minifier;
+	}
+
+	/**
+	 * Returns the parsed script at the given path, parsing it if it hasn't been
+	 * parsed yet or has been modified since.
+	 *
+	 * @param path
+	 *            script path
+	 * @param lastModified
+	 *            time of the last modification of the script
+	 * @return the document node
+	 */
+	public DocumentNode get(String path, long lastModified) {
+		ParsedScript script = scripts.get(path);
+		if (script != null && script.lastModified == lastModified) {
+			return script.documentNode;
+		}
+		String document = Util.getStringFromPath(Paths.get(path));
+		DocumentNode documentNode = new SmartScriptParser(document).getDocumentNode();
+		if (minifier != null && !anyEchoNode(documentNode, ScriptCache::setsNonHtmlMimeType)) {
+			long[] sizes = new long[2];
+			// a preserved element may span several text nodes
+			String[] openElement = new String[1];
+			UnaryOperator<String> filter = text -> {
+				String minified = ContentMinifier.minify(text, openElement);
+				sizes[0] += text.getBytes(StandardCharsets.UTF_8).length;
+				sizes[1] += minified.getBytes(StandardCharsets.UTF_8).length;
+				return minified;
+			};
+			documentNode = new SmartScriptParser(document, filter).getDocumentNode();
+			minifier.report(path, sizes[0], sizes[1]);
+		}
+		boolean persistent = anyEchoNode(documentNode, ScriptCache::usesPersistentParameters);
+		scripts.put(path, new ParsedScript(lastModified, documentNode, persistent));
+		return documentNode;
+	}
+
+	/**
+	 * Checks if the parsed script at the given path calls any of the persistent
+	 * parameter functions. Returns true if the script hasn't been parsed.
+	 *
+	 * @param path
+	 *            script path
+	 * @return true if the script uses persistent parameters
+	 */
+	public boolean usesPersistentParameters(String path) {
+		ParsedScript script = scripts.get(path);
+		return script == null || script.persistent;
+	}
+
+	/**
+	 * Checks if the given echo node calls any of the persistent parameter
+	 * functions.
+	 *
+	 * @param node
+	 *            the echo node
+	 * @return true if the node uses persistent parameters
+	 */
+	private static boolean usesPersistentParameters(EchoNode node) {
+		for (Element elem : node.getElements()) {
+			if (elem instanceof ElementFunction
+					&& ((ElementFunction) elem).getName().startsWith(PERSISTENT_FUNCTION_PREFIX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the given echo node may set a mime type other than HTML. Only a
+	 * constant HTML mime type right before the call is known to keep it.
+	 *
+	 * @param node
+	 *            the echo node
+	 * @return true if the output of the script may not be HTML
+	 */
+	private static boolean setsNonHtmlMimeType(EchoNode node) {
+		Element[] elements = node.getElements();
+		for (int i = 0; i < elements.length; ++i) {
+			if (!(elements[i] instanceof ElementFunction)
+					|| !((ElementFunction) elements[i]).getName().equals(MIME_TYPE_FUNCTION)) {
+				continue;
+			}
+			if (i == 0 || !(elements[i - 1] instanceof ElementConstantString)
+					|| !((ElementConstantString) elements[i - 1]).getValue().startsWith(HTML_MIME_TYPE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if any echo node of the given document satisfies the given test.
+	 *
+	 * @param documentNode
+	 *            the document node
+	 * @param test
+	 *            test of an echo node
+	 * @return true if an echo node satisfies the test
+	 */
+	private static boolean anyEchoNode(DocumentNode documentNode, Predicate<EchoNode> test) {
+		boolean[] found = new boolean[1];
+		documentNode.accept(new INodeVisitor() {
+
+			@Override
+			public void visitTextNode(TextNode node) {
+			}
+
+			@Override
+			public void visitForLoopNode(ForLoopNode node) {
+				visitChildren(node);
+			}
+
+			@Override
+			public void visitEchoNode(EchoNode node) {
+				found[0] |= test.test(node);
+			}
+
+			@Override
+			public void visitDocumentNode(DocumentNode node) {
+				visitChildren(node);
+			}
+
+			private void visitChildren(Node node) {
+				int size = node.numberOfChildren();
+				for (int i = 0; i < size && !found[0]; ++i) {
+					node.getChild(i).accept(this);
+				}
+			}
+		});
+		return found[0];
+	}
+
+	/**
+	 * Removes the parsed script at the given path.
+	 *
+	 * @param path
+	 *            script path
+	 */
+	public void invalidate(String path) {
+		scripts.remove(path);
+	}
+
+	/**
+	 * A parsed script.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class ParsedScript {
+
+		/**
+		 * Time of the last modification of the script when it was parsed.
+		 */
+		private final long lastModified;
+
+		/**
+		 * The document node.
+		 */
+		private final DocumentNode documentNode;
+
+		/**
+		 * True if the script uses persistent parameters.
+		 */
+		private final boolean persistent;
+
+		/**
+		 * Initializes a ParsedScript.
+		 *
+		 * @param lastModified
+		 *            time of the last modification of the script
+		 * @param documentNode
+		 *            the document node
+		 * @param persistent
+		 *            true if the script uses persistent parameters
+		 */
+		public ParsedScript(long lastModified, DocumentNode documentNode, boolean persistent) {
+			this.lastModified = lastModified;
+			this.documentNode = documentNode;
+			this.persistent = persistent;
+		}
+	}
+}
@@ -13,24 +13,27 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Scanner;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
 import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.custom.scripting.util.Util;
+import hr.fer.zemris.java.webserver.DocumentManifest.ManifestEntry;
+import hr.fer.zemris.java.webserver.FileChannelCache.CachedChannel;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.session.SessionMapEntry;
+import hr.fer.zemris.java.webserver.session.SessionPersistence;
+import hr.fer.zemris.java.webserver.session.SessionStore;
+import hr.fer.zemris.java.webserver.session.SessionStores;
+import hr.fer.zemris.java.webserver.session.SidGenerator;
 
 /**
  * A Http server which can run smart scripts, workers from the predefined
@@ -48,6 +51,11 @@ public class SmartHttpServer {
 	 */
 	final static String PACKAGE = "hr.fer.zemris.java.webserver.workers";
 
+	/**
+	 * Milliseconds a warm-up request may take.
+	 */
+	private final static long WARMUP_TIMEOUT = 10_000;
+
 	/**
 	 * The host address.
 	 */
@@ -63,6 +71,16 @@ public class SmartHttpServer {
 	 */
 	private int workerThreads;
 
+	/**
+	 * Maximum number of parameters of a request.
+	 */
+	private int maxParameters;
+
+	/**
+	 * Maximum length of the query string of a request.
+	 */
+	private int maxQueryLength;
+
 	/**
 	 * The time of the session timeout.
 	 */
@@ -94,19 +112,86 @@ public class SmartHttpServer {
 	private Path documentRoot;
 
 	/**
-	 * The workers map.
+	 * The document root manifest.
+	 */
+	private DocumentManifest manifest;
+
+	/**
+	 * Cache of open channels of served files.
+	 */
+	private FileChannelCache fileChannelCache;
+
+	/**
+	 * Sender of static files with asynchronous reads, null if disabled.
+	 */
+	private AsyncFileSender asyncFileSender;
+
+	/**
+	 * Runner of asynchronous workers.
+	 */
+	private AsyncWorkerRunner asyncWorkerRunner;
+
+	/**
+	 * Handler which serves several static files in one response.
+	 */
+	private ComboHandler comboHandler;
+
+	/**
+	 * Minifier of static html and script text, null if disabled.
+	 */
+	private ContentMinifier minifier;
+
+	/**
+	 * Cache of parsed smart scripts.
+	 */
+	private ScriptCache scriptCache;
+
+	/**
+	 * Paths requested to warm up the server before it accepts connections.
 	 */
-	private Map<String, IWebWorker> workersMap = new HashMap<>();
+	private List<String> warmupPaths = new ArrayList<>();
+
+	/**
+	 * Number of times each warm-up path is requested.
+	 */
+	private int warmupIterations;
+
+	/**
+	 * The server properties, given to the workers.
+	 */
+	private Properties properties;
+
+	/**
+	 * The workers configuration file.
+	 */
+	private Path workersPath;
+
+	/**
+	 * Routes of the workers, replaced as a whole when the workers are
+	 * reloaded.
+	 */
+	private volatile WorkerRoutes routes;
+
+	/**
+	 * Reloader of the workers directory, null if workers aren't reloaded.
+	 */
+	private WorkerReloader workerReloader;
 
 	/**
 	 * The sessions map.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
+	private SessionStore sessions;
 
 	/**
-	 * The random session sid generator.
+	 * On-disk persistence of the sessions, null if disabled.
 	 */
-	private Random sessionRandom = new Random();
+	private SessionPersistence sessionPersistence;
+
+	/**
+	 * Number of requests which needed a new session after their header had
+	 * been sent.
+	 */
+	private AtomicLong lateSessions = new AtomicLong();
 
 	/**
 	 * The main method.
@@ -160,24 +245,160 @@ public class SmartHttpServer {
 	 *            the properties
 	 */
 	private void getProperties(Properties properties) {
+		this.properties = properties;
 		address = properties.getProperty("server.address");
 		Objects.requireNonNull(address);
 		port = Util.getAsInt(properties.getProperty("server.port"));
 		workerThreads = Util.getAsInt(properties.getProperty("server.workerThreads"));
+		maxParameters = Util.getAsInt(properties.getProperty("server.maxParameters"),
+				QueryParameters.DEFAULT_MAX_COUNT);
+		maxQueryLength = Util.getAsInt(properties.getProperty("server.maxQueryLength"),
+				QueryParameters.DEFAULT_MAX_LENGTH);
 		String document = properties.getProperty("server.documentRoot");
 		Objects.requireNonNull(document);
-		documentRoot = Paths.get(document);
+		// normalized like the manifest's keys
+		documentRoot = Paths.get(document).normalize();
 		sessionTimeout = Util.getAsInt(properties.getProperty("session.timeout"));
+		sessions = SessionStores.create(properties, sessionTimeout);
+		String persistence = properties.getProperty("session.persistence");
+		if (persistence != null) {
+			loadSessions(Paths.get(persistence.trim()),
+					Util.getAsInt(properties.getProperty("session.snapshotInterval"), 60));
+		}
 
 		String mime = properties.getProperty("server.mimeConfig");
 		Objects.requireNonNull(mime);
 		Path mimePath = Paths.get(mime);
 		getMimeProperties(mimePath);
+		manifest = new DocumentManifest(documentRoot, mimeTypes);
+		fileChannelCache = new FileChannelCache(Util.getAsInt(properties.getProperty("server.openFiles"), 64),
+				Util.getAsInt(properties.getProperty("server.openFilesIdle"), 60));
+		manifest.addChangeListener(fileChannelCache::invalidate);
+		if (Boolean.parseBoolean(properties.getProperty("server.minify"))) {
+			minifier = new ContentMinifier();
+			manifest.addChangeListener(minifier::invalidate);
+		}
+		scriptCache = new ScriptCache(minifier);
+		manifest.addChangeListener(scriptCache::invalidate);
+		comboHandler = new ComboHandler(documentRoot, manifest, fileChannelCache);
+		if (Boolean.parseBoolean(properties.getProperty("server.asyncFiles"))) {
+			asyncFileSender = new AsyncFileSender(workerThreads);
+		}
+		asyncWorkerRunner = new AsyncWorkerRunner(
+				Util.getAsInt(properties.getProperty("server.asyncTimeout"), 30) * 1000L);
 
 		String workers = properties.getProperty("server.workers");
 		Objects.requireNonNull(workers);
-		Path workersPath = Paths.get(workers);
-		getWorkers(workersPath);
+		workersPath = Paths.get(workers);
+		ClassLoader workersLoader = getClass().getClassLoader();
+		// the index would bypass the reloaded classes of a workers directory
+		WorkerIndex index = null;
+		String workersDir = properties.getProperty("server.workersDir");
+		if (workersDir != null && !workersDir.trim().isEmpty()) {
+			workerReloader = new WorkerReloader(Paths.get(workersDir.trim()), workersLoader, this::reloadWorkers);
+			workersLoader = workerReloader.newClassLoader();
+		} else {
+			index = WorkerIndex.load();
+		}
+		try {
+			routes = WorkerRoutes.load(workersPath, new WorkerRegistry(workersLoader, properties, index), PACKAGE);
+			ClassLoader loaded = workersLoader;
+			routes.setDestroyAction(() -> WorkerReloader.close(loaded));
+		} catch (IOException e) {
+			System.err.println("Couldn't read workers configuration file!");
+			System.exit(1);
+		} catch (RuntimeException e) {
+			System.err.println("Couldn't load the workers: " + e.getMessage());
+			System.exit(1);
+		}
+
+		String warmup = properties.getProperty("server.warmup", "");
+		for (String path : warmup.split(",")) {
+			if (!path.trim().isEmpty()) {
+				warmupPaths.add(path.trim());
+			}
+		}
+		warmupIterations = Util.getAsInt(properties.getProperty("server.warmupIterations"), 100);
+	}
+
+	/**
+	 * Sends the warm-up requests through the whole request handling, with
+	 * sockets which discard the responses, so the scripts, caches and
+	 * compiled code are ready before the first client connects. Warm-up
+	 * requests bypass the response caches, so cached routes run their
+	 * workers on each iteration and the caches' hit ratios only count
+	 * clients.
+	 */
+	private void warmUp() {
+		if (warmupPaths.isEmpty()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		int requests = 0;
+		try {
+			for (int i = 0; i < warmupIterations; ++i) {
+				for (String path : warmupPaths) {
+					WarmupSocket socket = new WarmupSocket(path);
+					new ClientWorker(socket).run();
+					if (!socket.awaitClose(WARMUP_TIMEOUT)) {
+						System.err.println("Warm-up request " + path + " didn't finish in time.");
+					}
+					++requests;
+				}
+			}
+		} catch (InterruptedException e) {
+			System.err.println("The warm-up was interrupted!");
+		}
+		System.out.println("Warmed up with " + requests + " requests in " + (System.currentTimeMillis() - start)
+				+ " ms.");
+	}
+
+	/**
+	 * Loads the workers with the given class loader and replaces the routes.
+	 * Requests already running keep the workers of the old routes, whose class
+	 * loader is closed once they have finished and the old workers have been
+	 * destroyed. If any worker can't be loaded, the old routes are kept.
+	 * 
+	 * @param workersLoader
+	 *            class loader of the workers
+	 * @return true if the routes have been replaced
+	 */
+	private boolean reloadWorkers(ClassLoader workersLoader) {
+		WorkerRoutes reloaded;
+		try {
+			reloaded = WorkerRoutes.load(workersPath, new WorkerRegistry(workersLoader, properties), PACKAGE);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Couldn't reload the workers, keeping the old ones: " + e);
+			return false;
+		}
+		reloaded.setDestroyAction(() -> WorkerReloader.close(workersLoader));
+		WorkerRoutes old = routes;
+		routes = reloaded;
+		old.retire();
+		System.out.println("Reloaded the workers.");
+		return true;
+	}
+
+	/**
+	 * Restores the sessions saved in the given directory and starts saving
+	 * changes to it.
+	 * 
+	 * @param directory
+	 *            the session persistence directory
+	 * @param snapshotInterval
+	 *            interval between snapshots in seconds
+	 */
+	private void loadSessions(Path directory, int snapshotInterval) {
+		sessionPersistence = new SessionPersistence(directory, sessions, snapshotInterval);
+		long start = System.nanoTime();
+		try {
+			int restored = sessionPersistence.load();
+			System.out.println("Restored " + restored + " sessions in " + (System.nanoTime() - start) / 1_000_000
+					+ " ms.");
+		} catch (IOException e) {
+			System.err.println("Sessions couldn't be restored from " + directory + ": " + e);
+			sessionPersistence = null;
+		}
 	}
 
 	/**
@@ -200,39 +421,6 @@ public class SmartHttpServer {
 		}
 	}
 
-	/**
-	 * Loads the workers from the workers path.
-	 * 
-	 * @param workersPath
-	 *            the workers path
-	 */
-	private void getWorkers(Path workersPath) {
-		try (Scanner sc = new Scanner(workersPath)) {
-			while (sc.hasNextLine()) {
-				String line = sc.nextLine().trim();
-				if (line == null || line.isEmpty() || line.startsWith("#"))
-					continue;
-				String[] lineArgs = line.split("=");
-				if (lineArgs.length != 2)
-					continue;
-				String path = lineArgs[0].trim();
-				path = Paths.get(documentRoot + path).toString();
-				String fqcn = lineArgs[1].trim();
-
-				IWebWorker iww = getWorkerFromName(fqcn);
-				if (workersMap.containsKey(path)) {
-					throw new RuntimeException("Path " + path + "already contains class " + workersMap.get(path) + "!");
-				}
-
-				workersMap.put(path, iww);
-			}
-
-		} catch (IOException e) {
-			System.err.println("Couldn't read workers configuration file!");
-			System.exit(1);
-		}
-	}
-
 	/**
 	 * Starts the server and refresher threads if not already running.
 	 */
@@ -240,6 +428,19 @@ public class SmartHttpServer {
 		// initialize thread pool
 		threadPool = Executors.newFixedThreadPool(workerThreads);
 
+		manifest.start();
+		fileChannelCache.start();
+		if (sessionPersistence != null) {
+			sessionPersistence.start();
+		}
+		sessions.start();
+		if (workerReloader != null) {
+			workerReloader.start();
+		}
+		warmUp();
+		System.out.println("Serving " + manifest.size() + " files (" + manifest.totalSize() + " bytes) from "
+				+ documentRoot + ".");
+
 		if (serverThread == null) {
 			serverThread = new ServerThread();
 			serverThread.setDaemon(true);
@@ -264,6 +465,20 @@ public class SmartHttpServer {
 		// signal server thread to stop running
 		serverThread.kill();
 		refresherThread.kill();
+		manifest.stop();
+		fileChannelCache.stop();
+		if (asyncFileSender != null) {
+			asyncFileSender.shutdown();
+		}
+		asyncWorkerRunner.shutdown();
+		if (workerReloader != null) {
+			workerReloader.stop();
+		}
+		routes.retire();
+		sessions.stop();
+		if (sessionPersistence != null) {
+			sessionPersistence.stop();
+		}
 		// shutdown threadpool
 		threadPool.shutdown();
 	}
@@ -313,7 +528,8 @@ public class SmartHttpServer {
 	}
 
 	/**
-	 * Thread which refreshes sessions each 5 minutes by removing expired ones.
+	 * Thread which refreshes sessions each second by removing the ones which
+	 * expired in the meantime.
 	 * 
 	 * @author labramusic
 	 *
@@ -328,19 +544,15 @@ public class SmartHttpServer {
 		@Override
 		public void run() {
 			dead = false;
-			// periodically (e.g. each 5 minutes) go through all session records
-			// and that will remove records for expired sessions from sessions
-			// map.
+			// the session store checks only the sessions due since the last
+			// refresh, so each refresh is a small batch
 			try {
 				while (true) {
 					if (dead)
 						break;
-					Thread.sleep(1000 * 60 * 5);
-					for (Map.Entry<String, SessionMapEntry> s : sessions.entrySet()) {
-						if (s.getValue().validUntil < new Date().getTime() / 1000) {
-							sessions.remove(s.getKey());
-						}
-					}
+					Thread.sleep(1000);
+					sessions.removeExpired();
+					routes.tick();
 				}
 			} catch (InterruptedException e) {
 				System.err.println("The refreshing thread was interrupted!");
@@ -390,19 +602,30 @@ public class SmartHttpServer {
 		private String method;
 
 		/**
-		 * The parameters map.
+		 * The parameters, parsed when first used.
 		 */
-		private Map<String, String> params = new LinkedHashMap<String, String>();
+		private QueryParameters params;
 
 		/**
-		 * The permanent parameters map.
+		 * The output cookies list.
 		 */
-		private Map<String, String> permPrams = null;
+		private List<RCCookie> outputCookies = new ArrayList<>();
 
 		/**
-		 * The output cookies list.
+		 * Routes used by this request, released when the socket is closed.
 		 */
-		private List<RCCookie> outputCookies = new ArrayList<>();
+		private WorkerRoutes acquiredRoutes;
+
+		/**
+		 * True if the response is still being sent asynchronously and the
+		 * socket must not be closed when the worker finishes.
+		 */
+		private boolean pending;
+
+		/**
+		 * Capture of the response for the route's response cache, or null.
+		 */
+		private ResponseCache.Capture capture;
 
 		/**
 		 * Initializes a ClientWorker.
@@ -416,7 +639,20 @@ public class SmartHttpServer {
 
 		@Override
 		public void run() {
+			try {
+				serve();
+			} finally {
+				if (!pending) {
+					closeSocket();
+				}
+			}
+		}
 
+		/**
+		 * Reads the request and starts sending the response. The socket is
+		 * closed afterwards unless the response is still pending.
+		 */
+		private void serve() {
 			try {
 				istream = new PushbackInputStream(csocket.getInputStream());
 				ostream = csocket.getOutputStream();
@@ -436,30 +672,167 @@ public class SmartHttpServer {
 			String requestedPath = firstArgs[1];
 			version = firstArgs[2];
 
-			checkSession(request);
-
 			String path = requestedPath;
-			String paramString;
-			if (requestedPath.contains("?")) {
-				String[] reqPathSplit = requestedPath.split("\\?");
-				path = reqPathSplit[0];
-				paramString = reqPathSplit[1];
-				parseParameters(paramString);
+			String paramString = null;
+			int question = requestedPath.indexOf('?');
+			if (question >= 0) {
+				path = requestedPath.substring(0, question);
+				paramString = requestedPath.substring(question + 1);
+			}
+			try {
+				params = new QueryParameters(paramString, maxParameters, maxQueryLength);
+			} catch (IllegalArgumentException e) {
+				sendError(414, "URI Too Long");
+				return;
+			}
+
+			// the routes are acquired once, so a reload doesn't affect this
+			// request, and released when the socket is closed
+			while (true) {
+				WorkerRoutes current = routes;
+				if (current.acquire()) {
+					acquiredRoutes = current;
+					break;
+				}
+				if (current == routes) {
+					// retired without being replaced, so the server is stopping
+					sendError(503, "Service Unavailable");
+					return;
+				}
 			}
-			requestedPath = Paths.get(documentRoot + path).toString();
+			Router<WorkerRoute> router = acquiredRoutes.getRouter();
+			Router.Match<WorkerRoute> match = router.newMatch();
+			if (path.equals(ComboHandler.PATH)) {
+				try {
+					comboHandler.handle(createContext(ostream, request), getComboFiles(),
+							getHeader(request, "If-None-Match"));
+				} catch (IOException e) {
+					System.err.println("The requested files couldn't be read.");
+				}
+			} else if (router.match(path, 0, path.length(), match)) {
+				for (int i = 0, n = match.getParameterCount(); i < n; ++i) {
+					params.put(match.getParameterName(i), match.getParameterValue(i));
+				}
+				WorkerRoute route = match.getTarget().resolve(match);
+				IWebWorker worker = route.getWorker(match);
+				if (worker == null) {
+					sendError(404, "Not Found");
+					return;
+				}
+				OutputStream out = ostream;
+				ResponseCache responseCache = route.getResponseCache();
+				// warm-up requests run the worker each time and don't count as hits or misses
+				if (responseCache != null && !(worker instanceof IAsyncWebWorker)
+						&& !(csocket instanceof WarmupSocket)) {
+					String key = responseCache.key(params);
+					byte[] cached = responseCache.get(key);
+					if (cached != null) {
+						try {
+							ostream.write(cached);
+						} catch (IOException e) {
+							System.err.println("Couldn't write to socket output stream!");
+						}
+						return;
+					}
+					capture = responseCache.capture(key, ostream);
+					out = capture;
+				}
+				dispatch(worker, route.getBulkhead(), createContext(out, request));
+			} else {
+				sendRequestToClient(createContext(ostream, request), Paths.get(documentRoot + path).toString());
+			}
+		}
 
-			RequestContext rc = new RequestContext(ostream, params, permPrams, outputCookies);
+		/**
+		 * Creates the context of the request.
+		 * 
+		 * @param out
+		 *            output stream of the response
+		 * @param request
+		 *            request lines
+		 * @return the request context
+		 */
+		private RequestContext createContext(OutputStream out, List<String> request) {
+			RequestContext rc = new RequestContext(out, params, null, outputCookies);
 			rc.setStatusCode(200);
+			rc.setRequestCookieHeaders(getHeaders(request, "Cookie"));
+			// the session is looked up or created only if it is used
+			rc.setPersistentParametersSupplier(() -> checkSession(rc));
+			return rc;
+		}
 
-			if (path.startsWith("/ext/")) {
-				String name = Paths.get(path).getFileName().toString();
-				getWorkerFromName(PACKAGE + "." + name).processRequest(rc);
-			} else if (workersMap.get(requestedPath) != null) {
-				workersMap.get(requestedPath).processRequest(rc);
-			} else {
-				sendRequestToClient(rc, requestedPath);
+		/**
+		 * Runs the given worker within the given bulkhead. If the bulkhead is
+		 * full, the request is answered with 503 Service Unavailable without
+		 * running the worker.
+		 * 
+		 * @param worker
+		 *            the worker
+		 * @param bulkhead
+		 *            bulkhead of the route, or null
+		 * @param rc
+		 *            request context
+		 */
+		private void dispatch(IWebWorker worker, Bulkhead bulkhead, RequestContext rc) {
+			if (bulkhead == null) {
+				pending = !runWorker(worker, rc, this::closeSocket);
+				return;
 			}
+			if (!bulkhead.tryAdmit()) {
+				sendError(503, "Service Unavailable");
+				return;
+			}
+			Runnable finish = () -> {
+				bulkhead.leave();
+				closeSocket();
+			};
+			// the socket is closed by the bulkhead's request
+			pending = true;
+			bulkhead.run(() -> {
+				boolean done = true;
+				try {
+					done = runWorker(worker, rc, finish);
+				} finally {
+					if (done) {
+						finish.run();
+					}
+				}
+			});
+		}
 
+		/**
+		 * Runs the given worker.
+		 * 
+		 * @param worker
+		 *            the worker
+		 * @param rc
+		 *            request context
+		 * @param onComplete
+		 *            callback run when an asynchronous worker has finished
+		 * @return true if the response is finished, false if an asynchronous
+		 *         worker is still running and will run the callback
+		 */
+		private boolean runWorker(IWebWorker worker, RequestContext rc, Runnable onComplete) {
+			if (worker instanceof IAsyncWebWorker) {
+				asyncWorkerRunner.run((IAsyncWebWorker) worker, rc, csocket, istream, onComplete);
+				return false;
+			}
+			worker.processRequest(rc);
+			if (capture != null) {
+				capture.commit();
+			}
+			return true;
+		}
+
+		/**
+		 * Closes the client socket.
+		 */
+		private void closeSocket() {
+			WorkerRoutes acquired = acquiredRoutes;
+			if (acquired != null) {
+				acquiredRoutes = null;
+				acquired.release();
+			}
 			try {
 				csocket.close();
 			} catch (IOException e) {
@@ -476,27 +849,45 @@ public class SmartHttpServer {
 		 *            requested client path
 		 */
 		private void sendRequestToClient(RequestContext rc, String requestedPath) {
-			Path filePath = Paths.get(requestedPath);
-			if (!Files.exists(filePath) || !Files.isRegularFile(filePath) || !Files.isReadable(filePath)) {
+			ManifestEntry entry = manifest.get(requestedPath);
+			if (entry == null) {
 				sendError(404, "Not Found");
 				return;
 			}
 
-			String fileExt = requestedPath.split("\\.")[1];
-			String mimeType = mimeTypes.get(fileExt);
-
-			if (mimeType == null) {
-				mimeType = "application/octet-stream";
-			}
-
-			if (fileExt.equals("smscr")) {
-				DocumentNode documentNode = getDocumentNode(requestedPath);
+			if (entry.isScript()) {
+				DocumentNode documentNode = scriptCache.get(requestedPath, entry.getLastModified());
+				if (scriptCache.usesPersistentParameters(requestedPath)) {
+					// the session cookie must be set before the script writes
+					rc.getPersistentParameters();
+				}
 				new SmartScriptEngine(documentNode, rc).execute();
 			} else {
-				rc.setMimeType(mimeType);
+				rc.setMimeType(entry.getMimeType());
+				if (minifier != null && entry.getMimeType().equals("text/html")) {
+					try {
+						rc.write(minifier.getMinified(requestedPath, entry.getLastModified()));
+					} catch (IOException e) {
+						System.err.println("The requested file " + requestedPath + " couldn't be read.");
+					}
+					return;
+				}
+				if (asyncFileSender != null) {
+					try {
+						asyncFileSender.send(Paths.get(requestedPath), rc, this::closeSocket);
+						pending = true;
+					} catch (IOException e) {
+						System.err.println("The requested file " + requestedPath + " couldn't be read.");
+					}
+					return;
+				}
 				try {
-					byte[] data = Files.readAllBytes(Paths.get(requestedPath));
-					rc.write(data);
+					CachedChannel cached = fileChannelCache.acquire(requestedPath, entry.getLastModified());
+					try {
+						rc.write(cached.getChannel());
+					} finally {
+						cached.release();
+					}
 				} catch (IOException e) {
 					System.err.println("The requested file " + requestedPath + " couldn't be read.");
 				}
@@ -514,7 +905,7 @@ public class SmartHttpServer {
 		 */
 		private void sendError(int statusCode, String statusText) {
 			statusText = "Error " + statusCode + " " + statusText;
-			RequestContext rc = new RequestContext(ostream, params, permPrams, outputCookies);
+			RequestContext rc = new RequestContext(ostream, params, null, outputCookies);
 			rc.setStatusCode(statusCode);
 			rc.setStatusText(statusText);
 			try {
@@ -523,73 +914,49 @@ public class SmartHttpServer {
 				System.err.println("Couldn't write to socket output stream!");
 			}
 
-			try {
-				csocket.close();
-			} catch (IOException e) {
-				System.err.println("The socket couldn't be closed!");
-			}
+			closeSocket();
 		}
 
 		/**
-		 * Checks the session for cookies.
+		 * Checks the session cookie and returns the persistent parameters of the
+		 * found or newly created session, and keeps the response out of the
+		 * response cache. Once the header has been sent, a new session's cookie
+		 * can't be sent any more, so only an existing session can be used.
+		 * Without one the request gets empty parameters which aren't kept,
+		 * since failing would cut off the response being written.
 		 * 
-		 * @param header
-		 *            response header
+		 * @param rc
+		 *            request context
+		 * @return persistent parameters of the session
 		 */
-		private synchronized void checkSession(List<String> header) {
-			String sidCandidate = null;
-
-			for (String line : header) {
-				if (!line.startsWith("Cookie:"))
-					continue;
-				line = line.replaceFirst("Cookie: ", "").trim();
-				String[] cookies = line.split(";");
-				for (String cookie : cookies) {
-					String[] cookieSplit = cookie.split("=");
-					String name = cookieSplit[0];
-					String value = cookieSplit[1].replaceAll("\"", "").trim();
-					if (name.equals("sid")) {
-						sidCandidate = value;
+		private Map<String, Object> checkSession(RequestContext rc) {
+			if (capture != null) {
+				// the response depends on the client's session
+				capture.skip();
+			}
+			String sidCandidate = rc.getRequestCookie("sid");
+
+			if (rc.isHeaderGenerated()) {
+				SessionMapEntry existing = sidCandidate == null ? null : sessions.touch(sidCandidate);
+				if (existing == null) {
+					long count = lateSessions.incrementAndGet();
+					if ((count & (count - 1)) == 0) {
+						System.err.println("Persistent parameters of a new session must be used before the response "
+								+ "is written, they won't be kept (" + count + " such requests so far).");
 					}
+					return new HashMap<>();
 				}
+				return existing.getMap();
 			}
-
-			SessionMapEntry entry = sessions.get(sidCandidate);
-			if (sidCandidate == null || entry == null || entry.validUntil < new Date().getTime() / 1000) {
-				entry = createSessionEntry();
-			} else {
-				long now = new Date().getTime() / 1000; // in seconds
-				sessions.get(sidCandidate).validUntil = now + sessionTimeout;
-			}
-
-			permPrams = entry.map;
-		}
-
-		/**
-		 * Creates a new session entry and the corresponding cookie with a new
-		 * SID.
-		 * 
-		 * @return created session entry
-		 */
-		private SessionMapEntry createSessionEntry() {
-			String sid = "";
-			for (int i = 0; i < 20; ++i) {
-				char letter = (char) (sessionRandom.nextInt(26) + 65);
-				sid += letter;
+			SessionMapEntry entry = sessions.getOrCreate(sidCandidate, SidGenerator::generate);
+			if (!entry.getSid().equals(sidCandidate)) {
+				// create cookie
+				RCCookie cookie = new RCCookie("sid", entry.getSid(), address, "/", null);
+				cookie.setHttpOnly(true);
+				outputCookies.add(cookie);
 			}
 
-			long now = new Date().getTime() / 1000; // in seconds
-			long validUntil = now + sessionTimeout;
-
-			SessionMapEntry entry = new SessionMapEntry(sid, validUntil);
-
-			sessions.put(sid, entry);
-			// create cookie
-			RCCookie cookie = new RCCookie("sid", sid, address, "/", null);
-			cookie.setHttpOnly(true);
-			outputCookies.add(cookie);
-
-			return entry;
+			return entry.getMap();
 		}
 
 		/**
@@ -617,104 +984,56 @@ public class SmartHttpServer {
 		}
 
 		/**
-		 * Parses the parameters from the given string and places them in the
-		 * parameters map.
+		 * Collects all non-empty values of the combo handler's file
+		 * parameter, keeping repeated parameters.
 		 * 
-		 * @param paramString
-		 *            string containing parameters
+		 * @return requested file paths
 		 */
-		private void parseParameters(String paramString) {
-			final int args = 2;
-			String[] paramSplit = paramString.split("&");
-			int paramsLen = paramSplit.length;
-			String paramsArray[][] = new String[paramsLen][args];
-			for (int i = 0; i < paramsLen; ++i) {
-				String[] param = paramSplit[i].split("=");
-				if (param.length != 2) {
-					System.err.println("Illegal number of arguments.");
-					return;
+		private List<String> getComboFiles() {
+			List<String> files = new ArrayList<>();
+			for (String file : params.getValues(ComboHandler.FILE_PARAMETER)) {
+				if (!file.isEmpty()) {
+					files.add(file);
 				}
-				paramsArray[i] = param;
-			}
-
-			for (int i = 0; i < paramsLen; ++i) {
-				params.put(paramsArray[i][0], paramsArray[i][1]);
 			}
+			return files;
 		}
 
 		/**
-		 * Extracts the document node from the given path name.
+		 * Returns the value of the given request header field or null if the
+		 * request doesn't contain it.
 		 * 
-		 * @param pathname
-		 *            path name
-		 * @return the document node
+		 * @param request
+		 *            request lines
+		 * @param name
+		 *            header field name
+		 * @return header field value
 		 */
-		private DocumentNode getDocumentNode(String pathname) {
-			Path path = Paths.get(pathname);
-			String document = Util.getStringFromPath(path);
-			return new SmartScriptParser(document).getDocumentNode();
+		private String getHeader(List<String> request, String name) {
+			List<String> values = getHeaders(request, name);
+			return values.isEmpty() ? null : values.get(0);
 		}
-	}
-
-	/**
-	 * Returns the web worker with the given name.
-	 * 
-	 * @param name
-	 *            web worker name
-	 * @return web worker instance
-	 */
-	private IWebWorker getWorkerFromName(String name) {
-		Class<?> referenceToClass = null;
-		try {
-			referenceToClass = this.getClass().getClassLoader().loadClass(name);
-		} catch (ClassNotFoundException e) {
-			System.err.println("Class " + name + " not found!");
-			return null;
-		}
-		Object newObject = null;
-		try {
-			newObject = referenceToClass.newInstance();
-		} catch (Exception ingorable) {
-		}
-		return (IWebWorker) newObject;
-	}
-
-	/**
-	 * Represents a session map entry with his SID, time until valid and map for
-	 * storing cookie data.
-	 * 
-	 * @author labramusic
-	 *
-	 */
-	private static class SessionMapEntry {
-
-		/**
-		 * The session id.
-		 */
-		protected String sid;
-
-		/**
-		 * Time until valid.
-		 */
-		protected long validUntil;
 
 		/**
-		 * Session map.
-		 */
-		protected Map<String, String> map;
-
-		/**
-		 * Initializes a SessionMapEntry.
+		 * Returns the values of all occurrences of the given request header
+		 * field.
 		 * 
-		 * @param sid
-		 *            session id
-		 * @param validUntil
-		 *            time until valid
+		 * @param request
+		 *            request lines
+		 * @param name
+		 *            header field name
+		 * @return header field values
 		 */
-		public SessionMapEntry(String sid, long validUntil) {
-			this.sid = sid;
-			this.validUntil = validUntil;
-			map = new ConcurrentHashMap<>();
+		private List<String> getHeaders(List<String> request, String name) {
+			List<String> values = new ArrayList<>(1);
+			for (int i = 1; i < request.size(); ++i) {
+				String line = request.get(i);
+				int colon = line.indexOf(':');
+				if (colon == name.length() && line.regionMatches(true, 0, name, 0, colon)) {
+					values.add(line.substring(colon + 1).trim());
+				}
+			}
+			return values;
 		}
 	}
 }
@@ -0,0 +1,151 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket of a synthetic request sent while the server warms up. The socket
+ * isn't connected: it reads a GET request of the given path, discards the
+ * response and records when it's closed. Once the request has been read, it
+ * behaves like an idle client which keeps the connection open.
+ * 
+ * @author labramusic
+ *
+ */
+class WarmupSocket extends Socket {
+
+	/**
+	 * The request.
+	 */
+	private InputStream in;
+
+	/**
+	 * Stream discarding the response.
+	 */
+	private OutputStream out = new OutputStream() {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	/**
+	 * Counted down when the socket is closed.
+	 */
+	private CountDownLatch closed = new CountDownLatch(1);
+
+	/**
+	 * Initializes a WarmupSocket.
+	 * 
+	 * @param path
+	 *            requested path, with the query string
+	 */
+	WarmupSocket(String path) {
+		byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: warmup\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		in = new RequestStream(request);
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public void setSoTimeout(int timeout) {
+	}
+
+	@Override
+	public synchronized void close() {
+		closed.countDown();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed.getCount() == 0;
+	}
+
+	/**
+	 * Waits until the response has been finished and the socket closed.
+	 * 
+	 * @param timeout
+	 *            maximum milliseconds to wait
+	 * @return true if the socket has been closed
+	 * @throws InterruptedException
+	 *             thrown if the thread is interrupted while waiting
+	 */
+	boolean awaitClose(long timeout) throws InterruptedException {
+		return closed.await(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stream of the request, after which reading times out as if the client
+	 * were idle.
+	 * 
+	 * @author labramusic
+	 *
+	 */
+	private static class RequestStream extends InputStream {
+
+		/**
+		 * The request.
+		 */
+		private ByteArrayInputStream request;
+
+		/**
+		 * Initializes a RequestStream.
+		 * 
+		 * @param request
+		 *            the request
+		 */
+		private RequestStream(byte[] request) {
+			this.request = new ByteArrayInputStream(request);
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkAvailable();
+			return request.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len > 0) {
+				checkAvailable();
+			}
+			return request.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			return request.available();
+		}
+
+		/**
+		 * Checks if any of the request remains to be read.
+		 * 
+		 * @throws SocketTimeoutException
+		 *             if the whole request has been read
+		 */
+		private void checkAvailable() throws SocketTimeoutException {
+			if (request.available() == 0) {
+				throw new SocketTimeoutException("Warm-up client is idle.");
+			}
+		}
+	}
+}
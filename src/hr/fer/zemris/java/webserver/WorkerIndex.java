@@ -0,0 +1,65 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Index of the web workers compiled with the server, generated at build time
+ * by {@link hr.fer.zemris.java.webserver.processor.WorkerIndexProcessor}. It
+ * creates the indexed workers through their constructors directly, so the
+ * registry doesn't have to look up and instantiate their classes
+ * reflectively. A server built without the processor has no index and falls
+ * back to reflection.
+ *
+ * @author labramusic
+ *
+ */
+public interface WorkerIndex {
+
+	/**
+	 * Fully qualified name of the generated index.
+	 */
+	String GENERATED_CLASS = "hr.fer.zemris.java.webserver.workers.GeneratedWorkerIndex";
+
+	/**
+	 * Gets the factory of the worker with the given class name.
+	 *
+	 * @param className
+	 *            fully qualified class name
+	 * @return the factory, or null if the class isn't indexed
+	 */
+	Supplier<IWebWorker> getFactory(String className);
+
+	/**
+	 * Checks if the worker with the given class name is an
+	 * {@link IStatefulWebWorker}.
+	 *
+	 * @param className
+	 *            fully qualified class name
+	 * @return true if the worker is indexed and stateful
+	 */
+	boolean isStateful(String className);
+
+	/**
+	 * Gets the class names of the indexed workers.
+	 *
+	 * @return the class names
+	 */
+	Set<String> getClassNames();
+
+	/**
+	 * Loads the generated index.
+	 *
+	 * @return the index, or null if the server was built without it
+	 */
+	static WorkerIndex load() {
+		try {
+			return Class.forName(GENERATED_CLASS).asSubclass(WorkerIndex.class).getConstructor().newInstance();
+		} catch (ClassNotFoundException notGenerated) {
+			return null;
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			System.err.println("Worker index couldn't be loaded: " + e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Registry of web workers by fully qualified class name. A class is loaded and
+ * instantiated only the first time its name is requested, after which the
+ * same instance is returned to all requests. Workers implementing
+ * {@link IStatefulWebWorker} are instead created for each request through
+ * their cached constructor. Workers found in the {@link WorkerIndex} generated
+ * at build time are created through the index instead of reflection. Names
+ * which don't denote a web worker are
+ * remembered as well, so they aren't looked up again; at most
+ * {@value #MAX_MISSING} of them are kept, the oldest being forgotten first, so
+ * that requests for random names can't fill the memory. Such names are
+ * counted, and only the first and then every power of two is printed, so
+ * requests for random names can't flood the log either.
+ * <p>
+ * Every created worker is initialized with the server properties before it
+ * is used, and a worker whose initialization fails is treated as missing.
+ * Shared workers are destroyed together with the registry.
+ * 
+ * @author labramusic
+ *
+ */
+public class WorkerRegistry {
+
+	/**
+	 * Maximum number of remembered missing names.
+	 */
+	private final static int MAX_MISSING = 1024;
+
+	/**
+	 * Class loader of the workers.
+	 */
+	private ClassLoader classLoader;
+
+	/**
+	 * Index of the workers compiled with the server, or null.
+	 */
+	private WorkerIndex index;
+
+	/**
+	 * The server properties given to the workers.
+	 */
+	private Properties properties;
+
+	/**
+	 * Shared workers which are destroyed with the registry.
+	 */
+	private Queue<IWebWorker> shared = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Suppliers of worker instances by class name.
+	 */
+	private Map<String, Supplier<IWebWorker>> workers = new ConcurrentHashMap<>();
+
+	/**
+	 * Names which don't denote a web worker.
+	 */
+	private Set<String> missing = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Remembered missing names in the order they were added.
+	 */
+	private Queue<String> missingOrder = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Number of requested names which didn't denote a web worker.
+	 */
+	private AtomicLong missingCount = new AtomicLong();
+
+	/**
+	 * Initializes a new WorkerRegistry.
+	 * 
+	 * @param classLoader
+	 *            class loader of the workers
+	 * @param properties
+	 *            the server properties given to the workers
+	 */
+	public WorkerRegistry(ClassLoader classLoader, Properties properties) {
+		this(classLoader, properties, null);
+	}
+
+	/**
+	 * Initializes a new WorkerRegistry which creates the indexed workers
+	 * through the given index.
+	 * 
+	 * @param classLoader
+	 *            class loader of the workers which aren't indexed
+	 * @param properties
+	 *            the server properties given to the workers
+	 * @param index
+	 *            index of the workers, or null
+	 */
+	public WorkerRegistry(ClassLoader classLoader, Properties properties, WorkerIndex index) {
+		this.classLoader = classLoader;
+		this.properties = properties;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the worker with the given class name, or null if there is no
+	 * such worker.
+	 * 
+	 * @param name
+	 *            fully qualified class name
+	 * @return worker instance or null
+	 */
+	public IWebWorker get(String name) {
+		Supplier<IWebWorker> supplier = resolve(name);
+		return supplier == null ? null : supplier.get();
+	}
+
+	/**
+	 * Returns the supplier of instances of the worker with the given class
+	 * name, or null if there is no such worker.
+	 * 
+	 * @param name
+	 *            fully qualified class name
+	 * @return worker supplier or null
+	 */
+	public Supplier<IWebWorker> resolve(String name) {
+		Supplier<IWebWorker> supplier = workers.get(name);
+		if (supplier != null || missing.contains(name)) {
+			return supplier;
+		}
+		supplier = workers.computeIfAbsent(name, this::load);
+		if (supplier == null && missing.add(name)) {
+			missingOrder.add(name);
+			while (missing.size() > MAX_MISSING) {
+				String oldest = missingOrder.poll();
+				if (oldest == null) {
+					break;
+				}
+				missing.remove(oldest);
+			}
+		}
+		return supplier;
+	}
+
+	/**
+	 * Gets the number of requested names which didn't denote a web worker.
+	 * 
+	 * @return number of missing names
+	 */
+	public long getMissingCount() {
+		return missingCount.get();
+	}
+
+	/**
+	 * Creates the supplier of the worker with the given name, through the
+	 * index if it's indexed or by loading its class otherwise.
+	 * 
+	 * @param name
+	 *            fully qualified class name
+	 * @return worker supplier, or null if the class can't be loaded or isn't
+	 *         a web worker
+	 */
+	private Supplier<IWebWorker> load(String name) {
+		Supplier<IWebWorker> factory = index == null ? null : index.getFactory(name);
+		if (factory != null) {
+			return supplier(name, factory::get, index.isStateful(name));
+		}
+
+		Class<? extends IWebWorker> type;
+		Constructor<? extends IWebWorker> constructor;
+		try {
+			type = classLoader.loadClass(name).asSubclass(IWebWorker.class);
+			constructor = type.getConstructor();
+		} catch (ClassNotFoundException e) {
+			reportMissing("Class " + name + " not found!");
+			return null;
+		} catch (ClassCastException | NoSuchMethodException e) {
+			reportMissing("Class " + name + " is not a web worker with a public constructor!");
+			return null;
+		}
+
+		return supplier(name, constructor::newInstance, IStatefulWebWorker.class.isAssignableFrom(type));
+	}
+
+	/**
+	 * Counts a name which doesn't denote a web worker, printing the given
+	 * message for the first one and then for every power of two.
+	 * 
+	 * @param message
+	 *            the message
+	 */
+	private void reportMissing(String message) {
+		long count = missingCount.incrementAndGet();
+		if ((count & (count - 1)) == 0) {
+			System.err.println(message + " (" + count + " missing workers requested so far)");
+		}
+	}
+
+	/**
+	 * Creates the supplier of a worker, which creates a worker for each request
+	 * if it's stateful, or supplies a single shared worker otherwise.
+	 * 
+	 * @param name
+	 *            fully qualified class name
+	 * @param factory
+	 *            creates a worker
+	 * @param stateful
+	 *            true if the worker is stateful
+	 * @return worker supplier, or null if the shared worker couldn't be
+	 *         created
+	 */
+	private Supplier<IWebWorker> supplier(String name, Callable<? extends IWebWorker> factory, boolean stateful) {
+		if (stateful) {
+			return () -> newInstance(name, factory);
+		}
+		IWebWorker instance = newInstance(name, factory);
+		if (instance == null) {
+			return null;
+		}
+		shared.add(instance);
+		return () -> instance;
+	}
+
+	/**
+	 * Destroys the shared workers created so far.
+	 */
+	public void destroy() {
+		IWebWorker worker;
+		while ((worker = shared.poll()) != null) {
+			try {
+				worker.destroy();
+			} catch (RuntimeException e) {
+				System.err.println("Couldn't destroy " + worker.getClass().getName() + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Creates and initializes a worker with the given factory.
+	 * 
+	 * @param name
+	 *            fully qualified class name
+	 * @param factory
+	 *            creates the worker
+	 * @return new worker, or null if it couldn't be created or initialized
+	 */
+	private IWebWorker newInstance(String name, Callable<? extends IWebWorker> factory) {
+		try {
+			IWebWorker worker = factory.call();
+			worker.init(properties);
+			return worker;
+		} catch (Exception e) {
+			System.err.println("Couldn't create " + name + ": " + e);
+			return null;
+		}
+	}
+}
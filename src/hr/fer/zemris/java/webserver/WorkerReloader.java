@@ -0,0 +1,300 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Loads worker classes from a workers directory, which holds class files in
+ * their package directories and jars, and reloads them when the directory
+ * changes. Each load creates a new class loader, so the classes of a changed
+ * worker are defined anew while the previous ones stay in use by the requests
+ * already running on them. Classes found in the workers directory take
+ * precedence over the server's own, except the classes of the Java platform
+ * and of the server's worker interfaces.
+ * <p>
+ * A watcher thread waits until the directory has been quiet for a moment,
+ * so a deployment copying several files causes a single reload. A class
+ * loader which the listener rejects is closed at once. An accepted one is
+ * closed with {@link #close(ClassLoader)} by its user once no request and no
+ * worker uses its classes any more, since closing it earlier would fail the
+ * classes not loaded yet.
+ *
+ * @author labramusic
+ *
+ */
+public class WorkerReloader {
+
+	/**
+	 * Milliseconds without changes after which the workers are reloaded.
+	 */
+	private final static long QUIET_PERIOD = 500;
+
+	/**
+	 * The workers directory.
+	 */
+	private Path directory;
+
+	/**
+	 * Parent of the created class loaders.
+	 */
+	private ClassLoader parent;
+
+	/**
+	 * Listener given each new class loader after a change, which returns true
+	 * if it has switched to the class loader and will close it.
+	 */
+	private Predicate<ClassLoader> listener;
+
+	/**
+	 * The watcher thread.
+	 */
+	private WatcherThread watcherThread;
+
+	/**
+	 * Initializes a WorkerReloader.
+	 *
+	 * @param directory
+	 *            the workers directory
+	 * @param parent
+	 *            parent of the created class loaders
+	 * @param listener
+	 *            listener given each new class loader after a change, which
+	 *            returns true if it has switched to the class loader
+	 */
+	public WorkerReloader(Path directory, ClassLoader parent, Predicate<ClassLoader> listener) {
+		this.directory = directory;
+		this.parent = parent;
+		this.listener = listener;
+	}
+
+	/**
+	 * Creates a class loader of the current contents of the workers
+	 * directory.
+	 *
+	 * @return the class loader
+	 */
+	public synchronized ClassLoader newClassLoader() {
+		return createClassLoader();
+	}
+
+	/**
+	 * Creates a class loader of the current contents of the workers
+	 * directory and gives it to the listener, closing it if the listener
+	 * rejects it.
+	 */
+	private void reload() {
+		URLClassLoader loader;
+		synchronized (this) {
+			loader = createClassLoader();
+		}
+		boolean accepted;
+		try {
+			accepted = listener.test(loader);
+		} catch (RuntimeException e) {
+			System.err.println("Couldn't reload the workers: " + e);
+			accepted = false;
+		}
+		if (!accepted) {
+			close(loader);
+		}
+	}
+
+	/**
+	 * Creates a class loader of the current contents of the workers
+	 * directory.
+	 *
+	 * @return the class loader
+	 */
+	private URLClassLoader createClassLoader() {
+		List<URL> urls = new ArrayList<>();
+		try {
+			urls.add(directory.toUri().toURL());
+			try (DirectoryStream<Path> jars = Files.newDirectoryStream(directory, "*.jar")) {
+				for (Path jar : jars) {
+					urls.add(jar.toUri().toURL());
+				}
+			}
+		} catch (MalformedURLException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			System.err.println("Workers directory " + directory + " cannot be read: " + e);
+		}
+		return new WorkerClassLoader(urls.toArray(new URL[urls.size()]), parent);
+	}
+
+	/**
+	 * Closes a class loader created by a WorkerReloader, releasing its jars.
+	 * Must be called only once no request and no worker uses its classes.
+	 *
+	 * @param loader
+	 *            the class loader
+	 */
+	public static void close(ClassLoader loader) {
+		if (!(loader instanceof WorkerClassLoader)) {
+			return;
+		}
+		try {
+			((WorkerClassLoader) loader).close();
+		} catch (IOException e) {
+			System.err.println("Worker class loader couldn't be closed: " + e);
+		}
+	}
+
+	/**
+	 * Starts watching the workers directory if not already watched.
+	 */
+	public synchronized void start() {
+		if (watcherThread == null || !watcherThread.isAlive()) {
+			try {
+				watcherThread = new WatcherThread();
+			} catch (IOException e) {
+				System.err.println("Workers directory " + directory + " cannot be watched: " + e);
+				return;
+			}
+			watcherThread.setDaemon(true);
+			watcherThread.start();
+		}
+	}
+
+	/**
+	 * Stops watching the workers directory.
+	 */
+	public synchronized void stop() {
+		if (watcherThread != null) {
+			watcherThread.kill();
+			watcherThread = null;
+		}
+	}
+
+	/**
+	 * Class loader which looks for classes in the workers directory before
+	 * asking its parent.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class WorkerClassLoader extends URLClassLoader {
+
+		/**
+		 * Package of the server's worker interfaces.
+		 */
+		private final static String SERVER_PACKAGE = IWebWorker.class.getPackage().getName() + ".";
+
+		static {
+			registerAsParallelCapable();
+		}
+
+		/**
+		 * Initializes a WorkerClassLoader.
+		 *
+		 * @param urls
+		 *            the workers directory and jars
+		 * @param parent
+		 *            the parent class loader
+		 */
+		private WorkerClassLoader(URL[] urls, ClassLoader parent) {
+			super(urls, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (name.startsWith("java.") || name.startsWith("javax.") || isServerClass(name)) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				Class<?> c = findLoadedClass(name);
+				if (c == null) {
+					try {
+						c = findClass(name);
+					} catch (ClassNotFoundException notInWorkers) {
+						return super.loadClass(name, resolve);
+					}
+				}
+				if (resolve) {
+					resolveClass(c);
+				}
+				return c;
+			}
+		}
+
+		/**
+		 * Checks if the given class is in the package of the server's worker
+		 * interfaces, excluding its subpackages.
+		 *
+		 * @param name
+		 *            class name
+		 * @return true if it's a server class
+		 */
+		private static boolean isServerClass(String name) {
+			return name.startsWith(SERVER_PACKAGE) && name.indexOf('.', SERVER_PACKAGE.length()) < 0;
+		}
+	}
+
+	/**
+	 * Thread which watches the workers directory and all of its
+	 * subdirectories, and reloads the workers once changes have settled.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class WatcherThread extends Thread {
+
+		/**
+		 * The watcher of the workers directory tree.
+		 */
+		private DirectoryWatcher watcher;
+
+		/**
+		 * Time of the last change not yet reloaded, or 0.
+		 */
+		private long changedAt;
+
+		/**
+		 * True if thread needs to stop.
+		 */
+		private volatile boolean dead;
+
+		/**
+		 * Initializes a WatcherThread and registers the workers directory tree.
+		 *
+		 * @throws IOException
+		 *             thrown if the watch service cannot be opened
+		 */
+		public WatcherThread() throws IOException {
+			watcher = new DirectoryWatcher(directory);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!dead) {
+					// lost events just mark the directory changed, a reload reads all of it
+					boolean changed = watcher.poll(QUIET_PERIOD / 2, path -> changedAt = System.currentTimeMillis(),
+							() -> changedAt = System.currentTimeMillis());
+					if (!changed && changedAt != 0 && System.currentTimeMillis() - changedAt >= QUIET_PERIOD) {
+						changedAt = 0;
+						reload();
+					}
+				}
+			} catch (InterruptedException | ClosedWatchServiceException ignorable) {
+			}
+		}
+
+		/**
+		 * Sets the thread as dead and closes the watcher.
+		 */
+		public void kill() {
+			dead = true;
+			watcher.close();
+		}
+	}
+}
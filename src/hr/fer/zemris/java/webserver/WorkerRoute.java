@@ -0,0 +1,206 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Target of a route to a web worker. A route either supplies a configured
+ * worker, or is a convention route whose wildcard names a worker class in a
+ * package, as <code>/ext/HelloWorker</code> names the HelloWorker of the
+ * workers package. A convention route to a class which also has a configured
+ * route resolves to the configured route, so the class's requests share its
+ * bulkhead and response cache however they are addressed.
+ * 
+ * @author labramusic
+ *
+ */
+public class WorkerRoute {
+
+	/**
+	 * The route pattern.
+	 */
+	private String pattern;
+
+	/**
+	 * Supplier of the worker, or null for a convention route.
+	 */
+	private Supplier<IWebWorker> worker;
+
+	/**
+	 * Registry resolving the workers of a convention route.
+	 */
+	private WorkerRegistry registry;
+
+	/**
+	 * Package of the workers of a convention route.
+	 */
+	private String packageName;
+
+	/**
+	 * Configured routes of a convention route by class name.
+	 */
+	private Map<String, WorkerRoute> configured;
+
+	/**
+	 * Bulkhead limiting the concurrent requests of the route, or null.
+	 */
+	private Bulkhead bulkhead;
+
+	/**
+	 * Cache of the responses of the route, or null.
+	 */
+	private ResponseCache responseCache;
+
+	/**
+	 * Initializes a route to a configured worker.
+	 * 
+	 * @param pattern
+	 *            the route pattern
+	 * @param worker
+	 *            supplier of the worker
+	 */
+	public WorkerRoute(String pattern, Supplier<IWebWorker> worker) {
+		this.pattern = pattern;
+		this.worker = worker;
+	}
+
+	/**
+	 * Initializes a convention route.
+	 * 
+	 * @param pattern
+	 *            the route pattern, ending with a wildcard
+	 * @param registry
+	 *            registry resolving the workers
+	 * @param packageName
+	 *            package of the workers
+	 */
+	public WorkerRoute(String pattern, WorkerRegistry registry, String packageName) {
+		this(pattern, registry, packageName, Collections.emptyMap());
+	}
+
+	/**
+	 * Initializes a convention route which resolves the classes of the given
+	 * configured routes to those routes.
+	 * 
+	 * @param pattern
+	 *            the route pattern, ending with a wildcard
+	 * @param registry
+	 *            registry resolving the workers
+	 * @param packageName
+	 *            package of the workers
+	 * @param configured
+	 *            configured routes by fully qualified class name
+	 */
+	public WorkerRoute(String pattern, WorkerRegistry registry, String packageName,
+			Map<String, WorkerRoute> configured) {
+		this.pattern = pattern;
+		this.registry = registry;
+		this.packageName = packageName;
+		this.configured = configured;
+	}
+
+	/**
+	 * Returns the route which serves the given match of this route. That is
+	 * the configured route of the named class for a convention route, if the
+	 * class has one, and this route otherwise.
+	 * 
+	 * @param match
+	 *            match of this route
+	 * @return the serving route
+	 */
+	public WorkerRoute resolve(Router.Match<WorkerRoute> match) {
+		if (worker != null) {
+			return this;
+		}
+		WorkerRoute route = configured.get(packageName + "." + match.getRemainder());
+		return route == null ? this : route;
+	}
+
+	/**
+	 * Returns the worker for the given match of this route, or null if a
+	 * convention route doesn't name a worker.
+	 * 
+	 * @param match
+	 *            match of this route
+	 * @return the worker or null
+	 */
+	public IWebWorker getWorker(Router.Match<WorkerRoute> match) {
+		if (worker != null) {
+			return worker.get();
+		}
+		String name = match.getRemainder();
+		return isClassName(name) ? registry.get(packageName + "." + name) : null;
+	}
+
+	/**
+	 * Checks if the given string is a simple class name.
+	 * 
+	 * @param name
+	 *            the string
+	 * @return true if it is a class name
+	 */
+	private static boolean isClassName(String name) {
+		if (name == null || name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1, n = name.length(); i < n; ++i) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the bulkhead limiting the concurrent requests of the route.
+	 * 
+	 * @return the bulkhead, or null if the route isn't limited
+	 */
+	public Bulkhead getBulkhead() {
+		return bulkhead;
+	}
+
+	/**
+	 * Sets the bulkhead limiting the concurrent requests of the route.
+	 * 
+	 * @param bulkhead
+	 *            the bulkhead, or null
+	 */
+	public void setBulkhead(Bulkhead bulkhead) {
+		this.bulkhead = bulkhead;
+	}
+
+	/**
+	 * Gets the cache of the responses of the route.
+	 * 
+	 * @return the response cache, or null if the route isn't cached
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Sets the cache of the responses of the route.
+	 * 
+	 * @param responseCache
+	 *            the response cache, or null
+	 */
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * Gets the route pattern.
+	 * 
+	 * @return the pattern
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+}
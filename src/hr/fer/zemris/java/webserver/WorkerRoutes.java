@@ -0,0 +1,270 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The routes of the server's workers, loaded from the workers configuration
+ * file, together with the registry of worker instances and the bulkheads and
+ * response caches of the routes. The routes are never changed once loaded; reloading the workers
+ * creates new routes which replace the old ones as a whole, so a request
+ * always sees one consistent set of workers. A request acquires the routes
+ * it uses and releases them when it has finished, so replaced routes destroy
+ * their workers only once the last request using them has finished.
+ * <p>
+ * Each line of the configuration file maps a route to a worker class,
+ * optionally followed by route options such as
+ * <code>maxConcurrent=2 queue=8 dedicated=true</code> or
+ * <code>cacheTtl=1000 cacheKey=name cacheSize=64</code>. The workers of the
+ * convention package are routed by class name under <code>/ext/</code>; a
+ * class with a configured route is served there through its first configured
+ * route, with that route's bulkhead and response cache.
+ *
+ * @author labramusic
+ *
+ */
+public class WorkerRoutes {
+
+	/**
+	 * Route to the workers of the convention package by class name.
+	 */
+	private final static String EXT_ROUTE = "/ext/*";
+
+	/**
+	 * Router of request paths to the workers.
+	 */
+	private Router<WorkerRoute> router = new Router<>();
+
+	/**
+	 * Registry of the workers by class name.
+	 */
+	private WorkerRegistry registry;
+
+	/**
+	 * Bulkheads of the routes which limit their concurrent requests.
+	 */
+	private List<Bulkhead> bulkheads = new ArrayList<>();
+
+	/**
+	 * Response caches of the routes.
+	 */
+	private List<ResponseCache> responseCaches = new ArrayList<>();
+
+	/**
+	 * Number of requests using the routes, or -1 once the workers have been
+	 * destroyed.
+	 */
+	private AtomicInteger users = new AtomicInteger();
+
+	/**
+	 * True once the routes have been replaced or the server has stopped.
+	 */
+	private volatile boolean retired;
+
+	/**
+	 * Action run after the workers have been destroyed, or null.
+	 */
+	private volatile Runnable destroyAction;
+
+	/**
+	 * Initializes empty WorkerRoutes.
+	 *
+	 * @param registry
+	 *            registry of the workers
+	 */
+	private WorkerRoutes(WorkerRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Loads the routes from the given configuration file.
+	 *
+	 * @param workersPath
+	 *            the workers configuration file
+	 * @param registry
+	 *            registry resolving the worker classes
+	 * @param packageName
+	 *            package of the workers routed under <code>/ext/</code>
+	 * @return the routes
+	 * @throws IOException
+	 *             thrown if the configuration file cannot be read
+	 * @throws IllegalArgumentException
+	 *             if a route is malformed or defined twice, or its worker
+	 *             can't be loaded
+	 */
+	public static WorkerRoutes load(Path workersPath, WorkerRegistry registry, String packageName)
+			throws IOException {
+		WorkerRoutes routes = new WorkerRoutes(registry);
+		Map<String, WorkerRoute> configured = new HashMap<>();
+		try (Scanner sc = new Scanner(workersPath)) {
+			while (sc.hasNextLine()) {
+				String line = sc.nextLine().trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				int separator = line.indexOf('=');
+				if (separator < 0)
+					continue;
+				String path = line.substring(0, separator).trim();
+				String[] lineArgs = line.substring(separator + 1).trim().split("\\s+");
+				String fqcn = lineArgs[0];
+				Map<String, String> options = new HashMap<>();
+				for (int i = 1; i < lineArgs.length; ++i) {
+					String[] option = lineArgs[i].split("=", 2);
+					if (option.length != 2) {
+						throw new IllegalArgumentException("Route " + path + " has a malformed option " + lineArgs[i] + "!");
+					}
+					options.put(option[0], option[1]);
+				}
+
+				Supplier<IWebWorker> iww = registry.resolve(fqcn);
+				if (iww == null) {
+					throw new IllegalArgumentException("Worker " + fqcn + " of route " + path + " couldn't be loaded!");
+				}
+				WorkerRoute route = new WorkerRoute(path, iww);
+				Bulkhead bulkhead = Bulkhead.fromOptions(path, options);
+				if (bulkhead != null) {
+					route.setBulkhead(bulkhead);
+					routes.bulkheads.add(bulkhead);
+				}
+				ResponseCache responseCache = ResponseCache.fromOptions(path, options);
+				if (responseCache != null) {
+					route.setResponseCache(responseCache);
+					routes.responseCaches.add(responseCache);
+				}
+				routes.router.add(path, route);
+				configured.putIfAbsent(fqcn, route);
+			}
+		} catch (RuntimeException e) {
+			routes.retire();
+			throw e;
+		}
+		routes.router.add(EXT_ROUTE, new WorkerRoute(EXT_ROUTE, registry, packageName, configured));
+		return routes;
+	}
+
+	/**
+	 * Gets the router of request paths to the workers.
+	 *
+	 * @return the router
+	 */
+	public Router<WorkerRoute> getRouter() {
+		return router;
+	}
+
+	/**
+	 * Gets the registry of the workers.
+	 *
+	 * @return the registry
+	 */
+	public WorkerRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Sets the action run after the routes have been retired and their
+	 * workers destroyed, such as closing the class loader of the workers.
+	 *
+	 * @param destroyAction
+	 *            the action
+	 */
+	public void setDestroyAction(Runnable destroyAction) {
+		this.destroyAction = destroyAction;
+	}
+
+	/**
+	 * Gets the bulkheads of the routes.
+	 *
+	 * @return the bulkheads
+	 */
+	public List<Bulkhead> getBulkheads() {
+		return bulkheads;
+	}
+
+	/**
+	 * Gets the response caches of the routes.
+	 *
+	 * @return the response caches
+	 */
+	public List<ResponseCache> getResponseCaches() {
+		return responseCaches;
+	}
+
+	/**
+	 * Prints the periodic reports of the bulkheads and response caches.
+	 */
+	public void tick() {
+		for (Bulkhead bulkhead : bulkheads) {
+			bulkhead.tick();
+		}
+		for (ResponseCache responseCache : responseCaches) {
+			responseCache.tick();
+		}
+	}
+
+	/**
+	 * Acquires the routes for a request, unless they have been retired, in
+	 * which case the request should use the routes which replaced them.
+	 *
+	 * @return true if the routes have been acquired and must be released
+	 */
+	public boolean acquire() {
+		while (true) {
+			int n = users.get();
+			if (n < 0) {
+				return false;
+			}
+			if (users.compareAndSet(n, n + 1)) {
+				break;
+			}
+		}
+		if (retired) {
+			release();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Releases the routes acquired for a request which has finished.
+	 */
+	public void release() {
+		if (users.decrementAndGet() == 0 && retired) {
+			destroyIfUnused();
+		}
+	}
+
+	/**
+	 * Retires the routes when they have been replaced or the server stops.
+	 * The dedicated threads of the bulkheads stop once their admitted
+	 * requests have run, and the workers are destroyed once no request uses
+	 * them.
+	 */
+	public void retire() {
+		retired = true;
+		for (Bulkhead bulkhead : bulkheads) {
+			bulkhead.shutdown();
+		}
+		destroyIfUnused();
+	}
+
+	/**
+	 * Destroys the workers if no request uses the routes, then runs the
+	 * destroy action.
+	 */
+	private void destroyIfUnused() {
+		if (users.compareAndSet(0, -1)) {
+			registry.destroy();
+			Runnable action = destroyAction;
+			if (action != null) {
+				action.run();
+			}
+		}
+	}
+}
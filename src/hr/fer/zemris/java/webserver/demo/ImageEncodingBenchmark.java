@@ -0,0 +1,115 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.IntFunction;
+
+import javax.imageio.ImageIO;
+
+import hr.fer.zemris.java.webserver.image.IndexedImage;
+import hr.fer.zemris.java.webserver.image.PngEncoder;
+import hr.fer.zemris.java.webserver.image.RenderCache;
+
+/**
+ * Measures the throughput of rendering the circle image of the circle worker,
+ * as it was done with Java2D and the ImageIO PNG writer, with an indexed
+ * image and the fast PNG encoder, and through the render cache. The colors
+ * are drawn from the 216 web-safe colors.
+ *
+ * @author labramusic
+ *
+ */
+public class ImageEncodingBenchmark {
+
+	/**
+	 * Size of the image.
+	 */
+	private final static int SIZE = 200;
+
+	/**
+	 * Main method. Optionally accepts the number of images per round.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static void main(String[] args) {
+		int images = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+
+		PngEncoder encoder = new PngEncoder();
+		RenderCache<Integer> cache = new RenderCache<>(256);
+		for (int round = 0; round < 3; ++round) {
+			run("Java2D + ImageIO", ImageEncodingBenchmark::renderImageIO, images);
+			run("IndexedImage + PngEncoder", color -> renderIndexed(encoder, color), images);
+			run("RenderCache", color -> cache.get(color, c -> renderIndexed(encoder, c)), images);
+		}
+	}
+
+	/**
+	 * Renders the given number of images and prints the throughput.
+	 *
+	 * @param name
+	 *            name of the rendering path
+	 * @param renderer
+	 *            renders the encoded image of a color
+	 * @param images
+	 *            number of images
+	 */
+	private static void run(String name, IntFunction<byte[]> renderer, int images) {
+		long bytes = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < images; ++i) {
+			int color = (i % 6) * 0x330000 + (i / 6 % 6) * 0x3300 + (i / 36 % 6) * 0x33;
+			bytes += renderer.apply(color).length;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("%-26s %9.0f images/s, %6d bytes per image%n", name, images * 1e9 / elapsed,
+				bytes / images);
+	}
+
+	/**
+	 * Renders the image as the circle worker did before the render cache.
+	 *
+	 * @param color
+	 *            color of the circle
+	 * @return the encoded image
+	 */
+	private static byte[] renderImageIO(int color) {
+		BufferedImage bim = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g2d = bim.createGraphics();
+		g2d.setColor(new Color(color));
+		g2d.fillOval(0, 0, SIZE, SIZE);
+		g2d.dispose();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			ImageIO.write(bim, "png", bos);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Renders the image with an indexed image and the fast PNG encoder.
+	 *
+	 * @param encoder
+	 *            the encoder
+	 * @param color
+	 *            color of the circle
+	 * @return the encoded image
+	 */
+	private static byte[] renderIndexed(PngEncoder encoder, int color) {
+		IndexedImage image = IndexedImage.acquire(SIZE, SIZE);
+		try {
+			image.setPalette(0x000000, color);
+			image.fillOval(0, 0, SIZE, SIZE, 1);
+			return encoder.encode(image);
+		} finally {
+			image.release();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Sends a number of concurrent GET requests to a running
+ * {@link SmartHttpServer} and prints the throughput and average latency. Used
+ * to compare server configurations, for example static files read
+ * synchronously and asynchronously after dropping the page cache with
+ * <code>sync; echo 3 &gt; /proc/sys/vm/drop_caches</code>.
+ *
+ * @author labramusic
+ *
+ */
+public class LoadBenchmark {
+
+	/**
+	 * Main method. Expects the host, port, request path, number of requests
+	 * and number of concurrent clients.
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting for the clients
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 5) {
+			System.err.println("Expected host, port, path, number of requests and number of clients.");
+			return;
+		}
+		String host = args[0];
+		int port = Integer.parseInt(args[1]);
+		String path = args[2];
+		int requests = Integer.parseInt(args[3]);
+		int clients = Integer.parseInt(args[4]);
+
+		byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n")
+				.getBytes(StandardCharsets.ISO_8859_1);
+		AtomicInteger remaining = new AtomicInteger(requests);
+		AtomicInteger failed = new AtomicInteger();
+		AtomicLong bytes = new AtomicLong();
+		AtomicLong latency = new AtomicLong();
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; ++i) {
+			pool.submit(() -> {
+				byte[] buffer = new byte[8192];
+				while (remaining.getAndDecrement() > 0) {
+					long t = System.nanoTime();
+					try (Socket socket = new Socket(host, port)) {
+						OutputStream os = socket.getOutputStream();
+						os.write(request);
+						os.flush();
+						InputStream is = socket.getInputStream();
+						int r;
+						while ((r = is.read(buffer)) >= 0) {
+							bytes.addAndGet(r);
+						}
+					} catch (IOException e) {
+						failed.incrementAndGet();
+					}
+					latency.addAndGet(System.nanoTime() - t);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.HOURS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d requests (%d failed) with %d clients in %.2f s%n", requests, failed.get(), clients,
+				seconds);
+		System.out.printf("Throughput: %.1f requests/s, %.2f MB/s%n", requests / seconds,
+				bytes.get() / seconds / (1024 * 1024));
+		System.out.printf("Average latency: %.3f ms%n", latency.get() / 1e6 / requests);
+	}
+
+}
@@ -0,0 +1,72 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import hr.fer.zemris.java.webserver.session.ConcurrentSessionStore;
+import hr.fer.zemris.java.webserver.session.OffHeapSessionStore;
+import hr.fer.zemris.java.webserver.session.SessionMapEntry;
+import hr.fer.zemris.java.webserver.session.SessionStore;
+import hr.fer.zemris.java.webserver.session.SidGenerator;
+
+/**
+ * Compares the heap footprint and the collection pause of a large number of
+ * sessions kept in a {@link ConcurrentSessionStore} and in an
+ * {@link OffHeapSessionStore}. Each session gets the same small parameters the
+ * demo scripts use.
+ *
+ * @author labramusic
+ *
+ */
+public class OffHeapSessionBenchmark {
+
+	/**
+	 * Main method. Optionally accepts the number of sessions.
+	 *
+	 * @param args
+	 *            command line arguments
+	 */
+	public static void main(String[] args) {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+		run("ConcurrentSessionStore", new ConcurrentSessionStore(600, 16), sessions);
+		run("OffHeapSessionStore", new OffHeapSessionStore(600, sessions, 128), sessions);
+	}
+
+	/**
+	 * Fills the given store and prints the heap it uses and the duration of a
+	 * full collection.
+	 *
+	 * @param name
+	 *            name of the store
+	 * @param store
+	 *            the session store
+	 * @param sessions
+	 *            number of sessions
+	 */
+	private static void run(String name, SessionStore store, int sessions) {
+		long before = usedHeap();
+		long t = System.nanoTime();
+		for (int i = 0; i < sessions; ++i) {
+			SessionMapEntry entry = store.getOrCreate(null, SidGenerator::generate);
+			entry.getMap().put("brojPoziva", Integer.toString(i % 100));
+			entry.getMap().put("bgcolor", "7F7F7F");
+		}
+		double fill = (System.nanoTime() - t) / 1e9;
+
+		t = System.nanoTime();
+		long after = usedHeap();
+		double gc = (System.nanoTime() - t) / 1e6;
+		System.out.printf("%-24s %,d sessions: %,d bytes of heap (%.0f bytes per session), filled in %.1f s, "
+				+ "full GC %.0f ms%n", name, store.size(), after - before, (after - before) / (double) sessions,
+				fill, gc);
+	}
+
+	/**
+	 * Collects garbage and returns the used heap in bytes.
+	 *
+	 * @return used heap in bytes
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,80 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import hr.fer.zemris.java.webserver.session.ConcurrentSessionStore;
+import hr.fer.zemris.java.webserver.session.SessionMapEntry;
+import hr.fer.zemris.java.webserver.session.SessionPersistence;
+import hr.fer.zemris.java.webserver.session.SessionStore;
+import hr.fer.zemris.java.webserver.session.SidGenerator;
+
+/**
+ * Measures how long restoring persisted sessions takes. A number of sessions
+ * with a counter parameter is created and snapshotted, then a tenth of them is
+ * changed so the journal has to be replayed as well, and finally the sessions
+ * are restored into a new store.
+ *
+ * @author labramusic
+ *
+ */
+public class SessionPersistenceBenchmark {
+
+	/**
+	 * Main method. Optionally accepts the number of sessions and the
+	 * persistence directory.
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @throws IOException
+	 *             thrown if the sessions cannot be saved or restored
+	 */
+	public static void main(String[] args) throws IOException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		Path directory = args.length > 1 ? Paths.get(args[1]) : Files.createTempDirectory("sessions");
+
+		SessionStore store = new ConcurrentSessionStore(600, 1);
+		SessionPersistence persistence = new SessionPersistence(directory, store, Integer.MAX_VALUE);
+		persistence.load();
+		String[] sids = new String[count];
+		long start = System.nanoTime();
+		for (int i = 0; i < count; ++i) {
+			SessionMapEntry entry = store.getOrCreate(null, SidGenerator::generate);
+			entry.getMap().put("brojPoziva", Integer.toString(i));
+			sids[i] = entry.getSid();
+		}
+		System.out.printf("Created and journaled %d sessions in %d ms%n", count, millis(start));
+
+		start = System.nanoTime();
+		persistence.snapshot();
+		System.out.printf("Snapshot written in %d ms%n", millis(start));
+
+		start = System.nanoTime();
+		for (int i = 0; i < count; i += 10) {
+			store.touch(sids[i]).getMap().put("brojPoziva", "changed");
+		}
+		System.out.printf("Journaled %d changes in %d ms%n", count / 10, millis(start));
+		// simulate a crash, leaving the journal to be replayed
+		store.setListener(null);
+
+		start = System.nanoTime();
+		SessionStore restoredStore = new ConcurrentSessionStore(600, 1);
+		int restored = new SessionPersistence(directory, restoredStore, Integer.MAX_VALUE).load();
+		System.out.printf("Restored %d sessions in %d ms%n", restored, millis(start));
+		System.out.println("Sessions saved in " + directory);
+	}
+
+	/**
+	 * Returns the milliseconds elapsed since the given time.
+	 *
+	 * @param start
+	 *            start time in nanoseconds
+	 * @return elapsed milliseconds
+	 */
+	private static long millis(long start) {
+		return (System.nanoTime() - start) / 1_000_000;
+	}
+
+}
@@ -0,0 +1,186 @@
+package hr.fer.zemris.java.webserver.demo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import hr.fer.zemris.java.webserver.session.ConcurrentSessionStore;
+import hr.fer.zemris.java.webserver.session.SessionListener;
+import hr.fer.zemris.java.webserver.session.SessionMapEntry;
+import hr.fer.zemris.java.webserver.session.SessionStore;
+
+/**
+ * Measures the throughput of session stores under contention. Each thread
+ * repeatedly looks up or creates sessions from a shared pool of SIDs and
+ * writes a persistent parameter, like the server does for every request. A
+ * store guarded by a single lock is measured for comparison.
+ *
+ * @author labramusic
+ *
+ */
+public class SessionStoreBenchmark {
+
+	/**
+	 * Main method. Optionally accepts the number of threads, operations per
+	 * thread and distinct sessions.
+	 *
+	 * @param args
+	 *            command line arguments
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting for the threads
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+		int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+		for (int round = 0; round < 3; ++round) {
+			run("synchronized HashMap", new LockedSessionStore(600), threads, operations, sessions);
+			run("ConcurrentSessionStore", new ConcurrentSessionStore(600, threads), threads, operations, sessions);
+		}
+	}
+
+	/**
+	 * Runs the benchmark on the given store and prints the throughput.
+	 *
+	 * @param name
+	 *            name of the store
+	 * @param store
+	 *            the session store
+	 * @param threads
+	 *            number of threads
+	 * @param operations
+	 *            operations per thread
+	 * @param sessions
+	 *            number of distinct sessions
+	 * @throws InterruptedException
+	 *             thrown if interrupted while waiting for the threads
+	 */
+	private static void run(String name, SessionStore store, int threads, int operations, int sessions)
+			throws InterruptedException {
+		String[] sids = new String[sessions];
+		for (int i = 0; i < sessions; ++i) {
+			String sid = "SID" + i;
+			sids[i] = store.getOrCreate(null, () -> sid).getSid();
+		}
+
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(threads);
+		AtomicLong created = new AtomicLong();
+		for (int t = 0; t < threads; ++t) {
+			Thread thread = new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				Supplier<String> generator = () -> "NEW" + rnd.nextLong();
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < operations; ++i) {
+					// one in a hundred requests comes without a valid cookie
+					String sid = rnd.nextInt(100) == 0 ? null : sids[rnd.nextInt(sids.length)];
+					SessionMapEntry entry = store.getOrCreate(sid, generator);
+					if (!entry.getSid().equals(sid)) {
+						created.incrementAndGet();
+					}
+					entry.getMap().put("counter", Integer.toString(i));
+				}
+				done.countDown();
+			});
+			thread.start();
+		}
+
+		long t = System.nanoTime();
+		start.countDown();
+		done.await();
+		double seconds = (System.nanoTime() - t) / 1e9;
+		System.out.printf("%-24s %d threads: %,.0f ops/s (%d sessions created)%n", name, threads,
+				threads * (double) operations / seconds, created.get());
+	}
+
+	/**
+	 * Session store guarded by a single lock, equivalent to synchronizing every
+	 * access to a shared HashMap.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class LockedSessionStore implements SessionStore {
+
+		/**
+		 * The sessions map.
+		 */
+		private Map<String, SessionMapEntry> sessions = new HashMap<>();
+
+		/**
+		 * The session timeout in seconds.
+		 */
+		private int sessionTimeout;
+
+		/**
+		 * Initializes a LockedSessionStore.
+		 *
+		 * @param sessionTimeout
+		 *            the session timeout in seconds
+		 */
+		public LockedSessionStore(int sessionTimeout) {
+			this.sessionTimeout = sessionTimeout;
+		}
+
+		@Override
+		public synchronized SessionMapEntry touch(String sid) {
+			long now = System.currentTimeMillis() / 1000;
+			SessionMapEntry entry = sessions.get(sid);
+			if (entry == null || entry.isExpired(now)) {
+				return null;
+			}
+			entry.setValidUntil(now + sessionTimeout);
+			return entry;
+		}
+
+		@Override
+		public synchronized SessionMapEntry getOrCreate(String sid, Supplier<String> sidGenerator) {
+			SessionMapEntry entry = touch(sid);
+			if (entry == null) {
+				String newSid = sidGenerator.get();
+				entry = new SessionMapEntry(newSid, System.currentTimeMillis() / 1000 + sessionTimeout);
+				sessions.put(newSid, entry);
+			}
+			return entry;
+		}
+
+		@Override
+		public synchronized void remove(String sid) {
+			sessions.remove(sid);
+		}
+
+		@Override
+		public synchronized void removeExpired() {
+			long now = System.currentTimeMillis() / 1000;
+			sessions.values().removeIf(entry -> entry.isExpired(now));
+		}
+
+		@Override
+		public synchronized void restore(SessionMapEntry entry) {
+			sessions.put(entry.getSid(), entry);
+		}
+
+		@Override
+		public synchronized void forEach(Consumer<SessionMapEntry> action) {
+			sessions.values().forEach(action);
+		}
+
+		@Override
+		public void setListener(SessionListener listener) {
+		}
+
+		@Override
+		public synchronized int size() {
+			return sessions.size();
+		}
+	}
+}
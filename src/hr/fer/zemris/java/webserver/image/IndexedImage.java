@@ -0,0 +1,243 @@
+package hr.fer.zemris.java.webserver.image;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Image whose pixels are indices into a palette of at most 256 colors, one
+ * byte per pixel. It supports the simple drawing needed by image workers and
+ * is encoded by {@link PngEncoder} without any color conversion. The pixel
+ * rasters are pooled, so rendering an image doesn't allocate a new raster
+ * once the pool is warm: an image is obtained with {@link #acquire(int, int)}
+ * and its raster returned with {@link #release()}.
+ *
+ * @author labramusic
+ *
+ */
+public class IndexedImage {
+
+	/**
+	 * Maximum number of rasters kept in the pool.
+	 */
+	private final static int MAX_POOLED_RASTERS = 64;
+
+	/**
+	 * The pooled rasters.
+	 */
+	private final static Queue<byte[]> rasters = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Image width.
+	 */
+	private int width;
+
+	/**
+	 * Image height.
+	 */
+	private int height;
+
+	/**
+	 * Palette indices of the pixels, row by row; may be longer than needed.
+	 */
+	private byte[] pixels;
+
+	/**
+	 * Colors of the palette as 0xRRGGBB.
+	 */
+	private int[] palette = new int[0];
+
+	/**
+	 * Initializes an IndexedImage.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @param pixels
+	 *            raster of at least width * height bytes
+	 */
+	private IndexedImage(int width, int height, byte[] pixels) {
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * Returns an image of the given size with a pooled raster, filled with
+	 * palette index 0.
+	 *
+	 * @param width
+	 *            image width
+	 * @param height
+	 *            image height
+	 * @return the image
+	 */
+	public static IndexedImage acquire(int width, int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Image size must be positive!");
+		}
+		int size = width * height;
+		byte[] pixels = null;
+		for (int i = 0; i < MAX_POOLED_RASTERS; ++i) {
+			byte[] pooled = rasters.poll();
+			if (pooled == null) {
+				break;
+			}
+			if (pooled.length >= size) {
+				pixels = pooled;
+				break;
+			}
+			// too small for this image, so it isn't pooled any more
+		}
+		if (pixels == null) {
+			pixels = new byte[size];
+		} else {
+			Arrays.fill(pixels, 0, size, (byte) 0);
+		}
+		return new IndexedImage(width, height, pixels);
+	}
+
+	/**
+	 * Returns the raster of this image to the pool. The image must not be used
+	 * afterwards.
+	 */
+	public void release() {
+		if (pixels != null && rasters.size() < MAX_POOLED_RASTERS) {
+			rasters.offer(pixels);
+		}
+		pixels = null;
+	}
+
+	/**
+	 * Sets the palette.
+	 *
+	 * @param colors
+	 *            colors as 0xRRGGBB, at most 256
+	 */
+	public void setPalette(int... colors) {
+		if (colors.length == 0 || colors.length > 256) {
+			throw new IllegalArgumentException("A palette has between 1 and 256 colors!");
+		}
+		palette = colors.clone();
+	}
+
+	/**
+	 * Fills the whole image with the given palette index.
+	 *
+	 * @param index
+	 *            palette index
+	 */
+	public void fill(int index) {
+		Arrays.fill(pixels, 0, width * height, (byte) index);
+	}
+
+	/**
+	 * Fills the ellipse inscribed in the given rectangle with the given palette
+	 * index. A pixel is filled if its center lies inside the ellipse, without
+	 * antialiasing.
+	 *
+	 * @param x
+	 *            left edge of the rectangle
+	 * @param y
+	 *            top edge of the rectangle
+	 * @param w
+	 *            rectangle width
+	 * @param h
+	 *            rectangle height
+	 * @param index
+	 *            palette index
+	 */
+	public void fillOval(int x, int y, int w, int h, int index) {
+		double rx = w / 2.0;
+		double ry = h / 2.0;
+		double cx = x + rx;
+		double cy = y + ry;
+		int top = Math.max(0, y);
+		int bottom = Math.min(height, y + h);
+		for (int row = top; row < bottom; ++row) {
+			double dy = (row + 0.5 - cy) / ry;
+			double remaining = 1 - dy * dy;
+			if (remaining <= 0) {
+				continue;
+			}
+			double half = rx * Math.sqrt(remaining);
+			int from = Math.max(0, (int) Math.ceil(cx - half - 0.5));
+			int to = Math.min(width - 1, (int) Math.floor(cx + half - 0.5));
+			if (from <= to) {
+				int offset = row * width;
+				Arrays.fill(pixels, offset + from, offset + to + 1, (byte) index);
+			}
+		}
+	}
+
+	/**
+	 * Gets the image width.
+	 *
+	 * @return the width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the image height.
+	 *
+	 * @return the height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Gets the palette index of the given pixel.
+	 *
+	 * @param x
+	 *            pixel column
+	 * @param y
+	 *            pixel row
+	 * @return palette index
+	 */
+	public int getIndex(int x, int y) {
+		return pixels[y * width + x] & 0xff;
+	}
+
+	/**
+	 * Gets the colors of the palette.
+	 *
+	 * @return colors as 0xRRGGBB
+	 */
+	public int[] getPalette() {
+		return palette.clone();
+	}
+
+	/**
+	 * Gets the number of colors in the palette.
+	 *
+	 * @return palette size
+	 */
+	public int getPaletteSize() {
+		return palette.length;
+	}
+
+	/**
+	 * Gets the color of the palette at the given index.
+	 *
+	 * @param index
+	 *            palette index
+	 * @return color as 0xRRGGBB
+	 */
+	public int getColor(int index) {
+		return palette[index];
+	}
+
+	/**
+	 * Gets the raster, whose first width * height bytes are the palette
+	 * indices of the pixels, row by row.
+	 *
+	 * @return the raster
+	 */
+	byte[] getPixels() {
+		return pixels;
+	}
+}
@@ -0,0 +1,238 @@
+package hr.fer.zemris.java.webserver.image;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encoder of {@link IndexedImage}s as PNG images. Unlike the general purpose
+ * ImageIO writer, it doesn't convert or analyze the pixels: the palette is
+ * written as it is, the pixels are packed into the smallest bit depth the
+ * palette allows, every row uses the None filter, which suits the flat areas
+ * of generated images, and the rows are compressed with a fast Deflater level
+ * reusing one Deflater per thread.
+ *
+ * @author labramusic
+ *
+ */
+public class PngEncoder {
+
+	/**
+	 * The PNG signature.
+	 */
+	private final static byte[] SIGNATURE = { (byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n' };
+
+	/**
+	 * Default Deflater level, fast while compressing flat images nearly as well
+	 * as the best level.
+	 */
+	public final static int DEFAULT_LEVEL = 4;
+
+	/**
+	 * Color type of palette images.
+	 */
+	private final static int COLOR_TYPE_PALETTE = 3;
+
+	/**
+	 * Deflater of each thread.
+	 */
+	private final static ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+
+	/**
+	 * Deflater level.
+	 */
+	private int level;
+
+	/**
+	 * Initializes a PngEncoder with the default Deflater level.
+	 */
+	public PngEncoder() {
+		this(DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Initializes a PngEncoder.
+	 *
+	 * @param level
+	 *            Deflater level, from 0 to 9
+	 */
+	public PngEncoder(int level) {
+		if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Deflater level must be between 0 and 9!");
+		}
+		this.level = level;
+	}
+
+	/**
+	 * Encodes the given image.
+	 *
+	 * @param image
+	 *            the image
+	 * @return bytes of the PNG image
+	 */
+	public byte[] encode(IndexedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int bitDepth = bitDepth(image.getPaletteSize());
+		int rowLength = (width * bitDepth + 7) / 8;
+		byte[] raw = packRows(image, bitDepth, rowLength);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 8 + 1024);
+		out.write(SIGNATURE, 0, SIGNATURE.length);
+
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = (byte) bitDepth;
+		header[9] = COLOR_TYPE_PALETTE;
+		// compression, filter and interlace methods are all 0
+		writeChunk(out, "IHDR", header, header.length);
+
+		int colors = image.getPaletteSize();
+		byte[] palette = new byte[colors * 3];
+		for (int i = 0; i < colors; ++i) {
+			int rgb = image.getColor(i);
+			palette[i * 3] = (byte) (rgb >> 16);
+			palette[i * 3 + 1] = (byte) (rgb >> 8);
+			palette[i * 3 + 2] = (byte) rgb;
+		}
+		writeChunk(out, "PLTE", palette, palette.length);
+
+		byte[] compressed = deflate(raw);
+		writeChunk(out, "IDAT", compressed, compressed.length);
+		writeChunk(out, "IEND", new byte[0], 0);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Packs the rows of the image, each preceded by its filter type.
+	 *
+	 * @param image
+	 *            the image
+	 * @param bitDepth
+	 *            bits per pixel
+	 * @param rowLength
+	 *            bytes of a packed row
+	 * @return the filtered image data
+	 */
+	private static byte[] packRows(IndexedImage image, int bitDepth, int rowLength) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] pixels = image.getPixels();
+		byte[] raw = new byte[(rowLength + 1) * height];
+		int pixelsPerByte = 8 / bitDepth;
+		for (int y = 0, in = 0, out = 0; y < height; ++y, in += width) {
+			// filter type None
+			raw[out++] = 0;
+			if (bitDepth == 8) {
+				System.arraycopy(pixels, in, raw, out, width);
+				out += width;
+				continue;
+			}
+			for (int x = 0; x < width; x += pixelsPerByte) {
+				int b = 0;
+				for (int i = 0; i < pixelsPerByte; ++i) {
+					b <<= bitDepth;
+					if (x + i < width) {
+						b |= pixels[in + x + i] & 0xff;
+					}
+				}
+				raw[out++] = (byte) b;
+			}
+		}
+		return raw;
+	}
+
+	/**
+	 * Compresses the image data with this thread's Deflater.
+	 *
+	 * @param raw
+	 *            the filtered image data
+	 * @return the compressed data
+	 */
+	private byte[] deflate(byte[] raw) {
+		Deflater deflater = deflaters.get();
+		if (deflater == null) {
+			deflater = new Deflater(level);
+			deflaters.set(deflater);
+		} else {
+			deflater.reset();
+		}
+		deflater.setLevel(level);
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 8 + 64);
+		byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buffer);
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Gets the smallest bit depth which can index the given number of colors.
+	 *
+	 * @param colors
+	 *            palette size
+	 * @return bits per pixel
+	 */
+	private static int bitDepth(int colors) {
+		if (colors <= 2) {
+			return 1;
+		} else if (colors <= 4) {
+			return 2;
+		} else if (colors <= 16) {
+			return 4;
+		}
+		return 8;
+	}
+
+	/**
+	 * Writes a chunk with its length and CRC.
+	 *
+	 * @param out
+	 *            the output
+	 * @param type
+	 *            chunk type
+	 * @param data
+	 *            chunk data
+	 * @param length
+	 *            length of the chunk data
+	 */
+	private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data, int length) {
+		byte[] field = new byte[4];
+		putInt(field, 0, length);
+		out.write(field, 0, 4);
+
+		byte[] typeBytes = new byte[4];
+		for (int i = 0; i < 4; ++i) {
+			typeBytes[i] = (byte) type.charAt(i);
+		}
+		out.write(typeBytes, 0, 4);
+		out.write(data, 0, length);
+
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes, 0, 4);
+		crc.update(data, 0, length);
+		putInt(field, 0, (int) crc.getValue());
+		out.write(field, 0, 4);
+	}
+
+	/**
+	 * Puts an integer in big-endian order.
+	 *
+	 * @param bytes
+	 *            the array
+	 * @param offset
+	 *            offset of the integer
+	 * @param value
+	 *            the integer
+	 */
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+}
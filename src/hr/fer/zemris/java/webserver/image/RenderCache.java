@@ -0,0 +1,121 @@
+package hr.fer.zemris.java.webserver.image;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Least recently used cache of encoded images keyed by the parameters they
+ * were rendered with, so a worker renders and encodes each distinct image
+ * only once while it stays in the cache. Rendering happens outside the lock;
+ * two requests missing the same key at once may both render it, which is
+ * harmless since rendering is deterministic for a key.
+ *
+ * @author labramusic
+ *
+ * @param <K>
+ *            type of the render parameters
+ */
+public class RenderCache<K> {
+
+	/**
+	 * Maximum number of cached images.
+	 */
+	private int maxSize;
+
+	/**
+	 * Cached images in access order.
+	 */
+	private Map<K, byte[]> images;
+
+	/**
+	 * Number of lookups which found the image.
+	 */
+	private LongAdder hits = new LongAdder();
+
+	/**
+	 * Number of lookups which rendered the image.
+	 */
+	private LongAdder misses = new LongAdder();
+
+	/**
+	 * Initializes a RenderCache.
+	 *
+	 * @param maxSize
+	 *            maximum number of cached images, 0 disables caching
+	 */
+	public RenderCache(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Cache size cannot be negative!");
+		}
+		this.maxSize = maxSize;
+		images = new LinkedHashMap<K, byte[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, byte[]> eldest) {
+				return size() > RenderCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Gets the image rendered with the given parameters, rendering and caching
+	 * it if it isn't cached. The returned bytes must not be modified.
+	 *
+	 * @param key
+	 *            the render parameters
+	 * @param renderer
+	 *            renders the encoded image for the parameters
+	 * @return the encoded image
+	 */
+	public byte[] get(K key, Function<? super K, byte[]> renderer) {
+		byte[] image;
+		synchronized (images) {
+			image = images.get(key);
+		}
+		if (image != null) {
+			hits.increment();
+			return image;
+		}
+		misses.increment();
+		image = renderer.apply(key);
+		if (maxSize > 0) {
+			synchronized (images) {
+				images.put(key, image);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Gets the number of cached images.
+	 *
+	 * @return number of cached images
+	 */
+	public int size() {
+		synchronized (images) {
+			return images.size();
+		}
+	}
+
+	/**
+	 * Gets the number of lookups which found the image.
+	 *
+	 * @return number of hits
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of lookups which rendered the image.
+	 *
+	 * @return number of misses
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+}
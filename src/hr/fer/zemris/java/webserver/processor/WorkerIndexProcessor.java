@@ -0,0 +1,278 @@
+package hr.fer.zemris.java.webserver.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+
+import hr.fer.zemris.java.webserver.IStatefulWebWorker;
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.Router;
+import hr.fer.zemris.java.webserver.WorkerIndex;
+
+/**
+ * Annotation processor which generates the {@link WorkerIndex} of the web
+ * workers being compiled and checks the workers configuration file. Every
+ * public top level class implementing {@link IWebWorker} with a public
+ * constructor without arguments is indexed, which includes the workers routed
+ * under <code>/ext/</code> by class name. A worker of the workers package which
+ * can't be indexed is reported as a warning.
+ * <p>
+ * If the <code>workers.config</code> option names the workers configuration
+ * file, each of its routes is checked, and a malformed or duplicate route, an
+ * unknown or malformed option, or a class which isn't an indexed worker fails
+ * the build. The processor doesn't need any annotations; it is compiled with
+ * the server and then run on a second compilation of the sources, e.g.
+ * 
+ * <pre>
+ * javac -encoding UTF-8 -proc:none -d build/processor $(find src -name '*.java')
+ * javac -encoding UTF-8 -processorpath build/processor \
+ *     -processor hr.fer.zemris.java.webserver.processor.WorkerIndexProcessor \
+ *     -Aworkers.config=config/workers.properties -d build/classes $(find src -name '*.java')
+ * </pre>
+ * 
+ * Only a full compilation indexes all the workers.
+ *
+ * @author labramusic
+ *
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(WorkerIndexProcessor.CONFIG_OPTION)
+public class WorkerIndexProcessor extends AbstractProcessor {
+
+	/**
+	 * Option naming the workers configuration file.
+	 */
+	public final static String CONFIG_OPTION = "workers.config";
+
+	/**
+	 * Package of the workers routed under <code>/ext/</code>.
+	 */
+	private final static String WORKERS_PACKAGE = "hr.fer.zemris.java.webserver.workers";
+
+	/**
+	 * Options a route may have.
+	 */
+	private final static Set<String> ROUTE_OPTIONS = new HashSet<>(
+			Arrays.asList("maxConcurrent", "queue", "dedicated", "cacheTtl", "cacheKey", "cacheSize"));
+
+	/**
+	 * Route options with integer values.
+	 */
+	private final static Set<String> INTEGER_OPTIONS = new HashSet<>(
+			Arrays.asList("maxConcurrent", "queue", "cacheTtl", "cacheSize"));
+
+	/**
+	 * True once the index has been generated.
+	 */
+	private boolean generated;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (generated || roundEnv.getRootElements().isEmpty()) {
+			return false;
+		}
+		generated = true;
+
+		// stateful flags of the indexed workers by class name
+		Map<String, Boolean> workers = new TreeMap<>();
+		TypeMirror workerType = typeOf(IWebWorker.class);
+		TypeMirror statefulType = typeOf(IStatefulWebWorker.class);
+		for (Element element : roundEnv.getRootElements()) {
+			if (element.getKind() != ElementKind.CLASS) {
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			if (!processingEnv.getTypeUtils().isAssignable(type.asType(), workerType)) {
+				continue;
+			}
+			String name = type.getQualifiedName().toString();
+			if (isIndexable(type)) {
+				workers.put(name, processingEnv.getTypeUtils().isAssignable(type.asType(), statefulType));
+			} else if (processingEnv.getElementUtils().getPackageOf(type).getQualifiedName()
+					.contentEquals(WORKERS_PACKAGE)) {
+				processingEnv.getMessager().printMessage(Kind.WARNING,
+						"Worker " + name + " is not public with a public constructor and can't be routed.", type);
+			}
+		}
+
+		String config = processingEnv.getOptions().get(CONFIG_OPTION);
+		if (config != null) {
+			checkConfig(Paths.get(config), workers);
+		}
+		generateIndex(workers);
+		return false;
+	}
+
+	/**
+	 * Checks if the given worker class can be instantiated by the index.
+	 *
+	 * @param type
+	 *            the worker class
+	 * @return true if it's a public concrete class with a public constructor
+	 *         without arguments
+	 */
+	private static boolean isIndexable(TypeElement type) {
+		Set<Modifier> modifiers = type.getModifiers();
+		if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the routes of the workers configuration file, reporting the
+	 * errors.
+	 *
+	 * @param config
+	 *            the workers configuration file
+	 * @param workers
+	 *            the indexed workers
+	 */
+	private void checkConfig(Path config, Map<String, Boolean> workers) {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(config);
+		} catch (IOException e) {
+			error(config + " cannot be read: " + e);
+			return;
+		}
+		Router<String> router = new Router<>();
+		for (int i = 0; i < lines.size(); ++i) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			String location = config + ":" + (i + 1) + ": ";
+			int separator = line.indexOf('=');
+			if (separator < 0) {
+				error(location + "a route must map a path to a worker class");
+				continue;
+			}
+			String path = line.substring(0, separator).trim();
+			String[] lineArgs = line.substring(separator + 1).trim().split("\\s+");
+			String fqcn = lineArgs[0];
+			if (!workers.containsKey(fqcn)) {
+				error(location + fqcn + " is not a public web worker with a public constructor");
+			}
+			for (int j = 1; j < lineArgs.length; ++j) {
+				String[] option = lineArgs[j].split("=", 2);
+				if (option.length != 2 || !ROUTE_OPTIONS.contains(option[0])) {
+					error(location + "unknown route option " + lineArgs[j]);
+				} else if (INTEGER_OPTIONS.contains(option[0]) && !option[1].matches("\\d+")) {
+					error(location + "route option " + option[0] + " must be a non-negative integer");
+				}
+			}
+			try {
+				router.add(path, fqcn);
+			} catch (IllegalArgumentException e) {
+				error(location + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Generates the worker index.
+	 *
+	 * @param workers
+	 *            the indexed workers
+	 */
+	private void generateIndex(Map<String, Boolean> workers) {
+		int dot = WorkerIndex.GENERATED_CLASS.lastIndexOf('.');
+		String packageName = WorkerIndex.GENERATED_CLASS.substring(0, dot);
+		String simpleName = WorkerIndex.GENERATED_CLASS.substring(dot + 1);
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(packageName).append(";\n\n");
+		sb.append("import java.util.Collections;\n");
+		sb.append("import java.util.HashMap;\n");
+		sb.append("import java.util.HashSet;\n");
+		sb.append("import java.util.Map;\n");
+		sb.append("import java.util.Set;\n");
+		sb.append("import java.util.function.Supplier;\n\n");
+		sb.append("import ").append(IWebWorker.class.getName()).append(";\n");
+		sb.append("import ").append(WorkerIndex.class.getName()).append(";\n\n");
+		sb.append("/**\n * Index of the web workers, generated by ").append(getClass().getSimpleName())
+				.append(".\n */\n");
+		sb.append("public final class ").append(simpleName).append(" implements WorkerIndex {\n\n");
+		sb.append("\tprivate final Map<String, Supplier<IWebWorker>> factories = new HashMap<>();\n\n");
+		sb.append("\tprivate final Set<String> stateful = new HashSet<>();\n\n");
+		sb.append("\tpublic ").append(simpleName).append("() {\n");
+		for (Map.Entry<String, Boolean> worker : workers.entrySet()) {
+			sb.append("\t\tfactories.put(\"").append(worker.getKey()).append("\", ").append(worker.getKey())
+					.append("::new);\n");
+			if (worker.getValue()) {
+				sb.append("\t\tstateful.add(\"").append(worker.getKey()).append("\");\n");
+			}
+		}
+		sb.append("\t}\n\n");
+		sb.append("\t@Override\n");
+		sb.append("\tpublic Supplier<IWebWorker> getFactory(String className) {\n");
+		sb.append("\t\treturn factories.get(className);\n\t}\n\n");
+		sb.append("\t@Override\n");
+		sb.append("\tpublic boolean isStateful(String className) {\n");
+		sb.append("\t\treturn stateful.contains(className);\n\t}\n\n");
+		sb.append("\t@Override\n");
+		sb.append("\tpublic Set<String> getClassNames() {\n");
+		sb.append("\t\treturn Collections.unmodifiableSet(factories.keySet());\n\t}\n");
+		sb.append("}\n");
+
+		try (Writer writer = processingEnv.getFiler().createSourceFile(WorkerIndex.GENERATED_CLASS).openWriter()) {
+			writer.write(sb.toString());
+		} catch (IOException e) {
+			error("Worker index couldn't be generated: " + e);
+		}
+	}
+
+	/**
+	 * Gets the erased type of the given class.
+	 *
+	 * @param type
+	 *            the class
+	 * @return its type mirror
+	 */
+	private TypeMirror typeOf(Class<?> type) {
+		return processingEnv.getTypeUtils()
+				.erasure(processingEnv.getElementUtils().getTypeElement(type.getCanonicalName()).asType());
+	}
+
+	/**
+	 * Reports an error, which fails the build.
+	 *
+	 * @param message
+	 *            the message
+	 */
+	private void error(String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message);
+	}
+}
@@ -0,0 +1,291 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Session store backed by a {@link ConcurrentHashMap}. Lookups are lock-free
+ * and each update locks only the bin of the affected session, so worker
+ * threads touching different sessions don't contend, and expired sessions can
+ * be removed while the map is in use. Expiry is driven by an
+ * {@link ExpiryWheel}, so each call of {@link #removeExpired()} checks only the
+ * sessions due since the previous call.
+ * <p>
+ * The approximate memory used by the sessions is tracked by a
+ * {@link SessionMemory}. When it exceeds its budget, the least recently used
+ * sessions are evicted, found through the same wheel, until the memory falls
+ * below the low-water mark. Like expired sessions, evicted sessions aren't
+ * reported to the listener.
+ * 
+ * @author labramusic
+ *
+ */
+public class ConcurrentSessionStore implements SessionStore {
+
+	/**
+	 * The sessions map.
+	 */
+	private ConcurrentMap<String, SessionMapEntry> sessions;
+
+	/**
+	 * The session timeout in seconds.
+	 */
+	private int sessionTimeout;
+
+	/**
+	 * Listener notified of session changes, or null.
+	 */
+	private volatile SessionListener listener;
+
+	/**
+	 * The wheel scheduling expiry checks.
+	 */
+	private ExpiryWheel wheel;
+
+	/**
+	 * Accounting of the memory used by the sessions.
+	 */
+	private SessionMemory memory;
+
+	/**
+	 * Lock held by the thread evicting sessions.
+	 */
+	private Lock evictionLock = new ReentrantLock();
+
+	/**
+	 * Number of expired sessions.
+	 */
+	private AtomicLong expiredCount = new AtomicLong();
+
+	/**
+	 * Sum of the expiry lags of all expired sessions in seconds.
+	 */
+	private AtomicLong expiryLagSum = new AtomicLong();
+
+	/**
+	 * The largest expiry lag in seconds.
+	 */
+	private volatile long maxExpiryLag;
+
+	/**
+	 * Initializes a ConcurrentSessionStore.
+	 * 
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @param concurrencyLevel
+	 *            estimated number of concurrently updating threads
+	 */
+	public ConcurrentSessionStore(int sessionTimeout, int concurrencyLevel) {
+		this(sessionTimeout, concurrencyLevel, new SessionMemory(0, 0));
+	}
+
+	/**
+	 * Initializes a ConcurrentSessionStore whose sessions are limited by the
+	 * given memory accounting.
+	 * 
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @param concurrencyLevel
+	 *            estimated number of concurrently updating threads
+	 * @param memory
+	 *            accounting of the memory used by the sessions
+	 */
+	public ConcurrentSessionStore(int sessionTimeout, int concurrencyLevel, SessionMemory memory) {
+		this.sessionTimeout = sessionTimeout;
+		this.memory = memory;
+		sessions = new ConcurrentHashMap<>(16, 0.75f, concurrencyLevel);
+		wheel = new ExpiryWheel(sessionTimeout, now());
+		memory.setPressureHandler(this::evict);
+	}
+
+	@Override
+	public SessionMapEntry touch(String sid) {
+		if (sid == null) {
+			return null;
+		}
+		long now = now();
+		return sessions.computeIfPresent(sid, (k, entry) -> {
+			if (entry.isExpired(now)) {
+				recordExpiry(now - entry.getValidUntil());
+				entry.detach();
+				return null;
+			}
+			entry.setValidUntil(now + sessionTimeout);
+			return entry;
+		});
+	}
+
+	@Override
+	public SessionMapEntry getOrCreate(String sid, Supplier<String> sidGenerator) {
+		SessionMapEntry entry = touch(sid);
+		if (entry != null) {
+			return entry;
+		}
+		while (true) {
+			String newSid = sidGenerator.get();
+			SessionListener listener = this.listener;
+			SessionMapEntry created = new SessionMapEntry(newSid, now() + sessionTimeout, null, listener);
+			if (sessions.putIfAbsent(newSid, created) == null) {
+				memory.recordCreation();
+				created.attach(memory);
+				wheel.schedule(newSid, created.getValidUntil());
+				if (listener != null) {
+					listener.sessionCreated(created);
+				}
+				return created;
+			}
+		}
+	}
+
+	@Override
+	public void remove(String sid) {
+		SessionListener listener = this.listener;
+		SessionMapEntry removed = sessions.remove(sid);
+		if (removed == null) {
+			return;
+		}
+		removed.detach();
+		if (listener != null) {
+			listener.sessionRemoved(sid);
+		}
+	}
+
+	@Override
+	public void removeExpired() {
+		long now = now();
+		wheel.advance(now, sid -> {
+			SessionMapEntry entry = sessions.computeIfPresent(sid, (k, e) -> {
+				if (!e.isExpired(now)) {
+					return e;
+				}
+				recordExpiry(now - e.getValidUntil());
+				e.detach();
+				return null;
+			});
+			if (entry != null) {
+				// touched since it was scheduled
+				wheel.schedule(sid, entry.getValidUntil());
+			}
+		});
+		memory.tick(sessions.size());
+	}
+
+	@Override
+	public void restore(SessionMapEntry entry) {
+		entry.attach(memory);
+		SessionMapEntry replaced = sessions.put(entry.getSid(), entry);
+		if (replaced != null) {
+			replaced.detach();
+		}
+		wheel.schedule(entry.getSid(), entry.getValidUntil());
+	}
+
+	@Override
+	public void forEach(Consumer<SessionMapEntry> action) {
+		sessions.values().forEach(action);
+	}
+
+	@Override
+	public void setListener(SessionListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Evicts the least recently used sessions until the memory used by the
+	 * sessions falls below the low-water mark. If another thread is already
+	 * evicting, returns immediately.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			// the entry whose time was checked, so a replaced session isn't evicted
+			SessionMapEntry[] candidate = new SessionMapEntry[1];
+			wheel.evictEarliest(() -> !memory.isAboveLowWater(), sid -> {
+				candidate[0] = sessions.get(sid);
+				return candidate[0] == null ? -1 : candidate[0].getValidUntil();
+			}, sid -> {
+				SessionMapEntry entry = candidate[0];
+				if (sessions.remove(sid, entry)) {
+					entry.detach();
+					memory.recordEviction();
+				}
+			});
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the accounting of the memory used by the sessions.
+	 * 
+	 * @return the session memory
+	 */
+	public SessionMemory getMemory() {
+		return memory;
+	}
+
+	/**
+	 * Gets the number of sessions which have expired.
+	 * 
+	 * @return number of expired sessions
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * Gets the average time in seconds between the expiry of a session and its
+	 * removal.
+	 * 
+	 * @return the average expiry lag
+	 */
+	public double getAverageExpiryLag() {
+		long count = expiredCount.get();
+		return count == 0 ? 0 : (double) expiryLagSum.get() / count;
+	}
+
+	/**
+	 * Gets the largest time in seconds between the expiry of a session and its
+	 * removal.
+	 * 
+	 * @return the largest expiry lag
+	 */
+	public long getMaxExpiryLag() {
+		return maxExpiryLag;
+	}
+
+	/**
+	 * Records the expiry of a session with the given lag.
+	 * 
+	 * @param lag
+	 *            time in seconds since the session became invalid
+	 */
+	private void recordExpiry(long lag) {
+		expiredCount.incrementAndGet();
+		expiryLagSum.addAndGet(lag);
+		if (lag > maxExpiryLag) {
+			maxExpiryLag = lag;
+		}
+	}
+
+	/**
+	 * Returns the current time in seconds.
+	 * 
+	 * @return current time in seconds
+	 */
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+}
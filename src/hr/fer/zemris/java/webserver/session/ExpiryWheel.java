@@ -0,0 +1,139 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hashed timing wheel which schedules session expiry checks with a resolution
+ * of one second. Each slot holds the SIDs of sessions due in that second, so
+ * advancing the wheel visits only the sessions which may have expired instead
+ * of all of them. Touching a session doesn't move it in the wheel; when its
+ * slot comes due a session which is still valid is simply scheduled again for
+ * its new expiry time.
+ * 
+ * @author labramusic
+ *
+ */
+public class ExpiryWheel {
+
+	/**
+	 * The wheel slots.
+	 */
+	private Queue<String>[] slots;
+
+	/**
+	 * Mask for computing the slot of a second.
+	 */
+	private int mask;
+
+	/**
+	 * The last second whose slot has been processed.
+	 */
+	private long lastTick;
+
+	/**
+	 * Initializes an ExpiryWheel with enough slots to cover the given timeout.
+	 * 
+	 * @param timeout
+	 *            the session timeout in seconds
+	 * @param now
+	 *            current time in seconds
+	 */
+	@SuppressWarnings("unchecked")
+	public ExpiryWheel(int timeout, long now) {
+		int size = Integer.highestOneBit(Math.max(timeout, 1)) << 1;
+		slots = (Queue<String>[]) new Queue<?>[size];
+		for (int i = 0; i < size; ++i) {
+			slots[i] = new ConcurrentLinkedQueue<>();
+		}
+		mask = size - 1;
+		lastTick = now;
+	}
+
+	/**
+	 * Schedules a check of the session with the given SID for the first second
+	 * after it is valid.
+	 * 
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until the session is valid in seconds
+	 */
+	public void schedule(String sid, long validUntil) {
+		slots[(int) ((validUntil + 1) & mask)].offer(sid);
+	}
+
+	/**
+	 * Processes the slots of all seconds up to the given time. Each SID in those
+	 * slots is passed to the given action, which must either expire the session
+	 * or schedule it again. At most one full turn of the wheel is processed.
+	 * 
+	 * @param now
+	 *            current time in seconds
+	 * @param action
+	 *            action called with the SID of each due session
+	 * @return number of processed SIDs
+	 */
+	public synchronized int advance(long now, Consumer<String> action) {
+		long from = Math.max(lastTick + 1, now - mask);
+		int processed = 0;
+		for (long tick = from; tick <= now; ++tick) {
+			Queue<String> slot = slots[(int) (tick & mask)];
+			// only the SIDs present now are processed, rescheduled ones wait
+			for (int size = slot.size(); size > 0; --size) {
+				String sid = slot.poll();
+				if (sid == null) {
+					break;
+				}
+				action.accept(sid);
+				++processed;
+			}
+		}
+		lastTick = Math.max(lastTick, now);
+		return processed;
+	}
+
+	/**
+	 * Evicts sessions in the order in which they come due, starting with the
+	 * earliest, until the given condition is met or the whole wheel has been
+	 * visited. A session is due one second after its last touch plus the
+	 * timeout, so the least recently used sessions are evicted first. Sessions
+	 * touched since they were scheduled are scheduled again for their new
+	 * expiry time instead.
+	 *
+	 * @param done
+	 *            condition on which to stop
+	 * @param validUntil
+	 *            returns the time until the session with the given SID is
+	 *            valid, or a negative number if it no longer exists
+	 * @param evict
+	 *            evicts the session with the given SID
+	 */
+	public synchronized void evictEarliest(BooleanSupplier done, ToLongFunction<String> validUntil,
+			Consumer<String> evict) {
+		for (long tick = lastTick + 1; tick <= lastTick + mask + 1; ++tick) {
+			Queue<String> slot = slots[(int) (tick & mask)];
+			for (int size = slot.size(); size > 0; --size) {
+				if (done.getAsBoolean()) {
+					return;
+				}
+				String sid = slot.poll();
+				if (sid == null) {
+					break;
+				}
+				long until = validUntil.applyAsLong(sid);
+				if (until < 0) {
+					continue;
+				}
+				if (until + 1 <= tick) {
+					evict.accept(sid);
+				} else {
+					schedule(sid, until);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,979 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import hr.fer.zemris.java.webserver.ParameterValues;
+
+/**
+ * Session store which keeps all session data outside of the Java heap, so
+ * millions of sessions add neither heap footprint nor garbage collection work.
+ * Each session occupies a fixed size slot of a direct memory slab holding its
+ * SID, time until valid and serialized parameters, and sessions are found
+ * through an open addressing index which is also kept in direct memory.
+ * <p>
+ * The entries returned by the store are short-lived views of a slot. Their
+ * parameter maps read and write the slot directly, so a session's parameters
+ * must fit into the slot; setting a parameter which doesn't fit throws an
+ * {@link IllegalStateException}. Expired sessions are found by sweeping the
+ * slab a part at a time under the slot locks, and the index is locked only
+ * while the expired slots are freed.
+ * <p>
+ * The sessions are accounted by a {@link SessionMemory} by the size of their
+ * serialized parameters. When the memory exceeds its budget, or a new session
+ * doesn't fit because all slots are taken, the least recently used of a small
+ * sample of sessions is evicted, so the store approximates the eviction order
+ * of {@link ConcurrentSessionStore} without keeping one of its own.
+ *
+ * @author labramusic
+ *
+ */
+public class OffHeapSessionStore implements SessionStore {
+
+	/**
+	 * Offset of the SID length in a slot, zero if the slot is free.
+	 */
+	private final static int SID_LENGTH = 0;
+
+	/**
+	 * Offset of the slot generation, incremented each time the slot is freed.
+	 */
+	private final static int GENERATION = 4;
+
+	/**
+	 * Offset of the time until valid.
+	 */
+	private final static int VALID_UNTIL = 8;
+
+	/**
+	 * Offset of the length of the serialized parameters.
+	 */
+	private final static int DATA_LENGTH = 16;
+
+	/**
+	 * Offset of the next free slot while the slot is free.
+	 */
+	private final static int NEXT_FREE = 20;
+
+	/**
+	 * Offset of the SID bytes.
+	 */
+	private final static int SID = 24;
+
+	/**
+	 * Maximum length of a SID in bytes.
+	 */
+	private final static int MAX_SID_LENGTH = 40;
+
+	/**
+	 * Offset of the serialized parameters.
+	 */
+	private final static int DATA = SID + MAX_SID_LENGTH;
+
+	/**
+	 * Index value of an empty bucket.
+	 */
+	private final static int EMPTY = 0;
+
+	/**
+	 * Index value of a bucket whose session was removed.
+	 */
+	private final static int DELETED = -1;
+
+	/**
+	 * Number of locks guarding the slots.
+	 */
+	private final static int STRIPES = 64;
+
+	/**
+	 * Number of sessions compared when choosing a session to evict.
+	 */
+	private final static int EVICTION_SAMPLE = 16;
+
+	/**
+	 * The session timeout in seconds.
+	 */
+	private int sessionTimeout;
+
+	/**
+	 * Size of a slot in bytes.
+	 */
+	private int slotSize;
+
+	/**
+	 * Maximum number of sessions.
+	 */
+	private int capacity;
+
+	/**
+	 * The slab holding the slots.
+	 */
+	private ByteBuffer slab;
+
+	/**
+	 * The index mapping SID hashes to slot numbers plus one.
+	 */
+	private IntBuffer index;
+
+	/**
+	 * Mask for computing index buckets.
+	 */
+	private int mask;
+
+	/**
+	 * Number of deleted buckets in the index.
+	 */
+	private int deleted;
+
+	/**
+	 * First free slot, or -1 if the slab is full.
+	 */
+	private int firstFree;
+
+	/**
+	 * Lock guarding the index and the free list.
+	 */
+	private ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Locks guarding the slot contents.
+	 */
+	private Object[] stripes = new Object[STRIPES];
+
+	/**
+	 * Number of stored sessions.
+	 */
+	private AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Next slot checked for expiry.
+	 */
+	private int sweepCursor;
+
+	/**
+	 * Next slot sampled for eviction. Guarded by the index write lock.
+	 */
+	private int evictionCursor;
+
+	/**
+	 * Accounting of the memory used by the sessions.
+	 */
+	private SessionMemory memory;
+
+	/**
+	 * Lock held by the thread evicting sessions to stay within the budget.
+	 */
+	private Lock evictionLock = new ReentrantLock();
+
+	/**
+	 * Listener notified of session changes, or null.
+	 */
+	private volatile SessionListener listener;
+
+	/**
+	 * Initializes an OffHeapSessionStore.
+	 *
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @param capacity
+	 *            maximum number of sessions
+	 * @param slotSize
+	 *            size of a session slot in bytes, which limits the size of the
+	 *            session's parameters
+	 */
+	public OffHeapSessionStore(int sessionTimeout, int capacity, int slotSize) {
+		this(sessionTimeout, capacity, slotSize, new SessionMemory(0, 0));
+	}
+
+	/**
+	 * Initializes an OffHeapSessionStore whose sessions are limited by the
+	 * given memory accounting.
+	 *
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @param capacity
+	 *            maximum number of sessions
+	 * @param slotSize
+	 *            size of a session slot in bytes, which limits the size of the
+	 *            session's parameters
+	 * @param memory
+	 *            accounting of the memory used by the sessions
+	 */
+	public OffHeapSessionStore(int sessionTimeout, int capacity, int slotSize, SessionMemory memory) {
+		if (slotSize <= DATA || (long) capacity * slotSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid off-heap session store capacity or slot size!");
+		}
+		this.sessionTimeout = sessionTimeout;
+		this.capacity = capacity;
+		this.slotSize = slotSize;
+		this.memory = memory;
+		slab = ByteBuffer.allocateDirect(capacity * slotSize);
+		int buckets = Integer.highestOneBit(Math.max(capacity, 1)) << 2;
+		index = ByteBuffer.allocateDirect(buckets * 4).asIntBuffer();
+		mask = buckets - 1;
+		for (int slot = 0; slot < capacity; ++slot) {
+			slab.putInt(slot * slotSize + NEXT_FREE, slot + 1 < capacity ? slot + 1 : -1);
+		}
+		firstFree = capacity > 0 ? 0 : -1;
+		for (int i = 0; i < STRIPES; ++i) {
+			stripes[i] = new Object();
+		}
+		memory.setPressureHandler(this::evict);
+	}
+
+	@Override
+	public SessionMapEntry touch(String sid) {
+		if (sid == null) {
+			return null;
+		}
+		byte[] sidBytes = sid.getBytes(StandardCharsets.UTF_8);
+		long now = now();
+		indexLock.readLock().lock();
+		try {
+			int slot = find(sidBytes);
+			if (slot < 0) {
+				return null;
+			}
+			synchronized (stripe(slot)) {
+				int base = slot * slotSize;
+				if (slab.getLong(base + VALID_UNTIL) < now) {
+					return null;
+				}
+				slab.putLong(base + VALID_UNTIL, now + sessionTimeout);
+				return new OffHeapEntry(sid, slot, slab.getInt(base + GENERATION), listener);
+			}
+		} finally {
+			indexLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SessionMapEntry getOrCreate(String sid, Supplier<String> sidGenerator) {
+		SessionMapEntry entry = touch(sid);
+		if (entry != null) {
+			return entry;
+		}
+		while (true) {
+			SessionListener listener = this.listener;
+			SessionMapEntry created = insert(sidGenerator.get(), now() + sessionTimeout, null, listener);
+			if (created != null) {
+				memory.recordCreation();
+				if (listener != null) {
+					listener.sessionCreated(created);
+				}
+				return created;
+			}
+		}
+	}
+
+	@Override
+	public void remove(String sid) {
+		indexLock.writeLock().lock();
+		try {
+			int bucket = findBucket(sid.getBytes(StandardCharsets.UTF_8));
+			if (bucket < 0) {
+				return;
+			}
+			free(bucket);
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		SessionListener listener = this.listener;
+		if (listener != null) {
+			listener.sessionRemoved(sid);
+		}
+	}
+
+	@Override
+	public synchronized void removeExpired() {
+		// the whole slab is swept about every ten seconds
+		int batch = Math.max(capacity / 10, 1);
+		long now = now();
+		int[] expired = new int[16];
+		int count = 0;
+		for (int i = 0; i < batch; ++i) {
+			int slot = sweepCursor;
+			sweepCursor = (sweepCursor + 1) % capacity;
+			int base = slot * slotSize;
+			synchronized (stripe(slot)) {
+				if (slab.getInt(base + SID_LENGTH) == 0 || slab.getLong(base + VALID_UNTIL) >= now) {
+					continue;
+				}
+				if (count == expired.length) {
+					expired = Arrays.copyOf(expired, count * 2);
+				}
+				expired[count++] = slot;
+				expired[count++] = slab.getInt(base + GENERATION);
+			}
+		}
+		if (count > 0) {
+			indexLock.writeLock().lock();
+			try {
+				for (int i = 0; i < count; i += 2) {
+					freeIfExpired(expired[i], expired[i + 1], now);
+				}
+				if (deleted > mask / 4) {
+					rehash();
+				}
+			} finally {
+				indexLock.writeLock().unlock();
+			}
+		}
+		memory.tick(size.get());
+	}
+
+	@Override
+	public void restore(SessionMapEntry entry) {
+		indexLock.writeLock().lock();
+		try {
+			int bucket = findBucket(entry.getSid().getBytes(StandardCharsets.UTF_8));
+			if (bucket >= 0) {
+				free(bucket);
+			}
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		insert(entry.getSid(), entry.getValidUntil(), entry.getMap(), listener);
+	}
+
+	/**
+	 * Gets the accounting of the memory used by the sessions.
+	 *
+	 * @return the session memory
+	 */
+	public SessionMemory getMemory() {
+		return memory;
+	}
+
+	@Override
+	public void forEach(Consumer<SessionMapEntry> action) {
+		for (int slot = 0; slot < capacity; ++slot) {
+			OffHeapEntry entry = null;
+			synchronized (stripe(slot)) {
+				int base = slot * slotSize;
+				if (slab.getInt(base + SID_LENGTH) != 0) {
+					entry = new OffHeapEntry(new String(readSid(slot), StandardCharsets.UTF_8), slot,
+							slab.getInt(base + GENERATION), listener);
+				}
+			}
+			if (entry != null) {
+				action.accept(entry);
+			}
+		}
+	}
+
+	@Override
+	public void setListener(SessionListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Stores a new session in a free slot. If all slots are taken, the least
+	 * recently used of a sample of sessions is evicted to make room.
+	 *
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until valid
+	 * @param parameters
+	 *            initial parameters, or null
+	 * @param listener
+	 *            listener of the created entry
+	 * @return the created entry, or null if a session with the same SID exists
+	 * @throws IllegalStateException
+	 *             if the parameters don't fit into a slot or exceed the quota
+	 */
+	private SessionMapEntry insert(String sid, long validUntil, Map<String, Object> parameters,
+			SessionListener listener) {
+		byte[] sidBytes = sid.getBytes(StandardCharsets.UTF_8);
+		if (sidBytes.length == 0 || sidBytes.length > MAX_SID_LENGTH) {
+			throw new IllegalArgumentException("Invalid SID length!");
+		}
+		byte[] data = parameters == null ? new byte[0] : serialize(parameters);
+		checkDataSize(data);
+		memory.checkQuota(data.length);
+		SessionMapEntry created;
+		indexLock.writeLock().lock();
+		try {
+			if (findBucket(sidBytes) >= 0) {
+				return null;
+			}
+			if (firstFree < 0) {
+				evictSample();
+			}
+			int slot = firstFree;
+			int base = slot * slotSize;
+			synchronized (stripe(slot)) {
+				firstFree = slab.getInt(base + NEXT_FREE);
+				slab.putInt(base + SID_LENGTH, sidBytes.length);
+				slab.putLong(base + VALID_UNTIL, validUntil);
+				for (int i = 0; i < sidBytes.length; ++i) {
+					slab.put(base + SID + i, sidBytes[i]);
+				}
+				writeData(base, data);
+			}
+			int bucket = hash(sidBytes) & mask;
+			while (index.get(bucket) > 0) {
+				bucket = (bucket + 1) & mask;
+			}
+			if (index.get(bucket) == DELETED) {
+				--deleted;
+			}
+			index.put(bucket, slot + 1);
+			size.incrementAndGet();
+			created = new OffHeapEntry(sid, slot, slab.getInt(base + GENERATION), listener);
+		} finally {
+			indexLock.writeLock().unlock();
+		}
+		// outside of the lock, since the pressure handler takes it
+		memory.add(SessionMemory.SESSION_OVERHEAD + data.length);
+		return created;
+	}
+
+	/**
+	 * Evicts the least recently used sessions until the memory used by the
+	 * sessions falls below the low-water mark. The index is locked for each
+	 * eviction separately, so lookups proceed in between. If another thread is
+	 * already evicting, returns immediately.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			while (memory.isAboveLowWater()) {
+				indexLock.writeLock().lock();
+				try {
+					if (size.get() == 0) {
+						return;
+					}
+					evictSample();
+				} finally {
+					indexLock.writeLock().unlock();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Evicts the session valid for the shortest time among the next
+	 * {@link #EVICTION_SAMPLE} sessions. Must be called while holding the index
+	 * write lock, and only if the store isn't empty.
+	 */
+	private void evictSample() {
+		int victim = -1;
+		long victimValidUntil = Long.MAX_VALUE;
+		int sampled = 0;
+		for (int scanned = 0; scanned < capacity && sampled < EVICTION_SAMPLE; ++scanned) {
+			int slot = evictionCursor;
+			evictionCursor = (evictionCursor + 1) % capacity;
+			int base = slot * slotSize;
+			synchronized (stripe(slot)) {
+				if (slab.getInt(base + SID_LENGTH) == 0) {
+					continue;
+				}
+				long validUntil = slab.getLong(base + VALID_UNTIL);
+				if (validUntil < victimValidUntil) {
+					victim = slot;
+					victimValidUntil = validUntil;
+				}
+			}
+			++sampled;
+		}
+		free(findBucket(readSid(victim)));
+		memory.recordEviction();
+	}
+
+	/**
+	 * Frees the given slot if it still holds the same session, which is still
+	 * expired. Must be called while holding the index write lock.
+	 *
+	 * @param slot
+	 *            slot number
+	 * @param generation
+	 *            generation of the slot when it was found expired
+	 * @param now
+	 *            current time in seconds
+	 */
+	private void freeIfExpired(int slot, int generation, long now) {
+		int base = slot * slotSize;
+		synchronized (stripe(slot)) {
+			if (slab.getInt(base + GENERATION) != generation || slab.getInt(base + SID_LENGTH) == 0
+					|| slab.getLong(base + VALID_UNTIL) >= now) {
+				return;
+			}
+			free(findBucket(readSid(slot)));
+		}
+	}
+
+	/**
+	 * Frees the slot referenced by the given bucket and marks the bucket as
+	 * deleted. Must be called while holding the index write lock.
+	 *
+	 * @param bucket
+	 *            index bucket
+	 */
+	private void free(int bucket) {
+		int slot = index.get(bucket) - 1;
+		int base = slot * slotSize;
+		synchronized (stripe(slot)) {
+			memory.add(-(SessionMemory.SESSION_OVERHEAD + slab.getInt(base + DATA_LENGTH)));
+			slab.putInt(base + SID_LENGTH, 0);
+			slab.putInt(base + GENERATION, slab.getInt(base + GENERATION) + 1);
+			slab.putInt(base + DATA_LENGTH, 0);
+			slab.putInt(base + NEXT_FREE, firstFree);
+		}
+		firstFree = slot;
+		index.put(bucket, DELETED);
+		++deleted;
+		size.decrementAndGet();
+	}
+
+	/**
+	 * Rebuilds the index without deleted buckets. Must be called while holding
+	 * the index write lock.
+	 */
+	private void rehash() {
+		for (int bucket = 0; bucket <= mask; ++bucket) {
+			index.put(bucket, EMPTY);
+		}
+		for (int slot = 0; slot < capacity; ++slot) {
+			if (slab.getInt(slot * slotSize + SID_LENGTH) == 0) {
+				continue;
+			}
+			int bucket = hash(readSid(slot)) & mask;
+			while (index.get(bucket) != EMPTY) {
+				bucket = (bucket + 1) & mask;
+			}
+			index.put(bucket, slot + 1);
+		}
+		deleted = 0;
+	}
+
+	/**
+	 * Returns the slot of the session with the given SID, or -1 if there is no
+	 * such session. Must be called while holding the index lock.
+	 *
+	 * @param sid
+	 *            SID bytes
+	 * @return slot number
+	 */
+	private int find(byte[] sid) {
+		int bucket = findBucket(sid);
+		return bucket < 0 ? -1 : index.get(bucket) - 1;
+	}
+
+	/**
+	 * Returns the index bucket of the session with the given SID, or -1 if there
+	 * is no such session. Must be called while holding the index lock.
+	 *
+	 * @param sid
+	 *            SID bytes
+	 * @return index bucket
+	 */
+	private int findBucket(byte[] sid) {
+		int bucket = hash(sid) & mask;
+		for (int probes = 0; probes <= mask; ++probes) {
+			int value = index.get(bucket);
+			if (value == EMPTY) {
+				return -1;
+			}
+			if (value != DELETED && sidEquals(value - 1, sid)) {
+				return bucket;
+			}
+			bucket = (bucket + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if the given slot holds the given SID.
+	 *
+	 * @param slot
+	 *            slot number
+	 * @param sid
+	 *            SID bytes
+	 * @return true if the slot holds the SID
+	 */
+	private boolean sidEquals(int slot, byte[] sid) {
+		int base = slot * slotSize;
+		if (slab.getInt(base + SID_LENGTH) != sid.length) {
+			return false;
+		}
+		for (int i = 0; i < sid.length; ++i) {
+			if (slab.get(base + SID + i) != sid[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the SID bytes of the given slot.
+	 *
+	 * @param slot
+	 *            slot number
+	 * @return SID bytes
+	 */
+	private byte[] readSid(int slot) {
+		int base = slot * slotSize;
+		byte[] sid = new byte[slab.getInt(base + SID_LENGTH)];
+		for (int i = 0; i < sid.length; ++i) {
+			sid[i] = slab.get(base + SID + i);
+		}
+		return sid;
+	}
+
+	/**
+	 * Reads the parameters of the given slot. Must be called while holding the
+	 * slot's lock.
+	 *
+	 * @param base
+	 *            offset of the slot
+	 * @return the parameters
+	 */
+	private Map<String, Object> readData(int base) {
+		Map<String, Object> parameters = new LinkedHashMap<>();
+		int position = base + DATA;
+		int end = position + slab.getInt(base + DATA_LENGTH);
+		ByteBuffer view = slab.duplicate();
+		while (position < end) {
+			int nameLength = slab.getShort(position) & 0xffff;
+			String name = readString(position + 2, nameLength);
+			view.position(position + 2 + nameLength);
+			parameters.put(name, ParameterValues.decode(view));
+			position = view.position();
+		}
+		return parameters;
+	}
+
+	/**
+	 * Writes the serialized parameters into the slot at the given offset. Must
+	 * be called while holding the slot's lock.
+	 *
+	 * @param base
+	 *            offset of the slot
+	 * @param data
+	 *            serialized parameters
+	 */
+	private void writeData(int base, byte[] data) {
+		slab.putInt(base + DATA_LENGTH, data.length);
+		for (int i = 0; i < data.length; ++i) {
+			slab.put(base + DATA + i, data[i]);
+		}
+	}
+
+	/**
+	 * Reads a UTF-8 string from the slab.
+	 *
+	 * @param position
+	 *            position in the slab
+	 * @param length
+	 *            length in bytes
+	 * @return the string
+	 */
+	private String readString(int position, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i) {
+			bytes[i] = slab.get(position + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Throws an exception if the serialized parameters don't fit into a slot.
+	 *
+	 * @param data
+	 *            serialized parameters
+	 */
+	private void checkDataSize(byte[] data) {
+		if (data.length > slotSize - DATA) {
+			throw new IllegalStateException("Session parameters exceed the off-heap slot size of " + slotSize
+					+ " bytes!");
+		}
+	}
+
+	/**
+	 * Serializes the given parameters as length prefixed UTF-8 names followed
+	 * by values encoded by {@link ParameterValues}.
+	 *
+	 * @param parameters
+	 *            the parameters
+	 * @return serialized parameters
+	 */
+	private static byte[] serialize(Map<String, Object> parameters) {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		for (Map.Entry<String, Object> e : parameters.entrySet()) {
+			byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] value = ParameterValues.encode(e.getValue());
+			if (name.length > 0xffff) {
+				throw new IllegalStateException("Session parameter name is too long!");
+			}
+			if (buffer.remaining() < 2 + name.length + value.length) {
+				ByteBuffer larger = ByteBuffer.allocate((buffer.capacity() + name.length + value.length + 2) * 2);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			buffer.putShort((short) name.length).put(name);
+			buffer.put(value);
+		}
+		byte[] data = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Returns the lock of the given slot.
+	 *
+	 * @param slot
+	 *            slot number
+	 * @return the lock
+	 */
+	private Object stripe(int slot) {
+		return stripes[slot & (STRIPES - 1)];
+	}
+
+	/**
+	 * Computes the hash of the given SID bytes.
+	 *
+	 * @param sid
+	 *            SID bytes
+	 * @return the hash
+	 */
+	private static int hash(byte[] sid) {
+		int h = 0;
+		for (byte b : sid) {
+			h = 31 * h + b;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the current time in seconds.
+	 *
+	 * @return current time in seconds
+	 */
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	/**
+	 * View of a session slot. The view becomes empty once the slot is freed.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class OffHeapEntry extends SessionMapEntry {
+
+		/**
+		 * The slot number.
+		 */
+		private final int slot;
+
+		/**
+		 * Generation of the slot when the view was created.
+		 */
+		private final int generation;
+
+		/**
+		 * Initializes an OffHeapEntry.
+		 *
+		 * @param sid
+		 *            session id
+		 * @param slot
+		 *            the slot number
+		 * @param generation
+		 *            generation of the slot
+		 * @param listener
+		 *            listener notified of parameter changes, or null
+		 */
+		public OffHeapEntry(String sid, int slot, int generation, SessionListener listener) {
+			super(sid, 0, listener, OffHeapParameters::new);
+			this.slot = slot;
+			this.generation = generation;
+		}
+
+		/**
+		 * Checks if the slot still holds this session. Must be called while
+		 * holding the slot's lock.
+		 *
+		 * @return true if the slot holds this session
+		 */
+		private boolean isCurrent() {
+			int base = slot * slotSize;
+			return slab.getInt(base + GENERATION) == generation && slab.getInt(base + SID_LENGTH) != 0;
+		}
+
+		@Override
+		public long getValidUntil() {
+			synchronized (stripe(slot)) {
+				return isCurrent() ? slab.getLong(slot * slotSize + VALID_UNTIL) : Long.MIN_VALUE;
+			}
+		}
+
+		@Override
+		public void setValidUntil(long validUntil) {
+			synchronized (stripe(slot)) {
+				if (isCurrent()) {
+					slab.putLong(slot * slotSize + VALID_UNTIL, validUntil);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parameters map which reads and writes the serialized parameters of a
+	 * slot.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class OffHeapParameters extends AbstractMap<String, Object> {
+
+		/**
+		 * The session owning the parameters.
+		 */
+		private OffHeapEntry entry;
+
+		/**
+		 * Initializes OffHeapParameters.
+		 *
+		 * @param entry
+		 *            the session owning the parameters
+		 */
+		public OffHeapParameters(SessionMapEntry entry) {
+			this.entry = (OffHeapEntry) entry;
+		}
+
+		/**
+		 * Returns a copy of the current parameters.
+		 *
+		 * @return the parameters
+		 */
+		private Map<String, Object> read() {
+			synchronized (stripe(entry.slot)) {
+				return entry.isCurrent() ? readData(entry.slot * slotSize) : new LinkedHashMap<>();
+			}
+		}
+
+		@Override
+		public Object get(Object key) {
+			return read().get(key);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			ParameterValues.check(value);
+			Object old;
+			long delta;
+			synchronized (stripe(entry.slot)) {
+				if (!entry.isCurrent()) {
+					return null;
+				}
+				int base = entry.slot * slotSize;
+				Map<String, Object> parameters = readData(base);
+				old = parameters.put(key, value);
+				byte[] data = serialize(parameters);
+				checkDataSize(data);
+				delta = data.length - slab.getInt(base + DATA_LENGTH);
+				if (delta > 0) {
+					memory.checkQuota(data.length);
+				}
+				writeData(base, data);
+			}
+			memory.add(delta);
+			SessionListener listener = entry.getListener();
+			if (listener != null) {
+				listener.parameterSet(entry, key, value);
+			}
+			return old;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			Object old;
+			long delta;
+			synchronized (stripe(entry.slot)) {
+				if (!entry.isCurrent()) {
+					return null;
+				}
+				int base = entry.slot * slotSize;
+				Map<String, Object> parameters = readData(base);
+				old = parameters.remove(key);
+				if (old == null) {
+					return null;
+				}
+				byte[] data = serialize(parameters);
+				delta = data.length - slab.getInt(base + DATA_LENGTH);
+				writeData(base, data);
+			}
+			memory.add(delta);
+			SessionListener listener = entry.getListener();
+			if (listener != null) {
+				listener.parameterRemoved(entry, (String) key);
+			}
+			return old;
+		}
+
+		@Override
+		public void clear() {
+			for (String key : read().keySet()) {
+				remove(key);
+			}
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			Map<String, Object> parameters = read();
+			return new AbstractSet<Map.Entry<String, Object>>() {
+
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					Iterator<Map.Entry<String, Object>> it = parameters.entrySet().iterator();
+					return new Iterator<Map.Entry<String, Object>>() {
+
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, Object> next() {
+							Map.Entry<String, Object> e = it.next();
+							return new SimpleImmutableEntry<>(e);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return parameters.size();
+				}
+			};
+		}
+	}
+}
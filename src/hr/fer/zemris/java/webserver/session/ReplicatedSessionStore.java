@@ -0,0 +1,1271 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import hr.fer.zemris.java.custom.scripting.util.Util;
+import hr.fer.zemris.java.webserver.ParameterValues;
+
+/**
+ * Session store which replicates its sessions to the other nodes of a cluster,
+ * so that requests of a session can be served by any node. Sessions are kept
+ * and read in a local {@link ConcurrentSessionStore}; created and removed
+ * sessions, changed parameters and touches are sent to each peer over TCP by a
+ * separate thread, in batches of updates which have accumulated since the
+ * previous batch. Repeated touches of a session between two batches are sent
+ * only once.
+ * <p>
+ * A peer which cannot be reached is retried periodically while its updates
+ * wait in a bounded queue. Each time a connection to a peer is established,
+ * and whenever its queue overflows, the peer is sent the full state of all
+ * sessions instead. Sessions removed while a peer was unreachable stay on it
+ * until they expire. Updates received from peers are applied locally and
+ * reported to the listener, but not sent on, so every node must list all
+ * other nodes as its peers.
+ * <p>
+ * Updates are accepted only from the addresses of the peers, over at most two
+ * connections per peer. If a shared secret is configured, a connecting peer
+ * must also answer a random challenge with its HMAC keyed by the secret.
+ * Counts and lengths read from a peer are checked against fixed limits before
+ * anything is allocated for them.
+ *
+ * @author labramusic
+ *
+ */
+public class ReplicatedSessionStore implements SessionStore, SessionListener {
+
+	/**
+	 * Update of a created session.
+	 */
+	private final static byte CREATE = 1;
+
+	/**
+	 * Update of a touched session.
+	 */
+	private final static byte TOUCH = 2;
+
+	/**
+	 * Update of a set parameter.
+	 */
+	private final static byte SET = 3;
+
+	/**
+	 * Update of a removed parameter.
+	 */
+	private final static byte DELETE = 4;
+
+	/**
+	 * Update of a removed session.
+	 */
+	private final static byte REMOVE = 5;
+
+	/**
+	 * Full state of a session, sent when synchronizing a peer.
+	 */
+	private final static byte SYNC = 6;
+
+	/**
+	 * Milliseconds between attempts to connect to an unreachable peer.
+	 */
+	private final static int RECONNECT_DELAY = 1000;
+
+	/**
+	 * Milliseconds to wait for a connection to a peer.
+	 */
+	private final static int CONNECT_TIMEOUT = 1000;
+
+	/**
+	 * Milliseconds after which an empty batch is sent to an idle peer, so a
+	 * lost peer is noticed even when there are no updates.
+	 */
+	private final static long HEARTBEAT_INTERVAL = 1000;
+
+	/**
+	 * Milliseconds between reports of the replication lag.
+	 */
+	private final static long REPORT_INTERVAL = 60_000;
+
+	/**
+	 * Maximum number of updates in a received batch.
+	 */
+	private final static int MAX_BATCH_SIZE = 65_536;
+
+	/**
+	 * Maximum number of parameters of a received session.
+	 */
+	private final static int MAX_PARAMETERS = 65_536;
+
+	/**
+	 * Maximum length of a received parameter value in bytes.
+	 */
+	private final static int MAX_VALUE_LENGTH = 1 << 20;
+
+	/**
+	 * Maximum number of connections accepted from each peer.
+	 */
+	private final static int CONNECTIONS_PER_PEER = 2;
+
+	/**
+	 * Length of the challenge sent to a connecting peer in bytes.
+	 */
+	private final static int CHALLENGE_LENGTH = 16;
+
+	/**
+	 * Algorithm of the answer to the challenge.
+	 */
+	private final static String HANDSHAKE_ALGORITHM = "HmacSHA256";
+
+	/**
+	 * Milliseconds to wait for a peer during the handshake.
+	 */
+	private final static int HANDSHAKE_TIMEOUT = 5000;
+
+	/**
+	 * The local store holding the sessions.
+	 */
+	private ConcurrentSessionStore local;
+
+	/**
+	 * Address on which updates from peers are accepted.
+	 */
+	private InetSocketAddress address;
+
+	/**
+	 * The peers.
+	 */
+	private List<Peer> peers = new ArrayList<>();
+
+	/**
+	 * Maximum number of updates in a batch.
+	 */
+	private int batchSize;
+
+	/**
+	 * Maximum number of updates waiting for a peer.
+	 */
+	private int queueCapacity;
+
+	/**
+	 * Listener notified of session changes, or null.
+	 */
+	private volatile SessionListener listener;
+
+	/**
+	 * Thread accepting connections from peers.
+	 */
+	private AcceptorThread acceptorThread;
+
+	/**
+	 * Threads receiving updates from peers.
+	 */
+	private List<ReceiverThread> receivers = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Secret shared by the peers, or null if peers aren't authenticated.
+	 */
+	private SecretKeySpec secret;
+
+	/**
+	 * Source of the challenges.
+	 */
+	private SecureRandom random = new SecureRandom();
+
+	/**
+	 * Number of rejected connections.
+	 */
+	private AtomicLong rejectedConnections = new AtomicLong();
+
+	/**
+	 * Number of received updates which couldn't be applied.
+	 */
+	private AtomicLong failedUpdates = new AtomicLong();
+
+	/**
+	 * Initializes a ReplicatedSessionStore.
+	 *
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @param concurrencyLevel
+	 *            estimated number of threads using the store
+	 * @param address
+	 *            address on which updates from peers are accepted
+	 * @param peers
+	 *            addresses of the peers
+	 * @param batchSize
+	 *            maximum number of updates sent to a peer in one batch
+	 * @param queueCapacity
+	 *            maximum number of updates waiting for a peer before it is
+	 *            synchronized with the full state instead
+	 * @param memory
+	 *            accounting of the memory used by the local sessions
+	 * @param secret
+	 *            secret shared by the peers, or null if peers aren't
+	 *            authenticated
+	 */
+	public ReplicatedSessionStore(int sessionTimeout, int concurrencyLevel, InetSocketAddress address,
+			List<InetSocketAddress> peers, int batchSize, int queueCapacity, SessionMemory memory, String secret) {
+		if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Replication batch size must be between 1 and " + MAX_BATCH_SIZE + "!");
+		}
+		local = new ConcurrentSessionStore(sessionTimeout, concurrencyLevel, memory);
+		local.setListener(this);
+		this.address = address;
+		this.batchSize = batchSize;
+		this.queueCapacity = queueCapacity;
+		if (secret != null && !secret.isEmpty()) {
+			this.secret = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HANDSHAKE_ALGORITHM);
+		}
+		for (InetSocketAddress peer : peers) {
+			this.peers.add(new Peer(peer));
+		}
+	}
+
+	/**
+	 * Creates a ReplicatedSessionStore from the server properties.
+	 *
+	 * @param properties
+	 *            the server properties
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @return the store
+	 */
+	public static ReplicatedSessionStore fromProperties(Properties properties, int sessionTimeout) {
+		String host = properties.getProperty("server.address", "0.0.0.0").trim();
+		int port = Util.getAsInt(properties.getProperty("session.replication.port"));
+		List<InetSocketAddress> peers = new ArrayList<>();
+		for (String peer : properties.getProperty("session.replication.peers", "").split(",")) {
+			peer = peer.trim();
+			if (peer.isEmpty()) {
+				continue;
+			}
+			int colon = peer.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Invalid replication peer " + peer + "!");
+			}
+			peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+					Util.getAsInt(peer.substring(colon + 1))));
+		}
+		return new ReplicatedSessionStore(sessionTimeout,
+				Util.getAsInt(properties.getProperty("server.workerThreads"), 16), new InetSocketAddress(host, port),
+				peers, Util.getAsInt(properties.getProperty("session.replication.batch"), 256),
+				Util.getAsInt(properties.getProperty("session.replication.queue"), 10_000),
+				SessionMemory.fromProperties(properties), properties.getProperty("session.replication.secret", "").trim());
+	}
+
+	@Override
+	public SessionMapEntry touch(String sid) {
+		SessionMapEntry entry = local.touch(sid);
+		if (entry != null && !isReceiving()) {
+			for (Peer peer : peers) {
+				peer.touch(sid);
+			}
+		}
+		return entry;
+	}
+
+	@Override
+	public SessionMapEntry getOrCreate(String sid, Supplier<String> sidGenerator) {
+		SessionMapEntry entry = local.getOrCreate(sid, sidGenerator);
+		if (entry.getSid().equals(sid)) {
+			for (Peer peer : peers) {
+				peer.touch(sid);
+			}
+		}
+		return entry;
+	}
+
+	@Override
+	public void remove(String sid) {
+		local.remove(sid);
+	}
+
+	@Override
+	public void removeExpired() {
+		local.removeExpired();
+	}
+
+	@Override
+	public void restore(SessionMapEntry entry) {
+		local.restore(new SessionMapEntry(entry.getSid(), entry.getValidUntil(), entry.getMap(), this));
+	}
+
+	@Override
+	public void forEach(Consumer<SessionMapEntry> action) {
+		local.forEach(action);
+	}
+
+	@Override
+	public void setListener(SessionListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public int size() {
+		return local.size();
+	}
+
+	@Override
+	public synchronized void start() {
+		if (acceptorThread != null) {
+			return;
+		}
+		try {
+			ServerSocket serverSocket = new ServerSocket();
+			serverSocket.bind(address);
+			acceptorThread = new AcceptorThread(serverSocket);
+			acceptorThread.setDaemon(true);
+			acceptorThread.start();
+		} catch (IOException e) {
+			System.err.println("Cannot accept session updates on " + address + ": " + e);
+		}
+		for (Peer peer : peers) {
+			peer.setDaemon(true);
+			peer.start();
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (acceptorThread != null) {
+			acceptorThread.kill();
+			acceptorThread = null;
+		}
+		for (ReceiverThread receiver : receivers) {
+			receiver.kill();
+		}
+		for (Peer peer : peers) {
+			peer.kill();
+		}
+	}
+
+	@Override
+	public void sessionCreated(SessionMapEntry entry) {
+		replicate(new Update(CREATE, entry.getSid(), entry.getValidUntil(), null, null));
+		SessionListener listener = this.listener;
+		if (listener != null) {
+			listener.sessionCreated(entry);
+		}
+	}
+
+	@Override
+	public void sessionRemoved(String sid) {
+		replicate(new Update(REMOVE, sid, 0, null, null));
+		SessionListener listener = this.listener;
+		if (listener != null) {
+			listener.sessionRemoved(sid);
+		}
+	}
+
+	@Override
+	public void parameterSet(SessionMapEntry entry, String name, Object value) {
+		replicate(new Update(SET, entry.getSid(), entry.getValidUntil(), name, value));
+		SessionListener listener = this.listener;
+		if (listener != null) {
+			listener.parameterSet(entry, name, value);
+		}
+	}
+
+	@Override
+	public void parameterRemoved(SessionMapEntry entry, String name) {
+		replicate(new Update(DELETE, entry.getSid(), entry.getValidUntil(), name, null));
+		SessionListener listener = this.listener;
+		if (listener != null) {
+			listener.parameterRemoved(entry, name);
+		}
+	}
+
+	/**
+	 * Gets the accounting of the memory used by the local sessions.
+	 *
+	 * @return the session memory
+	 */
+	public SessionMemory getMemory() {
+		return local.getMemory();
+	}
+
+	/**
+	 * Returns the current replication lag in milliseconds, which is the age of
+	 * the oldest update not yet sent to a peer, or the lag of the last sent
+	 * batch if all updates have been sent.
+	 *
+	 * @return replication lag in milliseconds
+	 */
+	public long getReplicationLag() {
+		long lag = 0;
+		for (Peer peer : peers) {
+			lag = Math.max(lag, peer.getLag());
+		}
+		return lag;
+	}
+
+	/**
+	 * Returns the highest replication lag of a sent batch in milliseconds.
+	 *
+	 * @return highest replication lag in milliseconds
+	 */
+	public long getMaxReplicationLag() {
+		long lag = 0;
+		for (Peer peer : peers) {
+			lag = Math.max(lag, peer.maxLag);
+		}
+		return lag;
+	}
+
+	/**
+	 * Returns the number of updates waiting to be sent to the peers.
+	 *
+	 * @return number of pending updates
+	 */
+	public int getPendingUpdates() {
+		int pending = 0;
+		for (Peer peer : peers) {
+			pending += peer.queue.size() + peer.touched.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * Returns the number of peers currently connected.
+	 *
+	 * @return number of connected peers
+	 */
+	public int getConnectedPeers() {
+		int connected = 0;
+		for (Peer peer : peers) {
+			if (peer.out != null) {
+				++connected;
+			}
+		}
+		return connected;
+	}
+
+	/**
+	 * Returns the number of connections rejected because they didn't come from
+	 * a peer, failed the handshake or exceeded the connection limit.
+	 *
+	 * @return number of rejected connections
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections.get();
+	}
+
+	/**
+	 * Returns the number of received updates which couldn't be applied, e.g.
+	 * because a parameter exceeded the session quota or slot size.
+	 *
+	 * @return number of failed updates
+	 */
+	public long getFailedUpdates() {
+		return failedUpdates.get();
+	}
+
+	/**
+	 * Checks if the given address is an address of a peer. The peers' host
+	 * names are resolved on each call, so peers may change their addresses.
+	 *
+	 * @param address
+	 *            remote address of a connection
+	 * @return true if the address belongs to a peer
+	 */
+	private boolean isPeer(InetAddress address) {
+		for (Peer peer : peers) {
+			try {
+				for (InetAddress peerAddress : InetAddress.getAllByName(peer.address.getHostString())) {
+					if (peerAddress.equals(address)) {
+						return true;
+					}
+				}
+			} catch (UnknownHostException ignorable) {
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes a rejected connection. Rejections are counted, and only the
+	 * first and then every power of two is printed, so a flood of connections
+	 * doesn't flood the log.
+	 *
+	 * @param socket
+	 *            the connection
+	 * @param reason
+	 *            reason of the rejection
+	 */
+	private void reject(Socket socket, String reason) {
+		long count = rejectedConnections.incrementAndGet();
+		if ((count & (count - 1)) == 0) {
+			System.err.println("Rejected session replication connection from " + socket.getRemoteSocketAddress()
+					+ ": " + reason + " (" + count + " rejected so far)");
+		}
+		try {
+			socket.close();
+		} catch (IOException ignorable) {
+		}
+	}
+
+	/**
+	 * Computes the answer to the given challenge.
+	 *
+	 * @param challenge
+	 *            the challenge
+	 * @return the answer
+	 */
+	private byte[] answer(byte[] challenge) {
+		try {
+			Mac mac = Mac.getInstance(HANDSHAKE_ALGORITHM);
+			mac.init(secret);
+			return mac.doFinal(challenge);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot compute the replication handshake!", e);
+		}
+	}
+
+	/**
+	 * Reads a count from the given stream.
+	 *
+	 * @param in
+	 *            the stream
+	 * @param max
+	 *            maximum count
+	 * @return the count
+	 * @throws IOException
+	 *             thrown if the count cannot be read, is negative or exceeds
+	 *             the maximum
+	 */
+	private static int readCount(DataInputStream in, int max) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > max) {
+			throw new IOException("Invalid count " + count + "!");
+		}
+		return count;
+	}
+
+	/**
+	 * Queues the given update for all peers, unless it is being applied on
+	 * behalf of a peer.
+	 *
+	 * @param update
+	 *            the update
+	 */
+	private void replicate(Update update) {
+		if (isReceiving()) {
+			return;
+		}
+		for (Peer peer : peers) {
+			peer.offer(update);
+		}
+	}
+
+	/**
+	 * Checks if the current thread is applying updates received from a peer.
+	 *
+	 * @return true if applying received updates
+	 */
+	private static boolean isReceiving() {
+		return Thread.currentThread() instanceof ReceiverThread;
+	}
+
+	/**
+	 * Applies an update received from a peer to the local store.
+	 *
+	 * @param update
+	 *            the update
+	 */
+	private void apply(Update update) {
+		SessionMapEntry entry;
+		switch (update.type) {
+		case CREATE:
+			if (local.touch(update.sid) == null) {
+				createReceived(update.sid, update.validUntil);
+			}
+			break;
+		case TOUCH:
+			local.touch(update.sid);
+			break;
+		case SET:
+			entry = local.touch(update.sid);
+			if (entry == null) {
+				entry = createReceived(update.sid, update.validUntil);
+			}
+			entry.getMap().put(update.name, update.value);
+			break;
+		case DELETE:
+			entry = local.touch(update.sid);
+			if (entry != null) {
+				entry.getMap().remove(update.name);
+			}
+			break;
+		case REMOVE:
+			local.remove(update.sid);
+			break;
+		case SYNC:
+			entry = local.touch(update.sid);
+			if (entry == null) {
+				entry = createReceived(update.sid, update.validUntil);
+			}
+			Map<String, Object> map = entry.getMap();
+			for (String name : new ArrayList<>(map.keySet())) {
+				if (!update.parameters.containsKey(name)) {
+					map.remove(name);
+				}
+			}
+			map.putAll(update.parameters);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown session update " + update.type + "!");
+		}
+	}
+
+	/**
+	 * Stores a session created on a peer and reports it to the listener.
+	 *
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until valid
+	 * @return the created session
+	 */
+	private SessionMapEntry createReceived(String sid, long validUntil) {
+		SessionMapEntry entry = new SessionMapEntry(sid, validUntil, null, this);
+		local.restore(entry);
+		sessionCreated(entry);
+		return entry;
+	}
+
+	/**
+	 * An update of a session.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class Update {
+
+		/**
+		 * Type of the update.
+		 */
+		private final byte type;
+
+		/**
+		 * Session id.
+		 */
+		private final String sid;
+
+		/**
+		 * Time until the session is valid.
+		 */
+		private final long validUntil;
+
+		/**
+		 * Name of the parameter, or null.
+		 */
+		private final String name;
+
+		/**
+		 * Value of the parameter, or null.
+		 */
+		private final Object value;
+
+		/**
+		 * All parameters of a synchronized session, or null.
+		 */
+		private Map<String, Object> parameters;
+
+		/**
+		 * Time in milliseconds when the update was made.
+		 */
+		private final long time = System.currentTimeMillis();
+
+		/**
+		 * Initializes an Update.
+		 *
+		 * @param type
+		 *            type of the update
+		 * @param sid
+		 *            session id
+		 * @param validUntil
+		 *            time until the session is valid
+		 * @param name
+		 *            name of the parameter, or null
+		 * @param value
+		 *            value of the parameter, or null
+		 */
+		public Update(byte type, String sid, long validUntil, String name, Object value) {
+			this.type = type;
+			this.sid = sid;
+			this.validUntil = validUntil;
+			this.name = name;
+			this.value = value;
+		}
+
+		/**
+		 * Writes the update to the given stream.
+		 *
+		 * @param out
+		 *            the stream
+		 * @throws IOException
+		 *             thrown if the update cannot be written
+		 */
+		public void write(DataOutputStream out) throws IOException {
+			out.writeByte(type);
+			out.writeUTF(sid);
+			out.writeLong(validUntil);
+			if (type == SET || type == DELETE) {
+				out.writeUTF(name);
+			}
+			if (type == SET) {
+				out.write(ParameterValues.encode(value));
+			}
+			if (type == SYNC) {
+				out.writeInt(parameters.size());
+				for (Map.Entry<String, Object> e : parameters.entrySet()) {
+					out.writeUTF(e.getKey());
+					out.write(ParameterValues.encode(e.getValue()));
+				}
+			}
+		}
+
+		/**
+		 * Reads an update from the given stream.
+		 *
+		 * @param in
+		 *            the stream
+		 * @return the update
+		 * @throws IOException
+		 *             thrown if the update cannot be read
+		 */
+		public static Update read(DataInputStream in) throws IOException {
+			byte type = in.readByte();
+			if (type < CREATE || type > SYNC) {
+				// the rest of the stream can't be read any more
+				throw new IOException("Unknown session update " + type + "!");
+			}
+			String sid = in.readUTF();
+			long validUntil = in.readLong();
+			String name = type == SET || type == DELETE ? in.readUTF() : null;
+			Object value = type == SET ? ParameterValues.read(in, MAX_VALUE_LENGTH) : null;
+			Update update = new Update(type, sid, validUntil, name, value);
+			if (type == SYNC) {
+				int size = readCount(in, MAX_PARAMETERS);
+				update.parameters = new LinkedHashMap<>();
+				for (int i = 0; i < size; ++i) {
+					update.parameters.put(in.readUTF(), ParameterValues.read(in, MAX_VALUE_LENGTH));
+				}
+			}
+			return update;
+		}
+	}
+
+	/**
+	 * Thread sending updates to a peer.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class Peer extends Thread {
+
+		/**
+		 * Address of the peer.
+		 */
+		private final InetSocketAddress address;
+
+		/**
+		 * Name of the peer used in messages.
+		 */
+		private final String name;
+
+		/**
+		 * Updates waiting to be sent.
+		 */
+		private BlockingQueue<Update> queue;
+
+		/**
+		 * SIDs of the sessions touched since the last batch.
+		 */
+		private Set<String> touched = ConcurrentHashMap.newKeySet();
+
+		/**
+		 * True if the peer must be sent the full state.
+		 */
+		private volatile boolean resync = true;
+
+		/**
+		 * Connection to the peer.
+		 */
+		private Socket socket;
+
+		/**
+		 * Stream to the peer, or null if not connected.
+		 */
+		private volatile DataOutputStream out;
+
+		/**
+		 * Lag of the last sent batch in milliseconds.
+		 */
+		private volatile long lastLag;
+
+		/**
+		 * Highest lag of a sent batch in milliseconds.
+		 */
+		private volatile long maxLag;
+
+		/**
+		 * Updates sent since the last report.
+		 */
+		private long reportedUpdates;
+
+		/**
+		 * Sum of the lags of the updates sent since the last report.
+		 */
+		private long reportedLag;
+
+		/**
+		 * Time of the last batch sent to the peer.
+		 */
+		private long lastSent;
+
+		/**
+		 * Time of the last report.
+		 */
+		private long lastReport = System.currentTimeMillis();
+
+		/**
+		 * True if thread needs to stop.
+		 */
+		private volatile boolean dead;
+
+		/**
+		 * Initializes a Peer.
+		 *
+		 * @param address
+		 *            address of the peer
+		 */
+		public Peer(InetSocketAddress address) {
+			this.address = address;
+			name = address.getHostString() + ":" + address.getPort();
+			queue = new LinkedBlockingQueue<>(queueCapacity);
+		}
+
+		/**
+		 * Queues an update for the peer. If the queue is full, the queued
+		 * updates are dropped and the peer will be sent the full state.
+		 *
+		 * @param update
+		 *            the update
+		 */
+		public void offer(Update update) {
+			if (!queue.offer(update)) {
+				resync = true;
+				queue.clear();
+			}
+		}
+
+		/**
+		 * Marks the session with the given SID as touched.
+		 *
+		 * @param sid
+		 *            session id
+		 */
+		public void touch(String sid) {
+			touched.add(sid);
+		}
+
+		/**
+		 * Returns the age of the oldest waiting update, or the lag of the last
+		 * batch if there are no waiting updates.
+		 *
+		 * @return lag in milliseconds
+		 */
+		public long getLag() {
+			Update oldest = queue.peek();
+			return oldest == null ? lastLag : System.currentTimeMillis() - oldest.time;
+		}
+
+		@Override
+		public void run() {
+			while (!dead) {
+				try {
+					if (out == null) {
+						connect();
+					}
+					if (resync) {
+						resync = false;
+						queue.clear();
+						touched.clear();
+						sendState();
+					}
+					sendBatch();
+				} catch (IOException e) {
+					if (out != null) {
+						System.err.println("Lost session replication peer " + name + ": " + e.getMessage());
+					}
+					disconnect();
+					resync = true;
+					try {
+						Thread.sleep(RECONNECT_DELAY);
+					} catch (InterruptedException ignorable) {
+					}
+				} catch (InterruptedException ignorable) {
+				}
+			}
+			disconnect();
+		}
+
+		/**
+		 * Connects to the peer and answers its challenge if peers are
+		 * authenticated.
+		 *
+		 * @throws IOException
+		 *             thrown if the peer cannot be reached
+		 */
+		private void connect() throws IOException {
+			Socket socket = new Socket();
+			DataOutputStream out;
+			try {
+				socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT);
+				socket.setTcpNoDelay(true);
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				if (secret != null) {
+					socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+					byte[] challenge = new byte[CHALLENGE_LENGTH];
+					new DataInputStream(socket.getInputStream()).readFully(challenge);
+					out.write(answer(challenge));
+					out.flush();
+					socket.setSoTimeout(0);
+				}
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			this.socket = socket;
+			this.out = out;
+			System.out.println("Replicating sessions to " + name + ".");
+		}
+
+		/**
+		 * Closes the connection to the peer.
+		 */
+		private void disconnect() {
+			out = null;
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException ignorable) {
+				}
+				socket = null;
+			}
+		}
+
+		/**
+		 * Sends the full state of all sessions to the peer.
+		 *
+		 * @throws IOException
+		 *             thrown if the state cannot be sent
+		 */
+		private void sendState() throws IOException {
+			List<Update> batch = new ArrayList<>(batchSize);
+			IOException[] failure = new IOException[1];
+			local.forEach(entry -> {
+				if (failure[0] != null) {
+					return;
+				}
+				Update update = new Update(SYNC, entry.getSid(), entry.getValidUntil(), null, null);
+				update.parameters = new LinkedHashMap<>(entry.getMap());
+				batch.add(update);
+				if (batch.size() == batchSize) {
+					try {
+						send(batch, false);
+					} catch (IOException e) {
+						failure[0] = e;
+					}
+					batch.clear();
+				}
+			});
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			send(batch, false);
+		}
+
+		/**
+		 * Waits for updates and sends them to the peer in a batch.
+		 *
+		 * @throws IOException
+		 *             thrown if the batch cannot be sent
+		 * @throws InterruptedException
+		 *             thrown if interrupted while waiting for updates
+		 */
+		private void sendBatch() throws IOException, InterruptedException {
+			List<Update> batch = new ArrayList<>(batchSize);
+			Update first = queue.poll(100, TimeUnit.MILLISECONDS);
+			if (first != null) {
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+			}
+			Iterator<String> it = touched.iterator();
+			while (it.hasNext() && batch.size() < batchSize) {
+				String sid = it.next();
+				it.remove();
+				batch.add(new Update(TOUCH, sid, 0, null, null));
+			}
+			send(batch, true);
+		}
+
+		/**
+		 * Sends the given updates to the peer.
+		 *
+		 * @param batch
+		 *            the updates
+		 * @param measure
+		 *            true if the lag of the updates is recorded
+		 * @throws IOException
+		 *             thrown if the updates cannot be sent
+		 */
+		private void send(List<Update> batch, boolean measure) throws IOException {
+			long now = System.currentTimeMillis();
+			if (batch.isEmpty() && now - lastSent < HEARTBEAT_INTERVAL) {
+				report();
+				return;
+			}
+			lastSent = now;
+			DataOutputStream out = this.out;
+			out.writeInt(batch.size());
+			for (Update update : batch) {
+				update.write(out);
+			}
+			out.flush();
+			if (measure) {
+				now = System.currentTimeMillis();
+				long lag = 0;
+				for (Update update : batch) {
+					if (update.type != TOUCH) {
+						lag = Math.max(lag, now - update.time);
+						reportedLag += now - update.time;
+						++reportedUpdates;
+					}
+				}
+				lastLag = lag;
+				maxLag = Math.max(maxLag, lag);
+			}
+			report();
+		}
+
+		/**
+		 * Prints the average replication lag once per report interval if any
+		 * updates were sent.
+		 */
+		private void report() {
+			long now = System.currentTimeMillis();
+			if (now - lastReport < REPORT_INTERVAL) {
+				return;
+			}
+			if (reportedUpdates > 0) {
+				System.out.printf("Replicated %d session updates to %s, average lag %.1f ms, max %d ms.%n",
+						reportedUpdates, name, reportedLag / (double) reportedUpdates, maxLag);
+			}
+			reportedUpdates = 0;
+			reportedLag = 0;
+			lastReport = now;
+		}
+
+		/**
+		 * Sets the thread dead.
+		 */
+		public void kill() {
+			dead = true;
+			interrupt();
+		}
+	}
+
+	/**
+	 * Thread accepting connections from peers.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class AcceptorThread extends Thread {
+
+		/**
+		 * The server socket.
+		 */
+		private ServerSocket serverSocket;
+
+		/**
+		 * True if thread needs to stop.
+		 */
+		private volatile boolean dead;
+
+		/**
+		 * Initializes an AcceptorThread.
+		 *
+		 * @param serverSocket
+		 *            the server socket
+		 */
+		public AcceptorThread(ServerSocket serverSocket) {
+			this.serverSocket = serverSocket;
+		}
+
+		@Override
+		public void run() {
+			while (!dead) {
+				try {
+					Socket socket = serverSocket.accept();
+					if (!isPeer(socket.getInetAddress())) {
+						reject(socket, "not a peer");
+						continue;
+					}
+					if (receivers.size() >= CONNECTIONS_PER_PEER * peers.size()) {
+						reject(socket, "too many connections");
+						continue;
+					}
+					ReceiverThread receiver = new ReceiverThread(socket);
+					receiver.setDaemon(true);
+					receivers.add(receiver);
+					receiver.start();
+				} catch (IOException e) {
+					if (!dead) {
+						System.err.println("Couldn't accept a session replication peer: " + e);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Sets the thread dead.
+		 */
+		public void kill() {
+			dead = true;
+			try {
+				serverSocket.close();
+			} catch (IOException ignorable) {
+			}
+		}
+	}
+
+	/**
+	 * Thread applying the updates received from a peer.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class ReceiverThread extends Thread {
+
+		/**
+		 * Connection from the peer.
+		 */
+		private Socket socket;
+
+		/**
+		 * Initializes a ReceiverThread.
+		 *
+		 * @param socket
+		 *            connection from the peer
+		 */
+		public ReceiverThread(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+				if (secret != null && !authenticate(in)) {
+					reject(socket, "handshake failed");
+					return;
+				}
+				while (true) {
+					int size = readCount(in, MAX_BATCH_SIZE);
+					for (int i = 0; i < size; ++i) {
+						Update update = Update.read(in);
+						try {
+							apply(update);
+						} catch (RuntimeException e) {
+							// the update is dropped, the following ones still apply
+							long count = failedUpdates.incrementAndGet();
+							if ((count & (count - 1)) == 0) {
+								System.err.println("Session update from " + socket.getRemoteSocketAddress()
+										+ " couldn't be applied: " + e + " (" + count + " failed so far)");
+							}
+						}
+					}
+				}
+			} catch (EOFException | SocketException ignorable) {
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Session replication from " + socket.getRemoteSocketAddress() + " failed: " + e);
+			} finally {
+				receivers.remove(this);
+				kill();
+			}
+		}
+
+		/**
+		 * Sends a random challenge to the peer and checks its answer.
+		 *
+		 * @param in
+		 *            stream from the peer
+		 * @return true if the answer is correct
+		 * @throws IOException
+		 *             thrown if the challenge cannot be sent or the answer
+		 *             read
+		 */
+		private boolean authenticate(DataInputStream in) throws IOException {
+			byte[] challenge = new byte[CHALLENGE_LENGTH];
+			random.nextBytes(challenge);
+			byte[] expected = answer(challenge);
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+			OutputStream out = socket.getOutputStream();
+			out.write(challenge);
+			out.flush();
+			byte[] received = new byte[expected.length];
+			try {
+				in.readFully(received);
+			} catch (SocketTimeoutException e) {
+				return false;
+			}
+			socket.setSoTimeout(0);
+			return MessageDigest.isEqual(expected, received);
+		}
+
+		/**
+		 * Closes the connection.
+		 */
+		public void kill() {
+			try {
+				socket.close();
+			} catch (IOException ignorable) {
+			}
+		}
+	}
+}
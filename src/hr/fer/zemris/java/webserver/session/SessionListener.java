@@ -0,0 +1,50 @@
+package hr.fer.zemris.java.webserver.session;
+
+/**
+ * Listener notified of changes to the sessions of a {@link SessionStore}. The
+ * methods are called by the thread which made the change.
+ * 
+ * @author labramusic
+ *
+ */
+public interface SessionListener {
+
+	/**
+	 * Called after a new session has been created.
+	 * 
+	 * @param entry
+	 *            the created session
+	 */
+	public void sessionCreated(SessionMapEntry entry);
+
+	/**
+	 * Called after a session has been removed before it expired.
+	 * 
+	 * @param sid
+	 *            session id
+	 */
+	public void sessionRemoved(String sid);
+
+	/**
+	 * Called after a persistent parameter of a session has been set.
+	 * 
+	 * @param entry
+	 *            the session
+	 * @param name
+	 *            parameter name
+	 * @param value
+	 *            parameter value, an Integer, Double, String or byte array
+	 */
+	public void parameterSet(SessionMapEntry entry, String name, Object value);
+
+	/**
+	 * Called after a persistent parameter of a session has been removed.
+	 * 
+	 * @param entry
+	 *            the session
+	 * @param name
+	 *            parameter name
+	 */
+	public void parameterRemoved(SessionMapEntry entry, String name);
+
+}
@@ -0,0 +1,212 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * Represents a session map entry with its SID, time until valid and map for
+ * storing persistent parameters.
+ * 
+ * @author labramusic
+ *
+ */
+public class SessionMapEntry {
+
+	/**
+	 * Updater of the estimated size of the parameters.
+	 */
+	private final static AtomicLongFieldUpdater<SessionMapEntry> BYTES = AtomicLongFieldUpdater
+			.newUpdater(SessionMapEntry.class, "bytes");
+
+	/**
+	 * The session id.
+	 */
+	private final String sid;
+
+	/**
+	 * Time until valid in seconds.
+	 */
+	private volatile long validUntil;
+
+	/**
+	 * Session map.
+	 */
+	private final Map<String, Object> map;
+
+	/**
+	 * Estimated size of the parameters in bytes.
+	 */
+	private volatile long bytes;
+
+	/**
+	 * Accounting of the store holding the session, or null.
+	 */
+	private volatile SessionMemory memory;
+
+	/**
+	 * Listener notified of changes to the session map, or null.
+	 */
+	private final SessionListener listener;
+
+	/**
+	 * Initializes a SessionMapEntry with an empty session map.
+	 * 
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until valid
+	 */
+	public SessionMapEntry(String sid, long validUntil) {
+		this(sid, validUntil, (Map<String, Object>) null, null);
+	}
+
+	/**
+	 * Initializes a SessionMapEntry with the given initial parameters, whose
+	 * changes are reported to the given listener.
+	 * 
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until valid
+	 * @param initial
+	 *            initial parameters, or null
+	 * @param listener
+	 *            listener notified of changes to the session map, or null
+	 */
+	public SessionMapEntry(String sid, long validUntil, Map<String, Object> initial, SessionListener listener) {
+		this.sid = sid;
+		this.validUntil = validUntil;
+		this.listener = listener;
+		this.map = new SessionParameters(this, initial);
+	}
+
+	/**
+	 * Initializes a SessionMapEntry whose session map is created by the given
+	 * factory, for stores which keep the parameters elsewhere.
+	 * 
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until valid
+	 * @param listener
+	 *            listener notified of changes to the session map, or null
+	 * @param mapFactory
+	 *            creates the session map of this entry
+	 */
+	protected SessionMapEntry(String sid, long validUntil, SessionListener listener,
+			Function<SessionMapEntry, Map<String, Object>> mapFactory) {
+		this.sid = sid;
+		this.validUntil = validUntil;
+		this.listener = listener;
+		this.map = mapFactory.apply(this);
+	}
+
+	/**
+	 * Gets the session id.
+	 *
+	 * @return the session id
+	 */
+	public String getSid() {
+		return sid;
+	}
+
+	/**
+	 * Gets the time until valid in seconds.
+	 *
+	 * @return the time until valid
+	 */
+	public long getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * Sets the time until valid in seconds.
+	 *
+	 * @param validUntil
+	 *            the new time until valid
+	 */
+	public void setValidUntil(long validUntil) {
+		this.validUntil = validUntil;
+	}
+
+	/**
+	 * Checks if the session has expired at the given time.
+	 *
+	 * @param now
+	 *            current time in seconds
+	 * @return true if the session has expired
+	 */
+	public boolean isExpired(long now) {
+		return getValidUntil() < now;
+	}
+
+	/**
+	 * Gets the listener notified of changes to the session map.
+	 *
+	 * @return the listener, or null
+	 */
+	public SessionListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Gets the session map.
+	 *
+	 * @return the session map
+	 */
+	public Map<String, Object> getMap() {
+		return map;
+	}
+
+	/**
+	 * Gets the estimated size of the session's parameters in bytes.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Changes the estimated size of the parameters and charges the change to
+	 * the store holding the session.
+	 *
+	 * @param delta
+	 *            change in bytes
+	 * @throws IllegalStateException
+	 *             if the session would exceed its quota
+	 */
+	void addBytes(long delta) {
+		SessionMemory memory = this.memory;
+		if (memory != null && delta > 0) {
+			memory.checkQuota(bytes + delta);
+		}
+		BYTES.addAndGet(this, delta);
+		if (memory != null) {
+			memory.add(delta);
+		}
+	}
+
+	/**
+	 * Charges the session to the given store accounting.
+	 *
+	 * @param memory
+	 *            the accounting
+	 */
+	void attach(SessionMemory memory) {
+		this.memory = memory;
+		memory.add(SessionMemory.SESSION_OVERHEAD + bytes);
+	}
+
+	/**
+	 * Releases the session from the accounting it is charged to.
+	 */
+	void detach() {
+		SessionMemory memory = this.memory;
+		if (memory != null) {
+			this.memory = null;
+			memory.add(-(SessionMemory.SESSION_OVERHEAD + bytes));
+		}
+	}
+}
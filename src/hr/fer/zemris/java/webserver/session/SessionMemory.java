@@ -0,0 +1,341 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.custom.scripting.util.Util;
+
+/**
+ * Approximate accounting of the heap used by the sessions of a store. Each
+ * session is charged a fixed overhead for its entry, id and maps, and each
+ * parameter the estimated size of its name and value. A session may not grow
+ * beyond the per-session quota, and once all sessions together exceed the
+ * budget, the pressure handler is called to evict sessions until the total
+ * falls below the low-water mark. A budget or quota of zero means no limit.
+ * <p>
+ * The number of sessions and bytes, and the rates at which sessions are
+ * created and evicted, are available through getters and are printed once a
+ * minute while sessions are being created or evicted.
+ *
+ * @author labramusic
+ *
+ */
+public class SessionMemory {
+
+	/**
+	 * Estimated bytes used by a session without parameters: the entry, its
+	 * SID, its parameters map and the nodes referencing it in the store.
+	 */
+	public final static long SESSION_OVERHEAD = 256;
+
+	/**
+	 * Estimated bytes used by a mapping in a parameters map.
+	 */
+	private final static long MAPPING_OVERHEAD = 48;
+
+	/**
+	 * Fraction of the budget down to which sessions are evicted.
+	 */
+	private final static double LOW_WATER = 0.9;
+
+	/**
+	 * Seconds over which the creation and eviction rates are averaged.
+	 */
+	private final static double RATE_WINDOW = 60;
+
+	/**
+	 * Milliseconds between reports.
+	 */
+	private final static long REPORT_INTERVAL = 60_000;
+
+	/**
+	 * Maximum total bytes of all sessions.
+	 */
+	private final long budget;
+
+	/**
+	 * Maximum bytes of a single session.
+	 */
+	private final long quota;
+
+	/**
+	 * Total bytes of all sessions.
+	 */
+	private AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * Number of created sessions.
+	 */
+	private LongAdder created = new LongAdder();
+
+	/**
+	 * Number of evicted sessions.
+	 */
+	private LongAdder evicted = new LongAdder();
+
+	/**
+	 * Called when the budget is exceeded, or null.
+	 */
+	private volatile Runnable pressureHandler;
+
+	/**
+	 * Average number of sessions created per second.
+	 */
+	private volatile double creationRate;
+
+	/**
+	 * Average number of sessions evicted per second.
+	 */
+	private volatile double evictionRate;
+
+	/**
+	 * Time of the last rate update in milliseconds.
+	 */
+	private long lastTick = System.currentTimeMillis();
+
+	/**
+	 * Created sessions at the last rate update.
+	 */
+	private long lastCreated;
+
+	/**
+	 * Evicted sessions at the last rate update.
+	 */
+	private long lastEvicted;
+
+	/**
+	 * Time of the last report in milliseconds.
+	 */
+	private long lastReport = lastTick;
+
+	/**
+	 * Created sessions at the last report.
+	 */
+	private long reportedCreated;
+
+	/**
+	 * Evicted sessions at the last report.
+	 */
+	private long reportedEvicted;
+
+	/**
+	 * Initializes a SessionMemory.
+	 *
+	 * @param budget
+	 *            maximum total bytes of all sessions, or zero for no limit
+	 * @param quota
+	 *            maximum bytes of a single session, or zero for no limit
+	 */
+	public SessionMemory(long budget, long quota) {
+		this.budget = budget;
+		this.quota = quota;
+	}
+
+	/**
+	 * Creates a SessionMemory from the server properties, which give the
+	 * budget in megabytes and the quota in kilobytes.
+	 *
+	 * @param properties
+	 *            the server properties
+	 * @return the session memory
+	 */
+	public static SessionMemory fromProperties(Properties properties) {
+		return new SessionMemory(Util.getAsInt(properties.getProperty("session.memoryBudget"), 0) * 1024L * 1024,
+				Util.getAsInt(properties.getProperty("session.quota"), 0) * 1024L);
+	}
+
+	/**
+	 * Sets the handler called when the budget is exceeded.
+	 *
+	 * @param pressureHandler
+	 *            the handler
+	 */
+	public void setPressureHandler(Runnable pressureHandler) {
+		this.pressureHandler = pressureHandler;
+	}
+
+	/**
+	 * Estimates the bytes used by a parameter with the given name and value.
+	 *
+	 * @param name
+	 *            parameter name
+	 * @param value
+	 *            parameter value
+	 * @return estimated bytes
+	 */
+	public static long estimate(String name, Object value) {
+		return MAPPING_OVERHEAD + estimate(name) + estimate(value);
+	}
+
+	/**
+	 * Estimates the bytes used by the given parameter name or value.
+	 *
+	 * @param value
+	 *            the name or value
+	 * @return estimated bytes
+	 */
+	public static long estimate(Object value) {
+		if (value instanceof String) {
+			return 40 + 2L * ((String) value).length();
+		}
+		if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		}
+		return 16;
+	}
+
+	/**
+	 * Checks if a session may grow to the given size.
+	 *
+	 * @param size
+	 *            new size of the session's parameters in bytes
+	 * @throws IllegalStateException
+	 *             if the size exceeds the quota
+	 */
+	void checkQuota(long size) {
+		if (quota > 0 && SESSION_OVERHEAD + size > quota) {
+			throw new IllegalStateException("Session exceeds its quota of " + quota + " bytes!");
+		}
+	}
+
+	/**
+	 * Adds the given number of bytes to the total and calls the pressure
+	 * handler if the budget is exceeded.
+	 *
+	 * @param delta
+	 *            change in bytes
+	 */
+	void add(long delta) {
+		long total = bytes.addAndGet(delta);
+		if (delta > 0 && budget > 0 && total > budget) {
+			Runnable handler = pressureHandler;
+			if (handler != null) {
+				handler.run();
+			}
+		}
+	}
+
+	/**
+	 * Records a created session.
+	 */
+	void recordCreation() {
+		created.increment();
+	}
+
+	/**
+	 * Records an evicted session.
+	 */
+	void recordEviction() {
+		evicted.increment();
+	}
+
+	/**
+	 * Checks if the total is above the low-water mark of the budget, so
+	 * eviction should continue.
+	 *
+	 * @return true if sessions should be evicted
+	 */
+	boolean isAboveLowWater() {
+		return budget > 0 && bytes.get() > budget * LOW_WATER;
+	}
+
+	/**
+	 * Updates the creation and eviction rates and prints a report once a
+	 * minute if sessions have been created or evicted since the last one.
+	 *
+	 * @param sessions
+	 *            current number of sessions
+	 */
+	synchronized void tick(int sessions) {
+		long now = System.currentTimeMillis();
+		double seconds = (now - lastTick) / 1000.0;
+		if (seconds <= 0) {
+			return;
+		}
+		long createdNow = created.sum();
+		long evictedNow = evicted.sum();
+		double weight = 1 - Math.exp(-seconds / RATE_WINDOW);
+		creationRate += ((createdNow - lastCreated) / seconds - creationRate) * weight;
+		evictionRate += ((evictedNow - lastEvicted) / seconds - evictionRate) * weight;
+		lastTick = now;
+		lastCreated = createdNow;
+		lastEvicted = evictedNow;
+
+		if (now - lastReport >= REPORT_INTERVAL) {
+			if (createdNow != reportedCreated || evictedNow != reportedEvicted) {
+				System.out.printf("Sessions: %d using about %d KiB%s, created %.1f/s, evicted %.1f/s.%n", sessions,
+						bytes.get() / 1024, budget > 0 ? " of " + budget / 1024 + " KiB" : "", creationRate,
+						evictionRate);
+			}
+			lastReport = now;
+			reportedCreated = createdNow;
+			reportedEvicted = evictedNow;
+		}
+	}
+
+	/**
+	 * Gets the approximate total bytes of all sessions.
+	 *
+	 * @return total bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Gets the budget in bytes, or zero if there is no limit.
+	 *
+	 * @return the budget
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Gets the per-session quota in bytes, or zero if there is no limit.
+	 *
+	 * @return the quota
+	 */
+	public long getQuota() {
+		return quota;
+	}
+
+	/**
+	 * Gets the number of created sessions.
+	 *
+	 * @return number of created sessions
+	 */
+	public long getCreatedCount() {
+		return created.sum();
+	}
+
+	/**
+	 * Gets the number of sessions evicted to stay within the budget.
+	 *
+	 * @return number of evicted sessions
+	 */
+	public long getEvictedCount() {
+		return evicted.sum();
+	}
+
+	/**
+	 * Gets the average number of sessions created per second over about the
+	 * last minute.
+	 *
+	 * @return creation rate
+	 */
+	public double getCreationRate() {
+		return creationRate;
+	}
+
+	/**
+	 * Gets the average number of sessions evicted per second over about the
+	 * last minute.
+	 *
+	 * @return eviction rate
+	 */
+	public double getEvictionRate() {
+		return evictionRate;
+	}
+}
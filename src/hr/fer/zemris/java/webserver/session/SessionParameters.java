@@ -0,0 +1,121 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hr.fer.zemris.java.webserver.ParameterValues;
+
+/**
+ * Persistent parameters map of a session. The parameters are kept in a
+ * {@link ConcurrentHashMap} and every change is reported to the session's
+ * listener. The entry set is read only, so all changes go through
+ * {@link #put(String, Object)}, {@link #remove(Object)} and {@link #clear()}.
+ * 
+ * @author labramusic
+ *
+ */
+public class SessionParameters extends AbstractMap<String, Object> {
+
+	/**
+	 * The session owning the parameters.
+	 */
+	private SessionMapEntry entry;
+
+	/**
+	 * The parameters.
+	 */
+	private Map<String, Object> map = new ConcurrentHashMap<>();
+
+	/**
+	 * Initializes SessionParameters with the given initial parameters, which
+	 * aren't reported to the listener.
+	 * 
+	 * @param entry
+	 *            the session owning the parameters
+	 * @param initial
+	 *            initial parameters, or null
+	 */
+	SessionParameters(SessionMapEntry entry, Map<String, Object> initial) {
+		this.entry = entry;
+		if (initial != null) {
+			for (Map.Entry<String, Object> e : initial.entrySet()) {
+				map.put(e.getKey(), ParameterValues.check(e.getValue()));
+				entry.addBytes(size(e.getKey(), e.getValue()));
+			}
+		}
+	}
+
+	@Override
+	public Object get(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		ParameterValues.check(value);
+		// charged before storing, so a value exceeding the quota isn't stored
+		Object current = map.get(key);
+		entry.addBytes(size(key, value) - size(key, current));
+		Object old = map.put(key, value);
+		if (old != current) {
+			// changed concurrently since the size was charged
+			entry.addBytes(size(key, current) - size(key, old));
+		}
+		SessionListener listener = entry.getListener();
+		if (listener != null) {
+			listener.parameterSet(entry, key, value);
+		}
+		return old;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		Object old = map.remove(key);
+		if (old != null) {
+			entry.addBytes(-size((String) key, old));
+		}
+		SessionListener listener = entry.getListener();
+		if (old != null && listener != null) {
+			listener.parameterRemoved(entry, (String) key);
+		}
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		for (String key : map.keySet()) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return Collections.unmodifiableSet(map.entrySet());
+	}
+
+	/**
+	 * Estimates the bytes used by a mapping.
+	 *
+	 * @param key
+	 *            parameter name
+	 * @param value
+	 *            parameter value, or null if there is no mapping
+	 * @return estimated bytes
+	 */
+	private static long size(String key, Object value) {
+		return value == null ? 0 : SessionMemory.estimate(key, value);
+	}
+}
@@ -0,0 +1,665 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import hr.fer.zemris.java.webserver.ParameterValues;
+
+/**
+ * Keeps the sessions of a {@link SessionStore} on disk, so they survive a
+ * restart of the server. Periodically a compact binary snapshot of all
+ * sessions is written, and in between every change to a session is appended
+ * to a journal. Both are written and read through memory-mapped files. On
+ * startup the snapshot is loaded, the newer journals are replayed on top of it
+ * and expired sessions are skipped.
+ * <p>
+ * Each snapshot starts a new journal generation, so the snapshot together with
+ * the journals of its generation and later ones always holds the full state.
+ * Journal records set absolute values, so replaying a change that is already
+ * part of the snapshot is harmless.
+ *
+ * @author labramusic
+ *
+ */
+public class SessionPersistence implements SessionListener {
+
+	/**
+	 * Journal record of a created session.
+	 */
+	private final static byte CREATE = 1;
+
+	/**
+	 * Journal record of a set parameter.
+	 */
+	private final static byte SET = 2;
+
+	/**
+	 * Journal record of a removed parameter.
+	 */
+	private final static byte DELETE = 3;
+
+	/**
+	 * Journal record of a removed session.
+	 */
+	private final static byte REMOVE = 4;
+
+	/**
+	 * Identifies a snapshot file with typed parameter values.
+	 */
+	private final static int SNAPSHOT_MAGIC = 0x534e5032;
+
+	/**
+	 * Name of the snapshot file.
+	 */
+	private final static String SNAPSHOT = "snapshot";
+
+	/**
+	 * Prefix of the journal file names, followed by the generation.
+	 */
+	private final static String JOURNAL_PREFIX = "journal.";
+
+	/**
+	 * The directory holding the snapshot and journals.
+	 */
+	private Path directory;
+
+	/**
+	 * The persisted session store.
+	 */
+	private SessionStore store;
+
+	/**
+	 * Interval between snapshots in seconds.
+	 */
+	private int snapshotInterval;
+
+	/**
+	 * Generation of the current journal.
+	 */
+	private long generation;
+
+	/**
+	 * Writer of the current journal, null until sessions are loaded.
+	 */
+	private MappedWriter journal;
+
+	/**
+	 * Lock held while a snapshot is written.
+	 */
+	private final Object snapshotLock = new Object();
+
+	/**
+	 * The snapshot thread.
+	 */
+	private SnapshotThread snapshotThread;
+
+	/**
+	 * Initializes a SessionPersistence.
+	 *
+	 * @param directory
+	 *            the directory holding the snapshot and journals
+	 * @param store
+	 *            the persisted session store
+	 * @param snapshotInterval
+	 *            interval between snapshots in seconds
+	 */
+	public SessionPersistence(Path directory, SessionStore store, int snapshotInterval) {
+		this.directory = directory;
+		this.store = store;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Restores the sessions from the snapshot and journals into the store, opens
+	 * a new journal and starts recording changes.
+	 *
+	 * @return number of restored sessions
+	 * @throws IOException
+	 *             thrown if the directory cannot be read or the journal cannot
+	 *             be opened
+	 */
+	public synchronized int load() throws IOException {
+		Files.createDirectories(directory);
+		Map<String, RestoredSession> restored = new HashMap<>();
+		long snapshotGeneration = readSnapshot(restored);
+
+		List<Long> generations = journalGenerations();
+		for (long g : generations) {
+			if (g >= snapshotGeneration) {
+				replayJournal(directory.resolve(JOURNAL_PREFIX + g), restored);
+			}
+		}
+		long lastJournal = generations.isEmpty() ? 0 : generations.get(generations.size() - 1);
+		generation = Math.max(snapshotGeneration, lastJournal) + 1;
+
+		long now = System.currentTimeMillis() / 1000;
+		int count = 0;
+		for (Map.Entry<String, RestoredSession> e : restored.entrySet()) {
+			RestoredSession session = e.getValue();
+			if (session.validUntil < now) {
+				continue;
+			}
+			store.restore(new SessionMapEntry(e.getKey(), session.validUntil, session.parameters, this));
+			++count;
+		}
+
+		journal = new MappedWriter(directory.resolve(JOURNAL_PREFIX + generation));
+		store.setListener(this);
+		return count;
+	}
+
+	/**
+	 * Starts the snapshot thread if not already running.
+	 */
+	public synchronized void start() {
+		if (snapshotThread == null || !snapshotThread.isAlive()) {
+			snapshotThread = new SnapshotThread();
+			snapshotThread.setDaemon(true);
+			snapshotThread.start();
+		}
+	}
+
+	/**
+	 * Stops the snapshot thread, writes a final snapshot and closes the journal.
+	 */
+	public void stop() {
+		synchronized (this) {
+			if (snapshotThread != null) {
+				snapshotThread.kill();
+				snapshotThread = null;
+			}
+		}
+		try {
+			snapshot();
+			synchronized (this) {
+				journal.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Sessions couldn't be saved: " + e);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of all sessions in the store and deletes the journals
+	 * it makes obsolete.
+	 *
+	 * @throws IOException
+	 *             thrown if the snapshot cannot be written
+	 */
+	public void snapshot() throws IOException {
+		synchronized (snapshotLock) {
+			long snapshotGeneration;
+			synchronized (this) {
+				journal.close();
+				snapshotGeneration = ++generation;
+				journal = new MappedWriter(directory.resolve(JOURNAL_PREFIX + generation));
+			}
+
+			Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+			Files.deleteIfExists(tmp);
+			MappedWriter writer = new MappedWriter(tmp);
+			writer.putInt(SNAPSHOT_MAGIC);
+			writer.putLong(snapshotGeneration);
+			long now = System.currentTimeMillis() / 1000;
+			IOException[] failure = new IOException[1];
+			store.forEach(entry -> {
+				if (failure[0] != null || entry.isExpired(now)) {
+					return;
+				}
+				try {
+					writer.putString(entry.getSid());
+					writer.putLong(entry.getValidUntil());
+					// copy first, the parameters may change while writing
+					Map<String, Object> parameters = new HashMap<>(entry.getMap());
+					writer.putInt(parameters.size());
+					for (Map.Entry<String, Object> p : parameters.entrySet()) {
+						writer.putString(p.getKey());
+						writer.putBytes(ParameterValues.encode(p.getValue()));
+					}
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			});
+			writer.putInt(-1);
+			writer.close();
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+
+			for (long g : journalGenerations()) {
+				if (g < snapshotGeneration) {
+					Files.deleteIfExists(directory.resolve(JOURNAL_PREFIX + g));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void sessionCreated(SessionMapEntry entry) {
+		append(CREATE, entry.getSid(), entry.getValidUntil(), null, null);
+	}
+
+	@Override
+	public void sessionRemoved(String sid) {
+		append(REMOVE, sid, 0, null, null);
+	}
+
+	@Override
+	public void parameterSet(SessionMapEntry entry, String name, Object value) {
+		append(SET, entry.getSid(), entry.getValidUntil(), name, value);
+	}
+
+	@Override
+	public void parameterRemoved(SessionMapEntry entry, String name) {
+		append(DELETE, entry.getSid(), entry.getValidUntil(), name, null);
+	}
+
+	/**
+	 * Appends a record to the journal.
+	 *
+	 * @param type
+	 *            record type
+	 * @param sid
+	 *            session id
+	 * @param validUntil
+	 *            time until the session is valid
+	 * @param name
+	 *            parameter name, or null
+	 * @param value
+	 *            parameter value, or null
+	 */
+	private synchronized void append(byte type, String sid, long validUntil, String name, Object value) {
+		try {
+			journal.putByte(type);
+			journal.putString(sid);
+			journal.putLong(validUntil);
+			if (type == SET || type == DELETE) {
+				journal.putString(name);
+			}
+			if (type == SET) {
+				journal.putBytes(ParameterValues.encode(value));
+			}
+		} catch (IOException e) {
+			System.err.println("Session change couldn't be journaled: " + e);
+		}
+	}
+
+	/**
+	 * Reads the snapshot into the given map.
+	 *
+	 * @param restored
+	 *            map of restored sessions
+	 * @return generation of the snapshot, or 0 if there is no snapshot
+	 * @throws IOException
+	 *             thrown if the snapshot cannot be read
+	 */
+	private long readSnapshot(Map<String, RestoredSession> restored) throws IOException {
+		Path path = directory.resolve(SNAPSHOT);
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		ByteBuffer buffer = map(path);
+		if (buffer.remaining() < 12 || buffer.getInt() != SNAPSHOT_MAGIC) {
+			System.err.println("Session snapshot " + path + " is corrupt and has been ignored.");
+			return 0;
+		}
+		long snapshotGeneration = buffer.getLong();
+		try {
+			while (true) {
+				int length = buffer.getInt();
+				if (length < 0) {
+					break;
+				}
+				String sid = getString(buffer, length);
+				RestoredSession session = new RestoredSession(buffer.getLong());
+				for (int count = buffer.getInt(); count > 0; --count) {
+					String name = getString(buffer, buffer.getInt());
+					session.parameters.put(name, ParameterValues.decode(buffer));
+				}
+				restored.put(sid, session);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			System.err.println("Session snapshot " + path + " is truncated or corrupt.");
+		}
+		return snapshotGeneration;
+	}
+
+	/**
+	 * Replays the journal at the given path on the given map.
+	 *
+	 * @param path
+	 *            journal path
+	 * @param restored
+	 *            map of restored sessions
+	 * @throws IOException
+	 *             thrown if the journal cannot be read
+	 */
+	private void replayJournal(Path path, Map<String, RestoredSession> restored) throws IOException {
+		ByteBuffer buffer = map(path);
+		try {
+			while (buffer.hasRemaining()) {
+				byte type = buffer.get();
+				if (type == 0) {
+					// the zero filled remainder of the last mapped region
+					break;
+				}
+				String sid = getString(buffer, buffer.getInt());
+				long validUntil = buffer.getLong();
+				if (type == REMOVE) {
+					restored.remove(sid);
+					continue;
+				}
+				RestoredSession session = restored.get(sid);
+				if (session == null) {
+					session = new RestoredSession(validUntil);
+					restored.put(sid, session);
+				}
+				session.validUntil = Math.max(session.validUntil, validUntil);
+				if (type == SET) {
+					String name = getString(buffer, buffer.getInt());
+					session.parameters.put(name, ParameterValues.decode(buffer));
+				} else if (type == DELETE) {
+					session.parameters.remove(getString(buffer, buffer.getInt()));
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			// the last record was cut off by a crash
+		} catch (IllegalArgumentException e) {
+			System.err.println("Session journal " + path + " is corrupt from offset " + buffer.position() + ".");
+		}
+	}
+
+	/**
+	 * Returns the generations of the existing journals in ascending order.
+	 *
+	 * @return journal generations
+	 * @throws IOException
+	 *             thrown if the directory cannot be read
+	 */
+	private List<Long> journalGenerations() throws IOException {
+		List<Long> generations = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*")) {
+			for (Path path : stream) {
+				try {
+					generations.add(Long.parseLong(path.getFileName().toString().substring(JOURNAL_PREFIX.length())));
+				} catch (NumberFormatException ignorable) {
+				}
+			}
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+
+	/**
+	 * Maps the whole file at the given path for reading.
+	 *
+	 * @param path
+	 *            file path
+	 * @return the mapped file
+	 * @throws IOException
+	 *             thrown if the file cannot be mapped
+	 */
+	private static ByteBuffer map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Reads a string of the given length in bytes from the buffer.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param length
+	 *            length in bytes
+	 * @return the string
+	 */
+	private static String getString(ByteBuffer buffer, int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A session being restored.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class RestoredSession {
+
+		/**
+		 * Time until valid.
+		 */
+		private long validUntil;
+
+		/**
+		 * The parameters.
+		 */
+		private Map<String, Object> parameters = new HashMap<>();
+
+		/**
+		 * Initializes a RestoredSession.
+		 *
+		 * @param validUntil
+		 *            time until valid
+		 */
+		public RestoredSession(long validUntil) {
+			this.validUntil = validUntil;
+		}
+	}
+
+	/**
+	 * Writes a file sequentially through memory-mapped regions, mapping the next
+	 * region when the current one is full.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private static class MappedWriter {
+
+		/**
+		 * Size of the mapped regions.
+		 */
+		private final static int REGION_SIZE = 16 * 1024 * 1024;
+
+		/**
+		 * The file channel.
+		 */
+		private FileChannel channel;
+
+		/**
+		 * The current region.
+		 */
+		private MappedByteBuffer region;
+
+		/**
+		 * Position of the current region in the file.
+		 */
+		private long regionStart;
+
+		/**
+		 * True if the file has been closed.
+		 */
+		private boolean closed;
+
+		/**
+		 * Initializes a MappedWriter and maps the first region.
+		 *
+		 * @param path
+		 *            file path
+		 * @throws IOException
+		 *             thrown if the file cannot be opened
+		 */
+		public MappedWriter(Path path) throws IOException {
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+		}
+
+		/**
+		 * Writes a byte.
+		 *
+		 * @param value
+		 *            the value
+		 * @throws IOException
+		 *             thrown if the next region cannot be mapped
+		 */
+		public void putByte(byte value) throws IOException {
+			ensure(1);
+			region.put(value);
+		}
+
+		/**
+		 * Writes an int.
+		 *
+		 * @param value
+		 *            the value
+		 * @throws IOException
+		 *             thrown if the next region cannot be mapped
+		 */
+		public void putInt(int value) throws IOException {
+			ensure(4);
+			region.putInt(value);
+		}
+
+		/**
+		 * Writes a long.
+		 *
+		 * @param value
+		 *            the value
+		 * @throws IOException
+		 *             thrown if the next region cannot be mapped
+		 */
+		public void putLong(long value) throws IOException {
+			ensure(8);
+			region.putLong(value);
+		}
+
+		/**
+		 * Writes a string as its length in bytes followed by its UTF-8 bytes.
+		 *
+		 * @param value
+		 *            the value
+		 * @throws IOException
+		 *             thrown if the next region cannot be mapped
+		 */
+		public void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			ensure(bytes.length);
+			region.put(bytes);
+		}
+
+		/**
+		 * Writes the given bytes.
+		 *
+		 * @param bytes
+		 *            the bytes
+		 * @throws IOException
+		 *             thrown if the next region cannot be mapped
+		 */
+		public void putBytes(byte[] bytes) throws IOException {
+			ensure(bytes.length);
+			region.put(bytes);
+		}
+
+		/**
+		 * Maps the next region if the current one cannot hold the given number
+		 * of bytes.
+		 *
+		 * @param bytes
+		 *            number of bytes to be written
+		 * @throws IOException
+		 *             thrown if the next region cannot be mapped
+		 */
+		private void ensure(int bytes) throws IOException {
+			if (closed) {
+				throw new IOException("The file has been closed.");
+			}
+			if (region.remaining() >= bytes) {
+				return;
+			}
+			regionStart += region.position();
+			region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, bytes));
+		}
+
+		/**
+		 * Flushes the written data, cuts the file to its written length and
+		 * closes it.
+		 *
+		 * @throws IOException
+		 *             thrown if the file cannot be closed
+		 */
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			region.force();
+			try {
+				channel.truncate(regionStart + region.position());
+			} catch (IOException e) {
+				// some platforms can't truncate a mapped file, readers stop at
+				// the zero filled remainder anyway
+			}
+			channel.close();
+		}
+	}
+
+	/**
+	 * Thread which periodically writes a snapshot of the sessions.
+	 *
+	 * @author labramusic
+	 *
+	 */
+	private class SnapshotThread extends Thread {
+
+		/**
+		 * True if thread needs to stop.
+		 */
+		private volatile boolean dead;
+
+		@Override
+		public void run() {
+			try {
+				while (!dead) {
+					Thread.sleep(snapshotInterval * 1000L);
+					if (dead) {
+						break;
+					}
+					try {
+						snapshot();
+					} catch (IOException e) {
+						System.err.println("Session snapshot couldn't be written: " + e);
+					}
+				}
+			} catch (InterruptedException ignorable) {
+			}
+		}
+
+		/**
+		 * Sets the thread dead.
+		 */
+		public void kill() {
+			dead = true;
+			interrupt();
+		}
+	}
+}
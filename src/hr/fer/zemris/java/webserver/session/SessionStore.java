@@ -0,0 +1,99 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage of the server's sessions. Implementations must be safe for use by
+ * all of the server's worker threads at once, and lookups, creation and
+ * touching of a session must each be atomic.
+ * 
+ * @author labramusic
+ *
+ */
+public interface SessionStore {
+
+	/**
+	 * Returns the valid session with the given SID and extends its validity by
+	 * the session timeout. Returns null if no such session exists or it has
+	 * expired.
+	 * 
+	 * @param sid
+	 *            session id
+	 * @return the touched session or null
+	 */
+	public SessionMapEntry touch(String sid);
+
+	/**
+	 * Returns the valid session with the given SID after touching it, or
+	 * atomically creates a new session with a SID from the given generator. The
+	 * caller can tell a new session by its SID differing from the given one.
+	 * 
+	 * @param sid
+	 *            session id, or null
+	 * @param sidGenerator
+	 *            generator of new session ids
+	 * @return the existing or created session
+	 */
+	public SessionMapEntry getOrCreate(String sid, Supplier<String> sidGenerator);
+
+	/**
+	 * Removes the session with the given SID.
+	 * 
+	 * @param sid
+	 *            session id
+	 */
+	public void remove(String sid);
+
+	/**
+	 * Removes all sessions which have expired.
+	 */
+	public void removeExpired();
+
+	/**
+	 * Stores a session restored from persistent storage, replacing a session
+	 * with the same SID. The listener isn't notified.
+	 * 
+	 * @param entry
+	 *            the restored session
+	 */
+	public void restore(SessionMapEntry entry);
+
+	/**
+	 * Performs the given action for each stored session.
+	 * 
+	 * @param action
+	 *            the action
+	 */
+	public void forEach(Consumer<SessionMapEntry> action);
+
+	/**
+	 * Sets the listener notified of created and removed sessions and of
+	 * changes to their parameters. Affects only sessions created afterwards.
+	 * 
+	 * @param listener
+	 *            the listener, or null
+	 */
+	public void setListener(SessionListener listener);
+
+	/**
+	 * Returns the number of stored sessions.
+	 * 
+	 * @return number of sessions
+	 */
+	public int size();
+
+	/**
+	 * Starts any background work of the store. Called once before the server
+	 * starts accepting requests.
+	 */
+	public default void start() {
+	}
+
+	/**
+	 * Stops the background work of the store and releases its resources.
+	 */
+	public default void stop() {
+	}
+
+}
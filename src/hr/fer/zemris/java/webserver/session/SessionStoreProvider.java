@@ -0,0 +1,28 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.Properties;
+
+/**
+ * Creates the server's session store from the server properties. The store
+ * used by the server is chosen with the <code>session.store</code> property,
+ * which holds either the name of a built-in store or the fully qualified name
+ * of a class implementing this interface, which must have a public default
+ * constructor.
+ * 
+ * @author labramusic
+ *
+ */
+public interface SessionStoreProvider {
+
+	/**
+	 * Creates a session store.
+	 * 
+	 * @param properties
+	 *            the server properties
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @return the session store
+	 */
+	public SessionStore create(Properties properties, int sessionTimeout);
+
+}
@@ -0,0 +1,84 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import hr.fer.zemris.java.custom.scripting.util.Util;
+
+/**
+ * Registry of the built-in session stores, which creates the store selected in
+ * the server properties. The built-in stores are <code>concurrent</code>,
+ * <code>offheap</code> and <code>replicated</code>.
+ * 
+ * @author labramusic
+ *
+ */
+public class SessionStores {
+
+	/**
+	 * Name of the property selecting the store.
+	 */
+	public final static String STORE_PROPERTY = "session.store";
+
+	/**
+	 * Name of the default store.
+	 */
+	public final static String DEFAULT_STORE = "concurrent";
+
+	/**
+	 * Providers of the built-in stores mapped by name.
+	 */
+	private final static Map<String, SessionStoreProvider> PROVIDERS = new HashMap<>();
+
+	static {
+		PROVIDERS.put("concurrent", (properties, sessionTimeout) -> new ConcurrentSessionStore(sessionTimeout,
+				Util.getAsInt(properties.getProperty("server.workerThreads"), 16),
+				SessionMemory.fromProperties(properties)));
+		PROVIDERS.put("offheap", (properties, sessionTimeout) -> new OffHeapSessionStore(sessionTimeout,
+				Util.getAsInt(properties.getProperty("session.offHeapCapacity"), 100_000),
+				Util.getAsInt(properties.getProperty("session.offHeapSlotSize"), 256),
+				SessionMemory.fromProperties(properties)));
+		PROVIDERS.put("replicated", ReplicatedSessionStore::fromProperties);
+	}
+
+	/**
+	 * Creates the session store selected by the given properties.
+	 * 
+	 * @param properties
+	 *            the server properties
+	 * @param sessionTimeout
+	 *            the session timeout in seconds
+	 * @return the session store
+	 * @throws IllegalArgumentException
+	 *             if the selected store doesn't exist
+	 */
+	public static SessionStore create(Properties properties, int sessionTimeout) {
+		String name = properties.getProperty(STORE_PROPERTY, DEFAULT_STORE).trim();
+		SessionStoreProvider provider = PROVIDERS.get(name);
+		if (provider == null) {
+			provider = getProviderFromName(name);
+		}
+		return provider.create(properties, sessionTimeout);
+	}
+
+	/**
+	 * Instantiates the provider class with the given name.
+	 * 
+	 * @param name
+	 *            fully qualified class name
+	 * @return the provider
+	 * @throws IllegalArgumentException
+	 *             if the class cannot be instantiated as a provider
+	 */
+	private static SessionStoreProvider getProviderFromName(String name) {
+		try {
+			Class<?> referenceToClass = SessionStores.class.getClassLoader().loadClass(name);
+			return (SessionStoreProvider) referenceToClass.newInstance();
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Session store " + name + " not found!");
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("Session store provider " + name + " couldn't be instantiated!");
+		}
+	}
+}
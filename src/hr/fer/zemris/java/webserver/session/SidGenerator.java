@@ -0,0 +1,72 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Generator of random session ids. Each thread uses its own
+ * {@link SecureRandom}, so worker threads don't contend for a shared source
+ * and the ids can't be predicted from earlier ones. An id is built from 120
+ * random bits in a single pass, six bits per character of the URL-safe base64
+ * alphabet.
+ * 
+ * @author labramusic
+ *
+ */
+public class SidGenerator {
+
+	/**
+	 * Length of the generated ids.
+	 */
+	public final static int SID_LENGTH = 20;
+
+	/**
+	 * The URL-safe alphabet.
+	 */
+	private final static char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.toCharArray();
+
+	/**
+	 * Random source of each thread.
+	 */
+	private final static ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SidGenerator::newRandom);
+
+	/**
+	 * Random bytes of each thread, reused between calls.
+	 */
+	private final static ThreadLocal<byte[]> BYTES = ThreadLocal.withInitial(() -> new byte[SID_LENGTH * 6 / 8]);
+
+	/**
+	 * Generates a new random session id.
+	 * 
+	 * @return the generated session id
+	 */
+	public static String generate() {
+		byte[] bytes = BYTES.get();
+		RANDOM.get().nextBytes(bytes);
+		char[] sid = new char[SID_LENGTH];
+		// every three bytes give four characters
+		for (int i = 0, j = 0; i < bytes.length; i += 3, j += 4) {
+			int bits = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+			sid[j] = ALPHABET[bits >>> 18];
+			sid[j + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+			sid[j + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+			sid[j + 3] = ALPHABET[bits & 0x3f];
+		}
+		return new String(sid);
+	}
+
+	/**
+	 * Creates the random source of a thread. A non-blocking algorithm is
+	 * preferred, so the source doesn't share a lock with other threads.
+	 * 
+	 * @return the random source
+	 */
+	private static SecureRandom newRandom() {
+		try {
+			return SecureRandom.getInstance("SHA1PRNG");
+		} catch (NoSuchAlgorithmException e) {
+			return new SecureRandom();
+		}
+	}
+}
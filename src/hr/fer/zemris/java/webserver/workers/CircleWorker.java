@@ -1,43 +1,101 @@
 package hr.fer.zemris.java.webserver.workers;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Random;
-
-import javax.imageio.ImageIO;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
 
+import hr.fer.zemris.java.custom.scripting.util.Util;
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.image.IndexedImage;
+import hr.fer.zemris.java.webserver.image.PngEncoder;
+import hr.fer.zemris.java.webserver.image.RenderCache;
 
 /**
  * Worker which produces a PNG image with dimensions 200x200 with a single filled circle.
+ * The circle has the color given by the <code>color</code> parameter as RRGGBB, or
+ * a random web-safe color. The encoded images are cached by color, whose maximum
+ * number is read from the server property <code>images.cacheSize</code>.
  * @author labramusic
  *
  */
 public class CircleWorker implements IWebWorker {
 
+	/**
+	 * Size of the image.
+	 */
+	private final static int SIZE = 200;
+
+	/**
+	 * Default number of cached images, which holds all web-safe colors.
+	 */
+	private final static int DEFAULT_CACHE_SIZE = 256;
+
+	/**
+	 * Encoder of the images.
+	 */
+	private PngEncoder encoder = new PngEncoder();
+
+	/**
+	 * Encoded images by color.
+	 */
+	private RenderCache<Integer> cache = new RenderCache<>(DEFAULT_CACHE_SIZE);
+
 	@Override
-	public void processRequest(RequestContext context) {
-		BufferedImage bim = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
+	public void init(Properties properties) {
+		cache = new RenderCache<>(Util.getAsInt(properties.getProperty("images.cacheSize"), DEFAULT_CACHE_SIZE));
+	}
 
-		Graphics2D g2d = bim.createGraphics();
-		Random rnd = new Random();
-		g2d.setColor(new Color(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256)));
-		g2d.fillOval(0, 0, bim.getWidth(), bim.getHeight());
-		g2d.dispose();
+	@Override
+	public void processRequest(RequestContext context) {
+		Integer color = parseColor(context.getParameter("color"));
+		if (color == null) {
+			ThreadLocalRandom rnd = ThreadLocalRandom.current();
+			color = rnd.nextInt(6) * 0x330000 + rnd.nextInt(6) * 0x3300 + rnd.nextInt(6) * 0x33;
+		}
 
 		context.setMimeType("image/png");
-
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
-			ImageIO.write(bim, "png", bos);
-			context.write(bos.toByteArray());
+			context.write(cache.get(color, this::render));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Renders and encodes the circle of the given color on a black background.
+	 *
+	 * @param color
+	 *            color of the circle as 0xRRGGBB
+	 * @return the encoded image
+	 */
+	private byte[] render(Integer color) {
+		IndexedImage image = IndexedImage.acquire(SIZE, SIZE);
+		try {
+			image.setPalette(0x000000, color);
+			image.fillOval(0, 0, SIZE, SIZE, 1);
+			return encoder.encode(image);
+		} finally {
+			image.release();
+		}
+	}
+
+	/**
+	 * Parses a color given as RRGGBB.
+	 *
+	 * @param color
+	 *            the color, or null
+	 * @return the color as 0xRRGGBB, or null if not given or malformed
+	 */
+	private static Integer parseColor(String color) {
+		if (color == null || color.length() != 6) {
+			return null;
+		}
+		try {
+			int rgb = Integer.parseInt(color, 16);
+			return rgb >= 0 ? rgb : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
 }
@@ -0,0 +1,87 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.IAsyncWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Asynchronous worker which answers after the number of milliseconds given
+ * by the "ms" parameter, simulating a slow backend without holding a server
+ * thread while waiting. A delayed response which times out or is cancelled
+ * is removed from the scheduler, which is shut down when the worker is
+ * destroyed.
+ * 
+ * @author labramusic
+ *
+ */
+public class DelayWorker implements IAsyncWebWorker {
+
+	/**
+	 * Default delay in milliseconds.
+	 */
+	private final static long DEFAULT_DELAY = 1000;
+
+	/**
+	 * Maximum delay in milliseconds.
+	 */
+	private final static long MAX_DELAY = 60_000;
+
+	/**
+	 * Scheduler completing the delayed responses.
+	 */
+	private ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * Initializes a DelayWorker.
+	 */
+	public DelayWorker() {
+		scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r);
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	@Override
+	public CompletionStage<?> processRequestAsync(RequestContext context) {
+		long delay = DEFAULT_DELAY;
+		try {
+			String ms = context.getParameter("ms");
+			if (ms != null) {
+				delay = Math.max(0, Math.min(MAX_DELAY, Long.parseLong(ms)));
+			}
+		} catch (NumberFormatException ignorable) {
+		}
+
+		long waited = delay;
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		ScheduledFuture<?> task = scheduler.schedule(() -> {
+			if (future.isDone()) {
+				// timed out or cancelled
+				return;
+			}
+			try {
+				context.setMimeType("text/plain");
+				context.write("Waited " + waited + " ms.");
+				future.complete(null);
+			} catch (IOException e) {
+				future.completeExceptionally(new UncheckedIOException(e));
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		future.whenComplete((result, error) -> task.cancel(false));
+		return future;
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,171 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class BulkheadTests {
+
+	@Test
+	public void testRejectsBeyondConcurrencyAndQueue() {
+		Bulkhead bulkhead = new Bulkhead("test", 2, 1, false);
+		assertTrue(bulkhead.tryAdmit());
+		assertTrue(bulkhead.tryAdmit());
+		assertTrue(bulkhead.tryAdmit());
+		assertFalse(bulkhead.tryAdmit());
+		assertFalse(bulkhead.tryAdmit());
+		assertEquals(3, bulkhead.getAdmittedCount());
+		assertEquals(2, bulkhead.getRejectedCount());
+
+		bulkhead.leave();
+		assertTrue(bulkhead.tryAdmit());
+		assertFalse(bulkhead.tryAdmit());
+		assertEquals(1, bulkhead.getCompletedCount());
+		assertEquals(3, bulkhead.getRejectedCount());
+	}
+
+	@Test
+	public void testSharedLimitsConcurrency() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead("test", 2, 10, false);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; ++i) {
+			threads[i] = new Thread(() -> bulkhead.run(() -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException ignorable) {
+				}
+				running.decrementAndGet();
+			}));
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(maxRunning.get() <= 2);
+		assertEquals(0, bulkhead.getRunningCount());
+	}
+
+	@Test
+	public void testWaitingRequestsDontHoldThreads() throws InterruptedException {
+		Bulkhead slow = new Bulkhead("slow", 1, 8, false);
+		Bulkhead other = new Bulkhead("other", 1, 0, false);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch slowDone = new CountDownLatch(5);
+		Runnable slowRequest = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException ignorable) {
+			}
+			slowDone.countDown();
+		};
+		for (int i = 0; i < 5; ++i) {
+			assertTrue(slow.tryAdmit());
+			pool.execute(() -> slow.run(slowRequest));
+		}
+
+		// one client worker runs the slow request, the other is still free
+		CountDownLatch otherDone = new CountDownLatch(1);
+		pool.execute(() -> other.run(otherDone::countDown));
+		assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+		assertEquals(1, slow.getRunningCount());
+		assertEquals(4, slow.getWaitingCount());
+
+		release.countDown();
+		assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+		assertEquals(0, slow.getWaitingCount());
+		pool.shutdown();
+	}
+
+	@Test
+	public void testWaitingRequestRunsAfterFailure() {
+		Bulkhead bulkhead = new Bulkhead("test", 1, 1, false);
+		AtomicInteger runs = new AtomicInteger();
+		bulkhead.run(() -> {
+			// queued while the slot is taken, run by this thread afterwards
+			bulkhead.run(runs::incrementAndGet);
+			throw new IllegalStateException("worker failed");
+		});
+		assertEquals(1, runs.get());
+		assertEquals(0, bulkhead.getWaitingCount());
+	}
+
+	@Test
+	public void testDedicatedRunsOnItsThreads() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead("test", 1, 0, true);
+		assertTrue(bulkhead.isDedicated());
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		bulkhead.run(() -> {
+			thread.set(Thread.currentThread());
+			try {
+				release.await();
+			} catch (InterruptedException ignorable) {
+			}
+			done.countDown();
+		});
+		// run doesn't block the caller, the second request waits in the queue
+		bulkhead.run(done::countDown);
+		assertEquals(1, bulkhead.getWaitingCount());
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(thread.get().getName().startsWith("bulkhead test"));
+		bulkhead.shutdown();
+	}
+
+	@Test
+	public void testDedicatedRunsInlineAfterShutdown() {
+		Bulkhead bulkhead = new Bulkhead("test", 1, 0, true);
+		bulkhead.shutdown();
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		bulkhead.run(() -> thread.set(Thread.currentThread()));
+		assertSame(Thread.currentThread(), thread.get());
+	}
+
+	@Test
+	public void testFromOptions() {
+		Map<String, String> options = new HashMap<>();
+		assertNull(Bulkhead.fromOptions("test", options));
+
+		options.put("maxConcurrent", "4");
+		Bulkhead bulkhead = Bulkhead.fromOptions("test", options);
+		assertEquals("test", bulkhead.getName());
+		assertEquals(4, bulkhead.getMaxConcurrent());
+		assertEquals(0, bulkhead.getQueueLength());
+		assertFalse(bulkhead.isDedicated());
+
+		options.put("queue", "16");
+		options.put("dedicated", "true");
+		bulkhead = Bulkhead.fromOptions("test", options);
+		assertEquals(16, bulkhead.getQueueLength());
+		assertTrue(bulkhead.isDedicated());
+		bulkhead.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidConcurrency() {
+		new Bulkhead("test", 0, 1, false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidQueue() {
+		new Bulkhead("test", 1, -1, false);
+	}
+}
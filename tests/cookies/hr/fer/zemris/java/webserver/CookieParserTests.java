@@ -0,0 +1,85 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CookieParserTests {
+
+	@Test
+	public void testSimple() {
+		List<String> headers = Collections.singletonList("sid=abc; theme=dark");
+		assertEquals("abc", CookieParser.find(headers, "sid"));
+		assertEquals("dark", CookieParser.find(headers, "theme"));
+		assertNull(CookieParser.find(headers, "other"));
+
+		Map<String, String> cookies = CookieParser.parse(headers);
+		assertEquals(2, cookies.size());
+		assertEquals("abc", cookies.get("sid"));
+		assertEquals("dark", cookies.get("theme"));
+	}
+
+	@Test
+	public void testWhitespace() {
+		Map<String, String> cookies = CookieParser.parse(Collections.singletonList("  a = 1 ;\tb=2  ;c=3"));
+		assertEquals("1", cookies.get("a"));
+		assertEquals("2", cookies.get("b"));
+		assertEquals("3", cookies.get("c"));
+	}
+
+	@Test
+	public void testQuoted() {
+		List<String> headers = Collections.singletonList("a=\"quoted value\"; b=\"; c=\"\"");
+		assertEquals("quoted value", CookieParser.find(headers, "a"));
+		// a lone quote is not a quoted value
+		assertEquals("\"", CookieParser.find(headers, "b"));
+		assertEquals("", CookieParser.find(headers, "c"));
+	}
+
+	@Test
+	public void testValueless() {
+		List<String> headers = Collections.singletonList("flag; a=; b=1");
+		Map<String, String> cookies = CookieParser.parse(headers);
+		assertEquals("", cookies.get("flag"));
+		assertEquals("", cookies.get("a"));
+		assertEquals("1", cookies.get("b"));
+		assertEquals("", CookieParser.find(headers, "flag"));
+	}
+
+	@Test
+	public void testValueContainsEquals() {
+		List<String> headers = Collections.singletonList("token=a=b==; x=1");
+		assertEquals("a=b==", CookieParser.find(headers, "token"));
+		assertEquals("1", CookieParser.find(headers, "x"));
+	}
+
+	@Test
+	public void testRepeatedFirstWins() {
+		List<String> headers = Arrays.asList("sid=first; sid=second", "sid=third; other=1");
+		assertEquals("first", CookieParser.find(headers, "sid"));
+		Map<String, String> cookies = CookieParser.parse(headers);
+		assertEquals("first", cookies.get("sid"));
+		assertEquals("1", cookies.get("other"));
+		assertEquals(2, cookies.size());
+	}
+
+	@Test
+	public void testNameMustMatchExactly() {
+		List<String> headers = Collections.singletonList("xsid=1; sidx=2; SID=3");
+		assertNull(CookieParser.find(headers, "sid"));
+	}
+
+	@Test
+	public void testEmptyAndSeparatorsOnly() {
+		assertTrue(CookieParser.parse(Collections.emptyList()).isEmpty());
+		assertTrue(CookieParser.parse(Arrays.asList("", " ; ;; ", "=value")).isEmpty());
+		assertNull(CookieParser.find(Collections.singletonList(";;"), "a"));
+	}
+}
@@ -0,0 +1,95 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExpiryWheelTests {
+
+	private ExpiryWheel wheel;
+	private List<String> due;
+
+	@Before
+	public void initialize() {
+		wheel = new ExpiryWheel(10, 100);
+		due = new ArrayList<>();
+	}
+
+	@Test
+	public void testDueAfterValidUntil() {
+		wheel.schedule("a", 105);
+		assertEquals(0, wheel.advance(105, due::add));
+		assertEquals(1, wheel.advance(106, due::add));
+		assertEquals(Arrays.asList("a"), due);
+	}
+
+	@Test
+	public void testProcessedOnce() {
+		wheel.schedule("a", 101);
+		wheel.advance(103, due::add);
+		wheel.advance(104, due::add);
+		assertEquals(Arrays.asList("a"), due);
+	}
+
+	@Test
+	public void testRescheduledWaitsForNextRound() {
+		wheel.schedule("a", 101);
+		// rescheduled into the slot being processed, as a touched session is
+		wheel.advance(102, sid -> {
+			due.add(sid);
+			wheel.schedule(sid, 101 + 16);
+		});
+		assertEquals(1, due.size());
+		wheel.advance(118, due::add);
+		assertEquals(Arrays.asList("a", "a"), due);
+	}
+
+	@Test
+	public void testLongPauseProcessesAllSlots() {
+		for (int i = 0; i < 16; ++i) {
+			wheel.schedule("s" + i, 100 + i);
+		}
+		assertEquals(16, wheel.advance(1000, due::add));
+		assertEquals(0, wheel.advance(1001, due::add));
+	}
+
+	@Test
+	public void testEvictEarliestFirst() {
+		Map<String, Long> sessions = new HashMap<>();
+		sessions.put("late", 109L);
+		sessions.put("early", 102L);
+		sessions.put("middle", 105L);
+		for (Map.Entry<String, Long> e : sessions.entrySet()) {
+			wheel.schedule(e.getKey(), e.getValue());
+		}
+		wheel.evictEarliest(() -> sessions.size() <= 1, sessions::get, sid -> {
+			due.add(sid);
+			sessions.remove(sid);
+		});
+		assertEquals(Arrays.asList("early", "middle"), due);
+		assertTrue(sessions.containsKey("late"));
+		// the remaining session is still scheduled
+		wheel.advance(110, due::add);
+		assertEquals(Arrays.asList("early", "middle", "late"), due);
+	}
+
+	@Test
+	public void testEvictSkipsRemovedAndFollowsTouched() {
+		Map<String, Long> sessions = new HashMap<>();
+		sessions.put("touched", 112L);
+		wheel.schedule("removed", 101);
+		wheel.schedule("touched", 103);
+		// the touched session is moved to the slot of its new time and evicted there
+		wheel.evictEarliest(() -> false, sid -> sessions.getOrDefault(sid, -1L), due::add);
+		assertEquals(Arrays.asList("touched"), due);
+		assertEquals(0, wheel.advance(120, due::add));
+	}
+}
@@ -0,0 +1,152 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionMemoryTests {
+
+	private SessionMemory memory;
+
+	private ConcurrentSessionStore store;
+
+	private int sids;
+
+	@Before
+	public void initialize() {
+		memory = new SessionMemory(0, 0);
+		store = new ConcurrentSessionStore(600, 1, memory);
+		sids = 0;
+	}
+
+	@Test
+	public void testFromProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("session.memoryBudget", "2");
+		properties.setProperty("session.quota", "3");
+		SessionMemory memory = SessionMemory.fromProperties(properties);
+		assertEquals(2 * 1024 * 1024, memory.getBudget());
+		assertEquals(3 * 1024, memory.getQuota());
+
+		memory = SessionMemory.fromProperties(new Properties());
+		assertEquals(0, memory.getBudget());
+		assertEquals(0, memory.getQuota());
+	}
+
+	@Test
+	public void testEstimate() {
+		assertEquals(40 + 2 * 3, SessionMemory.estimate("abc"));
+		assertEquals(16 + 10, SessionMemory.estimate(new byte[10]));
+		assertEquals(16, SessionMemory.estimate(42));
+		assertEquals(48 + SessionMemory.estimate("k") + SessionMemory.estimate(1.5),
+				SessionMemory.estimate("k", 1.5));
+	}
+
+	@Test
+	public void testParametersCharged() {
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		assertEquals(SessionMemory.SESSION_OVERHEAD, memory.getBytes());
+
+		entry.getMap().put("name", "value");
+		long charged = SessionMemory.estimate("name", "value");
+		assertEquals(charged, entry.getBytes());
+		assertEquals(SessionMemory.SESSION_OVERHEAD + charged, memory.getBytes());
+
+		entry.getMap().put("name", "a longer value");
+		charged = SessionMemory.estimate("name", "a longer value");
+		assertEquals(SessionMemory.SESSION_OVERHEAD + charged, memory.getBytes());
+
+		entry.getMap().remove("name");
+		assertEquals(SessionMemory.SESSION_OVERHEAD, memory.getBytes());
+
+		store.remove(entry.getSid());
+		assertEquals(0, memory.getBytes());
+	}
+
+	@Test
+	public void testRestoredParametersCharged() {
+		SessionMapEntry entry = new SessionMapEntry("sid", now() + 100);
+		entry.getMap().put("a", "1");
+		store.restore(entry);
+		assertEquals(SessionMemory.SESSION_OVERHEAD + SessionMemory.estimate("a", "1"), memory.getBytes());
+
+		// replacing a session releases the replaced one
+		store.restore(new SessionMapEntry("sid", now() + 100));
+		assertEquals(SessionMemory.SESSION_OVERHEAD, memory.getBytes());
+	}
+
+	@Test
+	public void testQuota() {
+		long quota = SessionMemory.SESSION_OVERHEAD + SessionMemory.estimate("a", "x") + 10;
+		memory = new SessionMemory(0, quota);
+		store = new ConcurrentSessionStore(600, 1, memory);
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		entry.getMap().put("a", "x");
+		long used = memory.getBytes();
+		try {
+			entry.getMap().put("b", "too much");
+			fail("The quota should have been exceeded.");
+		} catch (IllegalStateException expected) {
+		}
+		assertNull(entry.getMap().get("b"));
+		assertEquals(used, memory.getBytes());
+
+		// shrinking is always allowed
+		entry.getMap().put("a", "");
+		assertTrue(memory.getBytes() < used);
+	}
+
+	@Test
+	public void testBudgetEvictsSoonestToExpire() {
+		memory = new SessionMemory(4 * SessionMemory.SESSION_OVERHEAD, 0);
+		store = new ConcurrentSessionStore(600, 1, memory);
+		for (int i = 0; i < 4; ++i) {
+			store.restore(new SessionMapEntry("s" + i, now() + 100 + (i == 2 ? 0 : 10)));
+		}
+		assertEquals(4, store.size());
+
+		store.getOrCreate(null, this::nextSid);
+		assertTrue(memory.getBytes() <= memory.getBudget());
+		assertNull(store.touch("s2"));
+		assertEquals(memory.getEvictedCount(), 5 - store.size());
+		assertTrue(memory.getEvictedCount() > 0);
+	}
+
+	@Test
+	public void testExpiredSessionReleased() {
+		store.restore(new SessionMapEntry("old", now() - 10));
+		SessionMapEntry fresh = new SessionMapEntry("fresh", now() + 100);
+		fresh.getMap().put("a", "1");
+		store.restore(fresh);
+
+		assertNull(store.touch("old"));
+		assertEquals(1, store.size());
+		assertEquals(1, store.getExpiredCount());
+		assertEquals(SessionMemory.SESSION_OVERHEAD + SessionMemory.estimate("a", "1"), memory.getBytes());
+		assertNotNull(store.touch("fresh"));
+	}
+
+	@Test
+	public void testCreationCounted() {
+		for (int i = 0; i < 3; ++i) {
+			store.getOrCreate(null, this::nextSid);
+		}
+		assertEquals(3, memory.getCreatedCount());
+		assertEquals(0, memory.getEvictedCount());
+	}
+
+	private String nextSid() {
+		return "sid" + sids++;
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+}
@@ -0,0 +1,111 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+public class ContentMinifierTests {
+
+	@Test
+	public void testCollapsesSpaces() {
+		assertEquals("<p> a b </p>", ContentMinifier.minify("<p>   a \t b  </p>"));
+	}
+
+	@Test
+	public void testCollapsesToLineBreak() {
+		assertEquals("<p>a\nb</p>", ContentMinifier.minify("<p>a  \n\n   b</p>"));
+	}
+
+	@Test
+	public void testRemovesComments() {
+		assertEquals("<p>ab</p>", ContentMinifier.minify("<p>a<!-- comment -->b</p>"));
+		assertEquals("<p>a b</p>", ContentMinifier.minify("<p>a<!-- one\n two --> b</p>"));
+	}
+
+	@Test
+	public void testKeepsConditionalComments() {
+		String text = "<!--[if IE]><p>old</p><![endif]-->";
+		assertEquals(text, ContentMinifier.minify(text));
+	}
+
+	@Test
+	public void testKeepsUnterminatedComment() {
+		assertEquals("<p>a <!-- open", ContentMinifier.minify("<p>a <!-- open"));
+	}
+
+	@Test
+	public void testKeepsPreservedElements() {
+		String pre = "<pre>  a\n\n  b  </pre>";
+		assertEquals("<div> " + pre + " </div>", ContentMinifier.minify("<div>   " + pre + "   </div>"));
+		String script = "<script type=\"text/javascript\">\n  var a  =  1;\n</script>";
+		assertEquals(script + " ", ContentMinifier.minify(script + "  "));
+		assertEquals(script, ContentMinifier.minify(script));
+		String textarea = "<TEXTAREA>  x  </TEXTAREA>";
+		assertEquals(textarea, ContentMinifier.minify(textarea));
+	}
+
+	@Test
+	public void testDoesNotPreservePrefixedElements() {
+		assertEquals("<prefix> a </prefix>", ContentMinifier.minify("<prefix>  a  </prefix>"));
+	}
+
+	@Test
+	public void testKeepsQuotedAttributeValues() {
+		assertEquals("<input value=\"a    b\" title='c \n d'>",
+				ContentMinifier.minify("<input  value=\"a    b\"   title='c \n d'>"));
+	}
+
+	@Test
+	public void testQuotesInTextAreNotAttributes() {
+		assertEquals("<p>\"a b\"</p>", ContentMinifier.minify("<p>\"a   b\"</p>"));
+		assertEquals("<p>it's a b</p>", ContentMinifier.minify("<p>it's a   b</p>"));
+	}
+
+	@Test
+	public void testLessThanInTextIsNotATag() {
+		assertEquals("<p>1 < 2 \"a b\"</p>", ContentMinifier.minify("<p>1 <  2 \"a   b\"</p>"));
+	}
+
+	@Test
+	public void testPreservedElementSpansPieces() {
+		String[] openElement = new String[1];
+		assertEquals("<p> a </p><pre>  b  ", ContentMinifier.minify("<p>  a  </p><pre>  b  ", openElement));
+		assertEquals("pre", openElement[0]);
+		assertEquals("  c  ", ContentMinifier.minify("  c  ", openElement));
+		assertEquals("  d  </PRE> e ", ContentMinifier.minify("  d  </PRE>  e  ", openElement));
+		assertEquals(null, openElement[0]);
+	}
+
+	@Test
+	public void testScriptKeepsPreservedElementAcrossSmartTag() throws IOException {
+		DocumentNode document = parse("<pre>  a  {$= \"x\" $}  b  </pre>   <p>  c  </p>");
+		assertEquals("<pre>  a  ", ((TextNode) document.getChild(0)).getText());
+		assertEquals("  b  </pre> <p> c </p>\n", ((TextNode) document.getChild(2)).getText());
+	}
+
+	@Test
+	public void testScriptWithOtherMimeTypeNotMinified() throws IOException {
+		DocumentNode document = parse("{$= \"text/plain\" @setMimeType $}a   b");
+		assertEquals("a   b\r\n", ((TextNode) document.getChild(1)).getText());
+		document = parse("{$= \"text/html\" @setMimeType $}a   b");
+		assertEquals("a b\n", ((TextNode) document.getChild(1)).getText());
+	}
+
+	private static DocumentNode parse(String script) throws IOException {
+		Path file = Files.createTempFile("minify", ".smscr");
+		try {
+			Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+			return new ScriptCache(new ContentMinifier()).get(file.toString(), 0);
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapSessionStoreTests {
+
+	private OffHeapSessionStore store;
+
+	private int sids;
+
+	@Before
+	public void initialize() {
+		store = new OffHeapSessionStore(600, 8, 512);
+		sids = 0;
+	}
+
+	@Test
+	public void testCreateAndTouch() {
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		assertEquals(1, store.size());
+		SessionMapEntry touched = store.touch(entry.getSid());
+		assertNotNull(touched);
+		assertEquals(entry.getSid(), touched.getSid());
+		assertTrue(store.getOrCreate(entry.getSid(), this::nextSid).getSid().equals(entry.getSid()));
+		assertEquals(1, store.size());
+		assertNull(store.touch("unknown"));
+	}
+
+	@Test
+	public void testParameterTypes() {
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		entry.getMap().put("s", "value");
+		entry.getMap().put("i", 42);
+		entry.getMap().put("d", 1.5);
+		entry.getMap().put("b", new byte[] { 1, 2, 3 });
+
+		SessionMapEntry copy = store.touch(entry.getSid());
+		assertEquals("value", copy.getMap().get("s"));
+		assertEquals(42, copy.getMap().get("i"));
+		assertEquals(1.5, copy.getMap().get("d"));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) copy.getMap().get("b"));
+		assertEquals(4, copy.getMap().size());
+
+		copy.getMap().remove("s");
+		assertFalse(entry.getMap().containsKey("s"));
+	}
+
+	@Test
+	public void testRemoveInvalidatesEntry() {
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		entry.getMap().put("a", "1");
+		store.remove(entry.getSid());
+		assertEquals(0, store.size());
+		assertNull(store.touch(entry.getSid()));
+
+		// the slot is reused, the stale entry must not see or change it
+		SessionMapEntry other = store.getOrCreate(null, this::nextSid);
+		entry.getMap().put("a", "2");
+		assertTrue(entry.getMap().isEmpty());
+		assertTrue(other.getMap().isEmpty());
+	}
+
+	@Test
+	public void testFullStoreEvictsSoonestToExpire() {
+		long now = System.currentTimeMillis() / 1000;
+		for (int i = 0; i < 8; ++i) {
+			store.restore(new SessionMapEntry("s" + i, now + 100 + (i == 5 ? 0 : 10 + i)));
+		}
+		SessionMapEntry created = store.getOrCreate(null, this::nextSid);
+		assertNotNull(created);
+		assertEquals(8, store.size());
+		assertNull(store.touch("s5"));
+		assertEquals(1, store.getMemory().getEvictedCount());
+	}
+
+	@Test
+	public void testBudgetEvicts() {
+		long budget = 5 * SessionMemory.SESSION_OVERHEAD;
+		store = new OffHeapSessionStore(600, 32, 512, new SessionMemory(budget, 0));
+		for (int i = 0; i < 20; ++i) {
+			store.getOrCreate(null, this::nextSid);
+			assertTrue(store.getMemory().getBytes() <= budget);
+		}
+		assertTrue(store.size() <= 5);
+		assertEquals(20, store.getMemory().getCreatedCount());
+		assertEquals(20 - store.size(), store.getMemory().getEvictedCount());
+	}
+
+	@Test
+	public void testMemoryAccounting() {
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		assertEquals(SessionMemory.SESSION_OVERHEAD, store.getMemory().getBytes());
+		entry.getMap().put("name", "value");
+		long withParameter = store.getMemory().getBytes();
+		assertTrue(withParameter > SessionMemory.SESSION_OVERHEAD);
+		entry.getMap().remove("name");
+		assertEquals(SessionMemory.SESSION_OVERHEAD, store.getMemory().getBytes());
+		store.remove(entry.getSid());
+		assertEquals(0, store.getMemory().getBytes());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testQuotaExceeded() {
+		store = new OffHeapSessionStore(600, 8, 512, new SessionMemory(0, SessionMemory.SESSION_OVERHEAD + 32));
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		entry.getMap().put("small", 1);
+		entry.getMap().put("large", "a value much longer than the quota of thirty two bytes");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSlotSizeExceeded() {
+		SessionMapEntry entry = store.getOrCreate(null, this::nextSid);
+		entry.getMap().put("large", new byte[512]);
+	}
+
+	@Test
+	public void testRemoveExpired() {
+		long now = System.currentTimeMillis() / 1000;
+		store.restore(new SessionMapEntry("old1", now - 10));
+		store.restore(new SessionMapEntry("old2", now - 1));
+		store.restore(new SessionMapEntry("fresh", now + 100));
+		assertNull(store.touch("old1"));
+		assertEquals(3, store.size());
+
+		// a call sweeps a tenth of the slab
+		for (int i = 0; i < 10; ++i) {
+			store.removeExpired();
+		}
+		assertEquals(1, store.size());
+		assertNotNull(store.touch("fresh"));
+		assertEquals(SessionMemory.SESSION_OVERHEAD, store.getMemory().getBytes());
+	}
+
+	@Test
+	public void testForEach() {
+		for (int i = 0; i < 5; ++i) {
+			store.getOrCreate(null, this::nextSid);
+		}
+		Set<String> seen = new HashSet<>();
+		store.forEach(entry -> seen.add(entry.getSid()));
+		assertEquals(5, seen.size());
+	}
+
+	private String nextSid() {
+		return "sid" + sids++;
+	}
+}
@@ -0,0 +1,159 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionPersistenceTests {
+
+	private Path directory;
+
+	@Before
+	public void initialize() throws IOException {
+		directory = Files.createTempDirectory("sessions");
+	}
+
+	@After
+	public void cleanup() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	@Test
+	public void testEmptyDirectory() throws IOException {
+		SessionPersistence persistence = new SessionPersistence(directory, new ConcurrentSessionStore(600, 1), 60);
+		assertEquals(0, persistence.load());
+		persistence.stop();
+	}
+
+	@Test
+	public void testSnapshotRestored() throws IOException {
+		SessionStore store = new ConcurrentSessionStore(600, 1);
+		SessionPersistence persistence = new SessionPersistence(directory, store, 60);
+		persistence.load();
+		SessionMapEntry entry = store.getOrCreate(null, () -> "sid1");
+		entry.getMap().put("name", "Ana");
+		entry.getMap().put("count", 3);
+		persistence.stop();
+
+		SessionStore restored = new ConcurrentSessionStore(600, 1);
+		assertEquals(1, new SessionPersistence(directory, restored, 60).load());
+		SessionMapEntry copy = restored.touch("sid1");
+		assertNotNull(copy);
+		assertEquals("Ana", copy.getMap().get("name"));
+		assertEquals(3, copy.getMap().get("count"));
+	}
+
+	@Test
+	public void testJournalReplayedAfterCrash() throws IOException {
+		SessionStore store = new ConcurrentSessionStore(600, 1);
+		SessionPersistence persistence = new SessionPersistence(directory, store, 60);
+		persistence.load();
+		store.getOrCreate(null, () -> "sid1").getMap().put("a", "1");
+		SessionMapEntry second = store.getOrCreate(null, () -> "sid2");
+		second.getMap().put("b", "2");
+		second.getMap().put("c", "3");
+		second.getMap().remove("b");
+		store.getOrCreate(null, () -> "sid3");
+		store.remove("sid3");
+		// no stop, the journal is all there is
+
+		SessionStore restored = new ConcurrentSessionStore(600, 1);
+		assertEquals(2, new SessionPersistence(directory, restored, 60).load());
+		assertEquals("1", restored.touch("sid1").getMap().get("a"));
+		SessionMapEntry copy = restored.touch("sid2");
+		assertFalse(copy.getMap().containsKey("b"));
+		assertEquals("3", copy.getMap().get("c"));
+		assertNull(restored.touch("sid3"));
+	}
+
+	@Test
+	public void testJournalAppliedOnTopOfSnapshot() throws IOException {
+		SessionStore store = new ConcurrentSessionStore(600, 1);
+		SessionPersistence persistence = new SessionPersistence(directory, store, 60);
+		persistence.load();
+		SessionMapEntry entry = store.getOrCreate(null, () -> "sid1");
+		entry.getMap().put("a", "old");
+		persistence.snapshot();
+		entry.getMap().put("a", "new");
+		store.getOrCreate(null, () -> "sid2");
+
+		SessionStore restored = new ConcurrentSessionStore(600, 1);
+		assertEquals(2, new SessionPersistence(directory, restored, 60).load());
+		assertEquals("new", restored.touch("sid1").getMap().get("a"));
+		assertNotNull(restored.touch("sid2"));
+	}
+
+	@Test
+	public void testTruncatedRecordIgnored() throws IOException {
+		SessionStore store = new ConcurrentSessionStore(600, 1);
+		SessionPersistence persistence = new SessionPersistence(directory, store, 60);
+		persistence.load();
+		SessionMapEntry entry = store.getOrCreate(null, () -> "sid1");
+		entry.getMap().put("a", "1");
+		entry.getMap().put("b", "a value cut off by the crash");
+
+		Path journal = lastJournal();
+		long end = dataEnd(journal);
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+			channel.truncate(end - 5);
+		}
+
+		SessionStore restored = new ConcurrentSessionStore(600, 1);
+		assertEquals(1, new SessionPersistence(directory, restored, 60).load());
+		SessionMapEntry copy = restored.touch("sid1");
+		assertEquals("1", copy.getMap().get("a"));
+		assertFalse(copy.getMap().containsKey("b"));
+	}
+
+	@Test
+	public void testExpiredSessionsNotRestored() throws IOException {
+		SessionStore store = new ConcurrentSessionStore(600, 1);
+		SessionPersistence persistence = new SessionPersistence(directory, store, 60);
+		persistence.load();
+		store.restore(new SessionMapEntry("old", 1, null, persistence));
+		store.getOrCreate(null, () -> "sid1");
+		persistence.stop();
+
+		SessionStore restored = new ConcurrentSessionStore(600, 1);
+		assertEquals(1, new SessionPersistence(directory, restored, 60).load());
+		assertNull(restored.touch("old"));
+	}
+
+	private Path lastJournal() throws IOException {
+		Path last = null;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "journal.*")) {
+			for (Path path : stream) {
+				if (last == null || path.getFileName().toString().compareTo(last.getFileName().toString()) > 0) {
+					last = path;
+				}
+			}
+		}
+		return last;
+	}
+
+	private static long dataEnd(Path path) throws IOException {
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+		int end = data.limit();
+		while (end > 0 && data.get(end - 1) == 0) {
+			--end;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,116 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class QueryParametersTests {
+
+	@Test
+	public void testSimple() {
+		QueryParameters parameters = new QueryParameters("a=1&b=two");
+		assertEquals(2, parameters.size());
+		assertEquals("1", parameters.get("a"));
+		assertEquals("two", parameters.get("b"));
+		assertNull(parameters.get("c"));
+		assertFalse(parameters.isTruncated());
+	}
+
+	@Test
+	public void testNullAndEmpty() {
+		assertTrue(new QueryParameters(null).isEmpty());
+		assertTrue(new QueryParameters("").isEmpty());
+		assertTrue(new QueryParameters("&&&").isEmpty());
+	}
+
+	@Test
+	public void testValuelessAndEmptySegments() {
+		QueryParameters parameters = new QueryParameters("&flag&a=&&b=1&");
+		assertEquals(3, parameters.size());
+		assertEquals("", parameters.get("flag"));
+		assertEquals("", parameters.get("a"));
+		assertEquals("1", parameters.get("b"));
+	}
+
+	@Test
+	public void testRepeated() {
+		QueryParameters parameters = new QueryParameters("a=1&b=2&a=3");
+		assertEquals("1", parameters.get("a"));
+		assertEquals(Arrays.asList("1", "3"), parameters.getValues("a"));
+		assertEquals(Collections.singletonList("2"), parameters.getValues("b"));
+		assertEquals(Collections.emptyList(), parameters.getValues("c"));
+		assertEquals(2, parameters.size());
+	}
+
+	@Test
+	public void testDecoding() {
+		QueryParameters parameters = new QueryParameters("na+me=a%20b%2Bc&e=x%3Dy&u=%C4%8D");
+		assertEquals("a b+c", parameters.get("na me"));
+		assertEquals("x=y", parameters.get("e"));
+		assertEquals("č", parameters.get("u"));
+	}
+
+	@Test
+	public void testRawUtf8Bytes() {
+		// the request line is read as ISO-8859-1, one character per byte
+		QueryParameters parameters = new QueryParameters("u=Ä\u008d");
+		assertEquals("č", parameters.get("u"));
+	}
+
+	@Test
+	public void testInvalidEscapesKept() {
+		QueryParameters parameters = new QueryParameters("a=100%&b=%zz&c=%4");
+		assertEquals("100%", parameters.get("a"));
+		assertEquals("%zz", parameters.get("b"));
+		assertEquals("%4", parameters.get("c"));
+	}
+
+	@Test
+	public void testValueContainsEquals() {
+		assertEquals("b=c", new QueryParameters("a=b=c").get("a"));
+	}
+
+	@Test
+	public void testMaxCount() {
+		long before = QueryParameters.getTruncatedCount();
+		QueryParameters parameters = new QueryParameters("a=1&b=2&c=3&d=4", 2, 100);
+		assertEquals(2, parameters.size());
+		assertTrue(parameters.containsKey("b"));
+		assertFalse(parameters.containsKey("c"));
+		assertTrue(parameters.isTruncated());
+		assertEquals(before + 1, QueryParameters.getTruncatedCount());
+
+		// empty segments don't count
+		parameters = new QueryParameters("a=1&&&b=2", 2, 100);
+		assertEquals(2, parameters.size());
+		assertFalse(parameters.isTruncated());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaxLength() {
+		new QueryParameters("a=12345", 10, 5);
+	}
+
+	@Test
+	public void testModification() {
+		QueryParameters parameters = new QueryParameters("a=1&a=2&b=3");
+		assertEquals("1", parameters.put("a", "x"));
+		assertEquals(Collections.singletonList("x"), parameters.getValues("a"));
+		assertEquals("3", parameters.remove("b"));
+		assertEquals(Collections.emptyList(), parameters.getValues("b"));
+		assertNull(parameters.put("c", "4"));
+		assertEquals(2, parameters.size());
+	}
+
+	@Test
+	public void testOrderPreserved() {
+		QueryParameters parameters = new QueryParameters("z=1&a=2&m=3");
+		assertEquals(Arrays.asList("z", "a", "m"), Arrays.asList(parameters.keySet().toArray()));
+	}
+}
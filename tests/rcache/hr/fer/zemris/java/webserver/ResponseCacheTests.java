@@ -0,0 +1,191 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseCacheTests {
+
+	private final static String OK = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n\r\nhello";
+
+	private ResponseCache cache;
+
+	@Before
+	public void initialize() {
+		cache = new ResponseCache("test", 60_000, null, 16);
+	}
+
+	@Test
+	public void testCapturedResponseCached() throws IOException {
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+		assertNull(cache.get("k"));
+		store("k", OK, client);
+		// the client still gets the response
+		assertEquals(OK, new String(client.toByteArray(), StandardCharsets.ISO_8859_1));
+		assertArrayEquals(OK.getBytes(StandardCharsets.ISO_8859_1), cache.get("k"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0.5, cache.getHitRatio(), 1e-9);
+	}
+
+	@Test
+	public void testErrorsNotCached() throws IOException {
+		store("a", "HTTP/1.1 404 Not Found\r\n\r\nmissing", new ByteArrayOutputStream());
+		store("b", "HTTP/1.1 500 Internal Server Error\r\n\r\n", new ByteArrayOutputStream());
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSetCookieNotCached() throws IOException {
+		store("k", "HTTP/1.1 200 OK\r\nSet-Cookie: sid=abc\r\n\r\nhello", new ByteArrayOutputStream());
+		assertNull(cache.get("k"));
+		// only headers count, a body mentioning the header is fine
+		store("k", "HTTP/1.1 200 OK\r\n\r\n\r\nSet-Cookie: in the body", new ByteArrayOutputStream());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testSessionReadingResponseNotCached() throws IOException {
+		// read before the header is written
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+		ResponseCache.Capture capture = cache.capture("a", client);
+		RequestContext rc = sessionContext(capture);
+		String user = rc.getPersistentParameter("user");
+		rc.write("hello " + user);
+		capture.commit();
+		assertNull(cache.get("a"));
+		assertTrue(new String(client.toByteArray(), StandardCharsets.ISO_8859_1).endsWith("hello alice"));
+
+		// read after the header is written
+		capture = cache.capture("b", new ByteArrayOutputStream());
+		rc = sessionContext(capture);
+		rc.write("hello ");
+		rc.write(rc.getPersistentParameter("user"));
+		capture.commit();
+		assertNull(cache.get("b"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testIncompleteHeaderNotCached() throws IOException {
+		store("k", "HTTP/1.1 200 OK\r\nContent-Type: text/plain", new ByteArrayOutputStream());
+		assertNull(cache.get("k"));
+	}
+
+	@Test
+	public void testLargeResponseNotCached() throws IOException {
+		StringBuilder sb = new StringBuilder("HTTP/1.1 200 OK\r\n\r\n");
+		while (sb.length() <= 64 * 1024) {
+			sb.append("0123456789");
+		}
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+		store("k", sb.toString(), client);
+		assertNull(cache.get("k"));
+		assertEquals(sb.length(), client.size());
+	}
+
+	@Test
+	public void testExpires() throws IOException, InterruptedException {
+		cache = new ResponseCache("test", 50, null, 16);
+		store("k", OK, new ByteArrayOutputStream());
+		assertEquals(1, cache.size());
+		Thread.sleep(100);
+		assertNull(cache.get("k"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws IOException {
+		cache = new ResponseCache("test", 60_000, null, 2);
+		store("a", OK, new ByteArrayOutputStream());
+		store("b", OK, new ByteArrayOutputStream());
+		cache.get("a");
+		store("c", OK, new ByteArrayOutputStream());
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals(OK.length(), cache.get("a").length);
+	}
+
+	@Test
+	public void testKeyFromAllParameters() {
+		Map<String, String> first = new LinkedHashMap<>();
+		first.put("a", "1");
+		first.put("b", "2");
+		Map<String, String> second = new LinkedHashMap<>();
+		second.put("a", "12");
+		assertNotEquals(cache.key(first), cache.key(second));
+		second.put("b", "2");
+		second.put("a", "1");
+		assertEquals(cache.key(first), cache.key(second));
+	}
+
+	@Test
+	public void testKeyFromNamedParameters() {
+		cache = new ResponseCache("test", 60_000, new String[] { "name" }, 16);
+		Map<String, String> parameters = new HashMap<>();
+		String missing = cache.key(parameters);
+		parameters.put("other", "ignored");
+		assertEquals(missing, cache.key(parameters));
+		parameters.put("name", "");
+		String empty = cache.key(parameters);
+		assertNotEquals(missing, empty);
+		parameters.put("name", "ana");
+		assertNotEquals(empty, cache.key(parameters));
+	}
+
+	@Test
+	public void testFromOptions() {
+		Map<String, String> options = new HashMap<>();
+		assertNull(ResponseCache.fromOptions("test", options));
+		options.put("cacheTtl", "1000");
+		options.put("cacheKey", "a,b");
+		ResponseCache cache = ResponseCache.fromOptions("test", options);
+		assertEquals("test", cache.getName());
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("b", "2");
+		parameters.put("c", "3");
+		String key = cache.key(parameters);
+		parameters.remove("c");
+		assertEquals(key, cache.key(parameters));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidTtl() {
+		new ResponseCache("test", 0, null, 16);
+	}
+
+	private RequestContext sessionContext(ResponseCache.Capture capture) {
+		RequestContext rc = new RequestContext(capture, null, null, new ArrayList<>());
+		rc.setPersistentParametersSupplier(() -> {
+			// as the server does when a worker reads the session
+			capture.skip();
+			Map<String, Object> session = new HashMap<>();
+			session.put("user", "alice");
+			return session;
+		});
+		return rc;
+	}
+
+	private void store(String key, String response, ByteArrayOutputStream client) throws IOException {
+		ResponseCache.Capture capture = cache.capture(key, client);
+		byte[] bytes = response.getBytes(StandardCharsets.ISO_8859_1);
+		capture.write(bytes, 0, 5);
+		capture.write(bytes, 5, bytes.length - 5);
+		capture.commit();
+	}
+}
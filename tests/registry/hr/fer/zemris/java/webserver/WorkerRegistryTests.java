@@ -0,0 +1,145 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkerRegistryTests {
+
+	private CountingClassLoader loader;
+
+	private WorkerRegistry registry;
+
+	@Before
+	public void initialize() {
+		loader = new CountingClassLoader();
+		registry = new WorkerRegistry(loader, new Properties());
+		SharedWorker.destroyed = 0;
+	}
+
+	@Test
+	public void testSharedWorker() {
+		IWebWorker worker = registry.get(SharedWorker.class.getName());
+		assertTrue(worker instanceof SharedWorker);
+		assertSame(worker, registry.get(SharedWorker.class.getName()));
+		assertEquals(1, loader.count(SharedWorker.class.getName()));
+	}
+
+	@Test
+	public void testStatefulWorker() {
+		IWebWorker first = registry.get(StatefulWorker.class.getName());
+		IWebWorker second = registry.get(StatefulWorker.class.getName());
+		assertNotNull(first);
+		assertNotSame(first, second);
+		assertEquals(1, loader.count(StatefulWorker.class.getName()));
+	}
+
+	@Test
+	public void testMissingLookedUpOnce() {
+		for (int i = 0; i < 10; ++i) {
+			assertNull(registry.get("no.such.Worker"));
+		}
+		assertEquals(1, loader.count("no.such.Worker"));
+		assertEquals(1, registry.getMissingCount());
+	}
+
+	@Test
+	public void testNotAWorkerIsMissing() {
+		assertNull(registry.get(String.class.getName()));
+		assertNull(registry.get(String.class.getName()));
+		assertEquals(1, loader.count(String.class.getName()));
+		assertEquals(1, registry.getMissingCount());
+	}
+
+	@Test
+	public void testMissingNamesBounded() {
+		// the oldest missing names are forgotten, so the cache can't grow
+		// without bound when clients request random names
+		assertNull(registry.get("missing.0"));
+		for (int i = 1; i <= 2000; ++i) {
+			assertNull(registry.get("missing." + i));
+		}
+		assertNull(registry.get("missing.0"));
+		assertEquals(2, loader.count("missing.0"));
+		assertNull(registry.get("missing.2000"));
+		assertEquals(1, loader.count("missing.2000"));
+		assertEquals(2002, registry.getMissingCount());
+	}
+
+	@Test
+	public void testDestroySharedWorkers() {
+		registry.get(SharedWorker.class.getName());
+		registry.get(StatefulWorker.class.getName());
+		registry.destroy();
+		assertEquals(1, SharedWorker.destroyed);
+	}
+
+	@Test
+	public void testInitFailureIsMissing() {
+		assertNull(registry.get(FailingWorker.class.getName()));
+		assertNull(registry.get(FailingWorker.class.getName()));
+		assertEquals(1, loader.count(FailingWorker.class.getName()));
+	}
+
+	public static class SharedWorker implements IWebWorker {
+
+		private static int destroyed;
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+
+		@Override
+		public void destroy() {
+			++destroyed;
+		}
+	}
+
+	public static class StatefulWorker implements IStatefulWebWorker {
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+	}
+
+	public static class FailingWorker implements IWebWorker {
+
+		@Override
+		public void init(Properties properties) throws Exception {
+			throw new Exception("init failed");
+		}
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+	}
+
+	private static class CountingClassLoader extends ClassLoader {
+
+		private Map<String, Integer> counts = new HashMap<>();
+
+		public CountingClassLoader() {
+			super(WorkerRegistryTests.class.getClassLoader());
+		}
+
+		@Override
+		public Class<?> loadClass(String name) throws ClassNotFoundException {
+			counts.merge(name, 1, Integer::sum);
+			return super.loadClass(name);
+		}
+
+		public int count(String name) {
+			return counts.getOrDefault(name, 0);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RouterTests {
+
+	private Router<String> router;
+
+	@Before
+	public void initialize() {
+		router = new Router<>();
+	}
+
+	@Test
+	public void testStaticRoutes() {
+		router.add("/ab", "ab");
+		router.add("/abc", "abc");
+		router.add("/abd", "abd");
+		router.add("/", "root");
+		assertEquals("ab", match("/ab").getTarget());
+		assertEquals("abc", match("/abc").getTarget());
+		assertEquals("abd", match("/abd").getTarget());
+		assertEquals("root", match("/").getTarget());
+		assertNull(match("/a"));
+		assertNull(match("/abcd"));
+	}
+
+	@Test
+	public void testParameters() {
+		router.add("/users/{user}/posts/{post}", "post");
+		Router.Match<String> match = match("/users/ana/posts/42");
+		assertEquals("post", match.getTarget());
+		assertEquals(2, match.getParameterCount());
+		assertEquals("user", match.getParameterName(0));
+		assertEquals("ana", match.getParameterValue(0));
+		assertEquals("post", match.getParameterName(1));
+		assertEquals("42", match.getParameterValue(1));
+		assertNull(match.getRemainder());
+
+		assertNull(match("/users//posts/42"));
+		assertNull(match("/users/ana/posts/"));
+		assertNull(match("/users/ana/posts/42/x"));
+	}
+
+	@Test
+	public void testStaticBeatsParameter() {
+		router.add("/users/{id}", "user");
+		router.add("/users/new", "new");
+		assertEquals("new", match("/users/new").getTarget());
+		Router.Match<String> match = match("/users/newer");
+		assertEquals("user", match.getTarget());
+		assertEquals("newer", match.getParameterValue(0));
+	}
+
+	@Test
+	public void testParameterBeatsWildcard() {
+		router.add("/files/*", "files");
+		router.add("/files/{name}", "file");
+		Router.Match<String> match = match("/files/a.txt");
+		assertEquals("file", match.getTarget());
+		assertEquals("a.txt", match.getParameterValue(0));
+
+		match = match("/files/dir/a.txt");
+		assertEquals("files", match.getTarget());
+		assertEquals(0, match.getParameterCount());
+		assertEquals("dir/a.txt", match.getRemainder());
+
+		assertEquals("", match("/files/").getRemainder());
+		assertNull(match("/files"));
+	}
+
+	@Test
+	public void testBacktracking() {
+		router.add("/a/b/d", "static");
+		router.add("/a/{x}/c", "parameter");
+		assertEquals("static", match("/a/b/d").getTarget());
+		Router.Match<String> match = match("/a/b/c");
+		assertEquals("parameter", match.getTarget());
+		assertEquals(1, match.getParameterCount());
+		assertEquals("b", match.getParameterValue(0));
+	}
+
+	@Test
+	public void testCapturesResetOnBacktrack() {
+		router.add("/{a}/x", "x");
+		router.add("/*", "any");
+		Router.Match<String> match = match("/p/y");
+		assertEquals("any", match.getTarget());
+		assertEquals(0, match.getParameterCount());
+		assertEquals("p/y", match.getRemainder());
+	}
+
+	@Test
+	public void testMatchReused() {
+		router.add("/users/{id}", "user");
+		router.add("/static", "static");
+		Router.Match<String> match = router.newMatch();
+		assertTrue(router.match("/users/1", 0, 8, match));
+		assertEquals(1, match.getParameterCount());
+		assertTrue(router.match("/static", 0, 7, match));
+		assertEquals("static", match.getTarget());
+		assertEquals(0, match.getParameterCount());
+		assertFalse(router.match("/other", 0, 6, match));
+		assertNull(match.getTarget());
+	}
+
+	@Test
+	public void testRange() {
+		router.add("/users/{id}", "user");
+		String request = "GET /users/42?full=1 HTTP/1.1";
+		Router.Match<String> match = router.newMatch();
+		assertTrue(router.match(request, 4, request.indexOf('?'), match));
+		assertEquals("42", match.getParameterValue(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRelativeRoute() {
+		router.add("users", "user");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateRoute() {
+		router.add("/users/{id}", "user");
+		router.add("/users/{id}", "other");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentlyNamedParameter() {
+		router.add("/users/{id}", "user");
+		router.add("/users/{name}/posts", "posts");
+	}
+
+	@Test
+	public void testMalformedParameters() {
+		String[] malformed = { "/users/{id", "/users/{}", "/users/x{id}", "/users/{id}x" };
+		for (String pattern : malformed) {
+			try {
+				router.add(pattern, "x");
+				throw new AssertionError(pattern + " should have been rejected.");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testWildcardAndExactCoexist() {
+		router.add("/docs/*", "tree");
+		router.add("/docs/", "index");
+		assertEquals("index", match("/docs/").getTarget());
+		assertEquals("tree", match("/docs/a").getTarget());
+	}
+
+	private Router.Match<String> match(String path) {
+		Router.Match<String> match = router.newMatch();
+		return router.match(path, 0, path.length(), match) ? match : null;
+	}
+}
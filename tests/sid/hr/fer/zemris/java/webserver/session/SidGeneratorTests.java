@@ -0,0 +1,59 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class SidGeneratorTests {
+
+	@Test
+	public void testLengthAndAlphabet() {
+		for (int i = 0; i < 1000; ++i) {
+			String sid = SidGenerator.generate();
+			assertEquals(SidGenerator.SID_LENGTH, sid.length());
+			assertTrue(sid, sid.matches("[A-Za-z0-9_-]+"));
+		}
+	}
+
+	@Test
+	public void testUnique() {
+		Set<String> sids = new HashSet<>();
+		for (int i = 0; i < 100_000; ++i) {
+			assertTrue(sids.add(SidGenerator.generate()));
+		}
+	}
+
+	@Test
+	public void testAllCharactersUsed() {
+		Set<Character> used = new HashSet<>();
+		for (int i = 0; i < 1000; ++i) {
+			for (char c : SidGenerator.generate().toCharArray()) {
+				used.add(c);
+			}
+		}
+		assertEquals(64, used.size());
+	}
+
+	@Test
+	public void testUniqueAcrossThreads() throws InterruptedException {
+		Set<String> sids = ConcurrentHashMap.newKeySet();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 10_000; ++i) {
+					sids.add(SidGenerator.generate());
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(40_000, sids.size());
+	}
+}